@@ -0,0 +1,140 @@
+package com.tradewinds;
+
+import net.runelite.api.MenuEntry;
+import net.runelite.api.events.MenuOpened;
+import net.runelite.api.widgets.WidgetID;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link BankMenuFilter} on the menus the client opens.
+ * <p>
+ * Run with the gc profiler (the build's default): {@code nonBankMenu} and
+ * {@code bankMenuWithoutWithdrawX} must report a {@code gc.alloc.rate.norm} of
+ * 0 B/op. Only {@code bankMenuWithWithdrawX} may allocate, and only the trimmed
+ * array handed back to the event.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class BankMenuFilterBenchmark
+{
+    // Bank item container child, as carried in param1 of a bank item's options
+    private static final int BANK_ITEM_WIDGET = WidgetID.BANK_GROUP_ID << 16 | 13;
+
+    private static final String[] BANK_OPTIONS = {
+            "Cancel", "Examine", "Placeholder", "Withdraw-All-but-1", "Withdraw-All",
+            "Withdraw-X", "Withdraw-10", "Withdraw-5", "Withdraw-1",
+    };
+
+    private final BankMenuFilter closedFilter = new BankMenuFilter();
+    private final BankMenuFilter openFilter = new BankMenuFilter();
+
+    private MenuOpened worldMenu;
+    private MenuOpened bankMenu;
+    private MenuOpened withdrawXMenu;
+    private MenuEntry[] withdrawXEntries;
+    private MenuEntry[] withdrawXTemplate;
+
+    @Setup
+    public void setUp()
+    {
+        openFilter.onWidgetLoaded(WidgetID.BANK_GROUP_ID);
+
+        MenuEntry[] world = {
+                entry("Cancel", -1), entry("Examine", -1), entry("Walk here", -1),
+                entry("Attack", -1), entry("Talk-to", -1), entry("Trade with", -1),
+        };
+        worldMenu = event(world);
+
+        MenuEntry[] withoutX = new MenuEntry[BANK_OPTIONS.length - 1];
+        withdrawXTemplate = new MenuEntry[BANK_OPTIONS.length];
+        for (int i = 0, j = 0; i < BANK_OPTIONS.length; i++)
+        {
+            MenuEntry entry = entry(BANK_OPTIONS[i], BANK_ITEM_WIDGET);
+            withdrawXTemplate[i] = entry;
+            if (!BankMenuFilter.WITHDRAW_X.equals(BANK_OPTIONS[i]))
+            {
+                withoutX[j++] = entry;
+            }
+        }
+        bankMenu = event(withoutX);
+
+        withdrawXEntries = withdrawXTemplate.clone();
+        withdrawXMenu = event(withdrawXEntries);
+    }
+
+    @Setup(Level.Invocation)
+    public void restoreWithdrawXMenu()
+    {
+        // the filter compacts in place, so put the original order back each time
+        System.arraycopy(withdrawXTemplate, 0, withdrawXEntries, 0, withdrawXTemplate.length);
+        withdrawXMenu.setMenuEntries(withdrawXEntries);
+    }
+
+    @Benchmark
+    public MenuEntry[] nonBankMenu()
+    {
+        closedFilter.filter(worldMenu);
+        return worldMenu.getMenuEntries();
+    }
+
+    @Benchmark
+    public MenuEntry[] nonBankMenuWhileBankOpen()
+    {
+        openFilter.filter(worldMenu);
+        return worldMenu.getMenuEntries();
+    }
+
+    @Benchmark
+    public MenuEntry[] bankMenuWithoutWithdrawX()
+    {
+        openFilter.filter(bankMenu);
+        return bankMenu.getMenuEntries();
+    }
+
+    @Benchmark
+    public MenuEntry[] bankMenuWithWithdrawX()
+    {
+        openFilter.filter(withdrawXMenu);
+        return withdrawXMenu.getMenuEntries();
+    }
+
+    private static MenuOpened event(MenuEntry[] entries)
+    {
+        MenuOpened event = new MenuOpened();
+        event.setMenuEntries(entries);
+        return event;
+    }
+
+    /**
+     * Minimal entry answering only what the filter reads. The param is boxed once
+     * here so the proxy itself does not allocate on each call.
+     */
+    private static MenuEntry entry(String option, int param1)
+    {
+        Integer boxedParam1 = param1;
+        return (MenuEntry) Proxy.newProxyInstance(MenuEntry.class.getClassLoader(), new Class<?>[]{MenuEntry.class},
+                (proxy, method, args) ->
+                {
+                    switch (method.getName())
+                    {
+                        case "getOption":
+                            return option;
+                        case "getParam1":
+                            return boxedParam1;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
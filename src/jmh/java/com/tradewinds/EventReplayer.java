@@ -0,0 +1,578 @@
+package com.tradewinds;
+
+import net.runelite.api.Client;
+import net.runelite.api.GameState;
+import net.runelite.api.InventoryID;
+import net.runelite.api.Item;
+import net.runelite.api.ItemContainer;
+import net.runelite.api.MenuAction;
+import net.runelite.api.MenuEntry;
+import net.runelite.api.events.ItemContainerChanged;
+import net.runelite.api.events.MenuEntryAdded;
+import net.runelite.api.events.MenuOpened;
+import net.runelite.api.events.MenuOptionClicked;
+import net.runelite.api.events.WidgetClosed;
+import net.runelite.api.events.WidgetLoaded;
+import net.runelite.api.widgets.WidgetID;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Replays a session recorded by {@link TradeWindsEventRecorder} headless and at
+ * full speed, through the same services and in the same order as the plugin, and
+ * reports throughput, latency per event type and checksums of the results.
+ * <p>
+ * Usage: {@code ./gradlew replayEvents -Precording=<file> [-Ppasses=<n>]}. Each
+ * pass starts from fresh services; the earlier passes warm up the JIT and the last
+ * is reported. The ledger checksum covers every balance, the outcome checksum what
+ * the services decided: menu entries deprioritised, added and filtered out, clicks
+ * consumed and chat messages sent. Both must match between the passes of one run,
+ * and between builds for a change that should only be faster.
+ * <p>
+ * The client is a stub answering from the recorded containers. Item names are not
+ * recorded, so messages naming an item read "null".
+ */
+public final class EventReplayer
+{
+    private static final int DEFAULT_PASSES = 5;
+
+    private static final String[] TYPE_NAMES = {
+            null, "config", "widgetLoaded", "widgetClosed", "itemContainerChanged", "containerState",
+            "menuEntryAdded", "menuOpened", "menuOptionClicked", "ledgerLoaded", "loggedOut"
+    };
+
+    private final EventRecording.Recording recording;
+
+    // Fresh for every pass
+    private TradeWindsMetrics metrics;
+    private BankLedgerService ledger;
+    private BankTracker tracker;
+    private ItemMetadataCache metadata;
+    private TradeWindsMenuService menuService;
+    private TradeWindsRestrictionService restrictionService;
+    private MenuClickDispatcher dispatcher;
+    private LatencyHistogram[] timings;
+
+    private final Map<Integer, Item[]> containers = new HashMap<>();
+    private final Map<Integer, ItemContainer> containerStubs = new HashMap<>();
+    private int tick;
+    private int flags;
+
+    private final CRC32 outcomes = new CRC32();
+    private long deprioritized;
+    private long entriesCreated;
+    private long entriesRemoved;
+    private long consumed;
+    private long chatMessages;
+
+    private EventReplayer(EventRecording.Recording recording)
+    {
+        this.recording = recording;
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1 || args[0].isEmpty())
+        {
+            System.err.println("usage: EventReplayer <recording.twr> [passes]");
+            System.exit(2);
+        }
+
+        File file = new File(args[0]);
+        int passes = args.length > 1 && !args[1].isEmpty() ? Integer.parseInt(args[1]) : DEFAULT_PASSES;
+
+        EventRecording.Recording recording;
+        try (InputStream in = new FileInputStream(file))
+        {
+            recording = EventRecording.read(in);
+        }
+
+        int events = recording.getRecords().size();
+        long recordedMicros = events == 0 ? 0 : recording.getRecords().get(events - 1).getMicros();
+        System.out.printf("%s: %,d events over %s of play%s%n", file.getName(), events,
+                duration(recordedMicros / 1_000), recording.isTruncated() ? " (last record torn, dropped)" : "");
+
+        EventReplayer last = null;
+        boolean deterministic = true;
+        for (int pass = 1; pass <= passes; pass++)
+        {
+            EventReplayer replayer = new EventReplayer(recording);
+            long nanos = replayer.replay();
+            System.out.printf("pass %d: %,.1f ms, %,.0f events/s, ledger %08x, outcomes %08x%n", pass,
+                    nanos / 1e6, events * 1e9 / Math.max(1, nanos), replayer.ledgerChecksum(), replayer.outcomes.getValue());
+
+            if (last != null && (last.ledgerChecksum() != replayer.ledgerChecksum()
+                    || last.outcomes.getValue() != replayer.outcomes.getValue()))
+            {
+                deterministic = false;
+            }
+            last = replayer;
+        }
+
+        if (last != null)
+        {
+            last.report();
+        }
+        if (!deterministic)
+        {
+            System.out.println("Passes disagree: the replay is not deterministic");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return wall time of the pass, in nanoseconds
+     */
+    private long replay() throws IOException
+    {
+        Client client = stubClient();
+        TradeWindsConfig config = stubConfig();
+
+        metrics = new TradeWindsMetrics();
+        ledger = new BankLedgerService(metrics);
+        tracker = new BankTracker(client, config, ledger);
+        metadata = new ItemMetadataCache(client);
+        menuService = new TradeWindsMenuService(client, ledger, tracker, config, metadata, metrics);
+        restrictionService = new TradeWindsRestrictionService(client, config, metadata);
+        dispatcher = new MenuClickDispatcher(client, menuService, restrictionService, metrics, tracker);
+
+        timings = new LatencyHistogram[TYPE_NAMES.length];
+        for (int type = 1; type < TYPE_NAMES.length; type++)
+        {
+            // Kept apart from the services' own metrics, which the report lists after them
+            timings[type] = new LatencyHistogram();
+        }
+
+        long start = System.nanoTime();
+        for (EventRecording.Record record : recording.getRecords())
+        {
+            tick = record.tick;
+            dispatch(record);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Prepares the event outside the timing, then hands it to the services the way
+     * the plugin's subscribers do.
+     */
+    private void dispatch(EventRecording.Record record) throws IOException
+    {
+        LatencyHistogram histogram = timings[record.type];
+        long start;
+        switch (record.type)
+        {
+            case EventRecording.CONFIG:
+                flags = record.flags;
+                return;
+            case EventRecording.WIDGET_LOADED:
+            {
+                WidgetLoaded event = new WidgetLoaded();
+                event.setGroupId(record.groupId);
+                start = System.nanoTime();
+                menuService.onWidgetLoaded(event);
+                if (record.groupId == WidgetID.BANK_GROUP_ID)
+                {
+                    if (record.tile != null)
+                    {
+                        tracker.bankOpened(record.tile, record.instanced);
+                    }
+                    metadata.prefetch(container(InventoryID.BANK.getId()));
+                }
+                break;
+            }
+            case EventRecording.WIDGET_CLOSED:
+            {
+                WidgetClosed event = new WidgetClosed(record.groupId, 0, true);
+                start = System.nanoTime();
+                menuService.onWidgetClosed(event);
+                break;
+            }
+            case EventRecording.CONTAINER_STATE:
+                applyContainer(record);
+                return;
+            case EventRecording.CONTAINER:
+            {
+                applyContainer(record);
+                ItemContainerChanged event = new ItemContainerChanged(record.containerId, container(record.containerId));
+                start = System.nanoTime();
+                tracker.handleItemContainerChanged(event);
+                menuService.handleItemContainerChanged(event);
+                restrictionService.handleItemContainerChanged(event);
+                if (record.containerId == InventoryID.BANK.getId())
+                {
+                    metadata.prefetch(event.getItemContainer());
+                }
+                break;
+            }
+            case EventRecording.MENU_ENTRY_ADDED:
+            {
+                MenuEntry entry = menuEntry(record.entries[0]);
+                MenuEntryAdded event = new MenuEntryAdded(entry);
+                start = System.nanoTime();
+                menuService.handleMenuEntryAdded(event);
+                restrictionService.handleMenuEntryAdded(event);
+                histogram.recordSince(start);
+
+                if (entry.isDeprioritized())
+                {
+                    deprioritized++;
+                    outcome(record.type, 1);
+                }
+                return;
+            }
+            case EventRecording.MENU_OPENED:
+            {
+                MenuEntry[] entries = new MenuEntry[record.entries.length];
+                for (int i = 0; i < entries.length; i++)
+                {
+                    entries[i] = menuEntry(record.entries[i]);
+                }
+                MenuOpened event = new MenuOpened();
+                event.setMenuEntries(entries);
+                start = System.nanoTime();
+                menuService.onMenuOpened(event);
+                histogram.recordSince(start);
+
+                int removed = entries.length - event.getMenuEntries().length;
+                if (removed != 0)
+                {
+                    entriesRemoved += removed;
+                    outcome(record.type, removed);
+                }
+                return;
+            }
+            case EventRecording.MENU_CLICKED:
+            {
+                MenuOptionClicked event = new MenuOptionClicked(menuEntry(record.entries[0]));
+                start = System.nanoTime();
+                dispatcher.dispatch(event);
+                histogram.recordSince(start);
+
+                if (event.isConsumed())
+                {
+                    consumed++;
+                    outcome(record.type, 1);
+                }
+                return;
+            }
+            case EventRecording.LEDGER_LOADED:
+            {
+                BankData data = BankDataCodec.decode(
+                        Channels.newChannel(new ByteArrayInputStream(record.ledger)), record.ledger.length);
+                start = System.nanoTime();
+                // As the plugin's load callback does
+                ledger.replaceBalances(data);
+                tracker.reconcileCurrentBank();
+                break;
+            }
+            case EventRecording.LOGGED_OUT:
+                start = System.nanoTime();
+                restrictionService.reset();
+                metadata.handleGameStateChanged(GameState.LOGIN_SCREEN);
+                ledger.clear();
+                tracker.reset();
+                break;
+            default:
+                throw new IOException("Unknown record type " + record.type);
+        }
+        histogram.recordSince(start);
+    }
+
+    private void applyContainer(EventRecording.Record record)
+    {
+        Item[] items = containers.get(record.containerId);
+        if (items == null || items.length != record.size)
+        {
+            Item[] resized = new Item[record.size];
+            int kept = items == null ? 0 : Math.min(items.length, record.size);
+            if (kept > 0)
+            {
+                System.arraycopy(items, 0, resized, 0, kept);
+            }
+            Arrays.fill(resized, kept, resized.length, new Item(-1, 0));
+            items = resized;
+            containers.put(record.containerId, items);
+            containerStubs.computeIfAbsent(record.containerId, this::containerStub);
+        }
+
+        for (int i = 0; i < record.slots.length; i++)
+        {
+            items[record.slots[i]] = new Item(record.itemIds[i], record.quantities[i]);
+        }
+    }
+
+    private void outcome(byte type, int value)
+    {
+        outcomes.update(type);
+        outcomes.update(value >>> 24);
+        outcomes.update(value >>> 16);
+        outcomes.update(value >>> 8);
+        outcomes.update(value);
+    }
+
+    /**
+     * CRC32 of every balance, by item id and then location name, so it does not
+     * depend on the order of {@link BankLocation}.
+     */
+    private long ledgerChecksum()
+    {
+        CRC32 crc = new CRC32();
+        Map<Integer, Map<BankLocation, Integer>> balances = new TreeMap<>(ledger.exportBalances().getBalances());
+        for (Map.Entry<Integer, Map<BankLocation, Integer>> item : balances.entrySet())
+        {
+            Map<String, Integer> byName = new TreeMap<>();
+            item.getValue().forEach((location, quantity) -> byName.put(location.name(), quantity));
+
+            crc.update(item.getKey().toString().getBytes(StandardCharsets.US_ASCII));
+            byName.forEach((name, quantity) ->
+                    crc.update((':' + name + '=' + quantity + ';').getBytes(StandardCharsets.US_ASCII)));
+        }
+        return crc.getValue();
+    }
+
+    private void report()
+    {
+        System.out.printf("%n%-22s %9s %9s %9s %9s %9s %9s%n",
+                "latency (us)", "count", "p50", "p90", "p99", "p99.9", "max");
+        for (int type = 1; type < TYPE_NAMES.length; type++)
+        {
+            LatencyHistogram h = timings[type];
+            if (h.getCount() == 0)
+            {
+                continue;
+            }
+            System.out.printf("%-22s %9d %9.1f %9.1f %9.1f %9.1f %9.1f%n", TYPE_NAMES[type], h.getCount(),
+                    h.getPercentileNanos(50) / 1e3, h.getPercentileNanos(90) / 1e3, h.getPercentileNanos(99) / 1e3,
+                    h.getPercentileNanos(99.9) / 1e3, h.getMaxNanos() / 1e3);
+        }
+
+        System.out.printf("%nLedger: %s, %,d items, checksum %08x%n",
+                ledger.getLoadState(), ledger.exportBalances().getBalances().size(), ledgerChecksum());
+        System.out.printf("Outcomes: %,d entries deprioritised, %,d added, %,d filtered out, %,d clicks consumed, "
+                        + "%,d chat messages, checksum %08x%n",
+                deprioritized, entriesCreated, entriesRemoved, consumed, chatMessages, outcomes.getValue());
+        System.out.printf("%nService metrics from the last pass:%n%s", metrics.report());
+    }
+
+    private static String duration(long millis)
+    {
+        long seconds = millis / 1_000;
+        return String.format("%dh %02dm %02ds", seconds / 3_600, seconds / 60 % 60, seconds % 60);
+    }
+
+    // ------------------------------------------------------------
+    // Stubs
+    // ------------------------------------------------------------
+
+    private ItemContainer container(int containerId)
+    {
+        return containerStubs.get(containerId);
+    }
+
+    private ItemContainer containerStub(int containerId)
+    {
+        return stub(ItemContainer.class, (proxy, method, args) ->
+        {
+            Item[] items = containers.get(containerId);
+            switch (method.getName())
+            {
+                case "getId":
+                    return containerId;
+                case "getItems":
+                    return items.clone();
+                case "getItem":
+                {
+                    int slot = (int) args[0];
+                    return slot >= 0 && slot < items.length ? items[slot] : null;
+                }
+                case "size":
+                    return items.length;
+                default:
+                    return objectMethod(proxy, method, args);
+            }
+        });
+    }
+
+    private Client stubClient()
+    {
+        return stub(Client.class, (proxy, method, args) ->
+        {
+            switch (method.getName())
+            {
+                case "getItemContainer":
+                    return container(args[0] instanceof InventoryID ? ((InventoryID) args[0]).getId() : (int) args[0]);
+                case "getTickCount":
+                    return tick;
+                case "getGameState":
+                    return GameState.LOGGED_IN;
+                case "createMenuEntry":
+                {
+                    MenuEntry entry = menuEntry(new EventRecording.Entry(null, null, MenuAction.RUNELITE.getId(), 0, 0, 0, -1));
+                    entriesCreated++;
+                    outcome((byte) 0, 1);
+                    return entry;
+                }
+                case "addChatMessage":
+                    chatMessages++;
+                    outcomes.update(String.valueOf(args[2]).getBytes(StandardCharsets.UTF_8));
+                    return null;
+                default:
+                    return objectMethod(proxy, method, args);
+            }
+        });
+    }
+
+    private TradeWindsConfig stubConfig()
+    {
+        return stub(TradeWindsConfig.class, (proxy, method, args) ->
+        {
+            switch (method.getName())
+            {
+                case "enableLocalBanks":
+                    return (flags & EventRecording.FLAG_LOCAL_BANKS) != 0;
+                case "restrictTeleports":
+                    return (flags & EventRecording.FLAG_RESTRICT_TELEPORTS) != 0;
+                case "disableGE":
+                    return (flags & EventRecording.FLAG_DISABLE_GE) != 0;
+                case "debugMode":
+                    return (flags & EventRecording.FLAG_DEBUG) != 0;
+                case "storageMode":
+                    return LedgerStorageMode.SNAPSHOT;
+                default:
+                    return objectMethod(proxy, method, args);
+            }
+        });
+    }
+
+    private static MenuEntry menuEntry(EventRecording.Entry recorded)
+    {
+        return stub(MenuEntry.class, new ReplayMenuEntry(recorded));
+    }
+
+    /**
+     * A menu entry holding the recorded fields, which the services may change.
+     */
+    private static final class ReplayMenuEntry implements InvocationHandler
+    {
+        private String option;
+        private String target;
+        private MenuAction type;
+        private int identifier;
+        private int param0;
+        private int param1;
+        private final int itemId;
+        private boolean deprioritized;
+
+        ReplayMenuEntry(EventRecording.Entry recorded)
+        {
+            option = recorded.option;
+            target = recorded.target;
+            type = MenuAction.of(recorded.type);
+            identifier = recorded.identifier;
+            param0 = recorded.param0;
+            param1 = recorded.param1;
+            itemId = recorded.itemId;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            switch (method.getName())
+            {
+                case "getOption":
+                    return option;
+                case "getTarget":
+                    return target;
+                case "getType":
+                    return type;
+                case "getIdentifier":
+                    return identifier;
+                case "getParam0":
+                    return param0;
+                case "getParam1":
+                    return param1;
+                case "getItemId":
+                    return itemId;
+                case "isDeprioritized":
+                    return deprioritized;
+                case "setOption":
+                    option = (String) args[0];
+                    return proxy;
+                case "setTarget":
+                    target = (String) args[0];
+                    return proxy;
+                case "setType":
+                    type = (MenuAction) args[0];
+                    return proxy;
+                case "setIdentifier":
+                    identifier = (int) args[0];
+                    return proxy;
+                case "setParam0":
+                    param0 = (int) args[0];
+                    return proxy;
+                case "setParam1":
+                    param1 = (int) args[0];
+                    return proxy;
+                case "setDeprioritized":
+                    deprioritized = (boolean) args[0];
+                    return proxy;
+                default:
+                    // Other setters chain; anything else the services never read
+                    return method.getReturnType() == MenuEntry.class ? proxy : objectMethod(proxy, method, args);
+            }
+        }
+    }
+
+    private static <T> T stub(Class<T> type, InvocationHandler handler)
+    {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    /**
+     * Identity for the {@link Object} methods, an empty value for anything else.
+     */
+    private static Object objectMethod(Object proxy, Method method, Object[] args)
+    {
+        switch (method.getName())
+        {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return method.getDeclaringClass().getSimpleName() + " stub";
+            default:
+                break;
+        }
+
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class)
+        {
+            return false;
+        }
+        if (type == int.class)
+        {
+            return 0;
+        }
+        if (type == long.class)
+        {
+            return 0L;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,157 @@
+package com.tradewinds;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Synthetic ledgers for the benchmarks, generated from a fixed seed so every
+ * run and every machine measures the same data.
+ * <p>
+ * Item ids are spread over the real id range. Each item is held at one to three
+ * of the first {@code locations} banks, most at one, with quantities skewed
+ * towards small stacks the way real banks are.
+ */
+final class LedgerFixture
+{
+    static final long SEED = 0x7DEB_A11CL;
+
+    private static final int MAX_ITEM_ID = 30_000;
+    // UNKNOWN is never a real bank
+    static final int MAX_LOCATIONS = BankLocation.values().length - 1;
+
+    final int[] itemIds;
+    final Map<Integer, Map<BankLocation, Integer>> balances;
+    final BankLocation[] locations;
+
+    private LedgerFixture(int[] itemIds, Map<Integer, Map<BankLocation, Integer>> balances, BankLocation[] locations)
+    {
+        this.itemIds = itemIds;
+        this.balances = balances;
+        this.locations = locations;
+    }
+
+    static LedgerFixture generate(int items, int locations)
+    {
+        if (locations < 1 || locations > MAX_LOCATIONS)
+        {
+            throw new IllegalArgumentException("locations " + locations);
+        }
+
+        Random random = new Random(SEED);
+        BankLocation[] used = new BankLocation[locations];
+        System.arraycopy(BankLocation.values(), 0, used, 0, locations);
+
+        int[] itemIds = distinctIds(random, items);
+        Map<Integer, Map<BankLocation, Integer>> balances = new HashMap<>();
+        for (int itemId : itemIds)
+        {
+            Map<BankLocation, Integer> perBank = new EnumMap<>(BankLocation.class);
+            int banks = Math.min(locations, random.nextInt(10) < 7 ? 1 : 2 + random.nextInt(2));
+            while (perBank.size() < banks)
+            {
+                perBank.put(used[random.nextInt(locations)], quantity(random));
+            }
+            balances.put(itemId, perBank);
+        }
+
+        return new LedgerFixture(itemIds, balances, used);
+    }
+
+    /**
+     * A ready ledger holding the fixture, built through the same reconciles the
+     * bank tracker makes.
+     */
+    BankLedgerService newLedger()
+    {
+        BankLedgerService ledger = new BankLedgerService();
+        ledger.resetBalances();
+
+        int[] ids = new int[itemIds.length];
+        long[] globals = new long[itemIds.length];
+        for (BankLocation location : locations)
+        {
+            int count = 0;
+            for (int itemId : itemIds)
+            {
+                Integer quantity = balances.get(itemId).get(location);
+                if (quantity != null)
+                {
+                    ids[count] = itemId;
+                    // Raising the global total by the quantity deposits it here
+                    globals[count] = ledger.getGlobalQuantity(itemId) + quantity;
+                    count++;
+                }
+            }
+            ledger.reconcileChanges(location, ids, globals, count);
+        }
+        return ledger;
+    }
+
+    /**
+     * The bank's global totals as the client reports them, keyed by item id.
+     */
+    Map<Integer, Integer> globalTotals()
+    {
+        Map<Integer, Integer> totals = new HashMap<>();
+        for (Map.Entry<Integer, Map<BankLocation, Integer>> e : balances.entrySet())
+        {
+            long total = 0;
+            for (int quantity : e.getValue().values())
+            {
+                total += quantity;
+            }
+            totals.put(e.getKey(), (int) Math.min(Integer.MAX_VALUE, total));
+        }
+        return totals;
+    }
+
+    BankData toBankData()
+    {
+        BankData data = new BankData();
+        Map<Integer, Map<BankLocation, Integer>> copy = new HashMap<>();
+        for (Map.Entry<Integer, Map<BankLocation, Integer>> e : balances.entrySet())
+        {
+            copy.put(e.getKey(), new EnumMap<>(e.getValue()));
+        }
+        data.setBalances(copy);
+        return data;
+    }
+
+    private static int[] distinctIds(Random random, int count)
+    {
+        if (count > MAX_ITEM_ID)
+        {
+            throw new IllegalArgumentException("items " + count);
+        }
+
+        boolean[] taken = new boolean[MAX_ITEM_ID + 1];
+        int[] ids = new int[count];
+        for (int i = 0; i < count; )
+        {
+            int id = 1 + random.nextInt(MAX_ITEM_ID);
+            if (!taken[id])
+            {
+                taken[id] = true;
+                ids[i++] = id;
+            }
+        }
+        return ids;
+    }
+
+    private static int quantity(Random random)
+    {
+        // Mostly single items and small stacks, with the odd stack of coins or runes
+        int roll = random.nextInt(100);
+        if (roll < 60)
+        {
+            return 1 + random.nextInt(10);
+        }
+        if (roll < 95)
+        {
+            return 1 + random.nextInt(5_000);
+        }
+        return 1 + random.nextInt(50_000_000);
+    }
+}
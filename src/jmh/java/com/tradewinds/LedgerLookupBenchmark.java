@@ -0,0 +1,80 @@
+package com.tradewinds;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the per-item reads the overlays and menus make every frame.
+ * <p>
+ * Each invocation looks up {@value #LOOKUPS} ids in a fixed order, a quarter of
+ * them items the ledger has never seen, at a random mix of locations. Both must
+ * report a {@code gc.alloc.rate.norm} of 0 B/op.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class LedgerLookupBenchmark
+{
+    private static final int LOOKUPS = 1024;
+
+    @Param({"100", "800", "1400"})
+    public int items;
+
+    @Param({"30"})
+    public int locations;
+
+    private BankLedgerService ledger;
+    private final int[] lookupIds = new int[LOOKUPS];
+    private final BankLocation[] lookupLocations = new BankLocation[LOOKUPS];
+
+    @Setup
+    public void setUp()
+    {
+        LedgerFixture fixture = LedgerFixture.generate(items, locations);
+        ledger = fixture.newLedger();
+
+        Random random = new Random(LedgerFixture.SEED);
+        for (int i = 0; i < LOOKUPS; i++)
+        {
+            // Ids past the fixture's range are misses
+            lookupIds[i] = random.nextInt(4) == 0
+                    ? 40_000 + random.nextInt(10_000)
+                    : fixture.itemIds[random.nextInt(fixture.itemIds.length)];
+            lookupLocations[i] = fixture.locations[random.nextInt(fixture.locations.length)];
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public long localQuantity()
+    {
+        long sum = 0;
+        for (int i = 0; i < LOOKUPS; i++)
+        {
+            sum += ledger.getLocalQuantity(lookupIds[i], lookupLocations[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public long globalQuantity()
+    {
+        long sum = 0;
+        for (int i = 0; i < LOOKUPS; i++)
+        {
+            sum += ledger.getGlobalQuantity(lookupIds[i]);
+        }
+        return sum;
+    }
+}
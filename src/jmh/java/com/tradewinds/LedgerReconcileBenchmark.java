@@ -0,0 +1,98 @@
+package com.tradewinds;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reconciling the ledger against a bank, by bank size and by how many
+ * locations the ledger spreads its items over.
+ * <p>
+ * {@code totalsUnchanged} and {@code snapshotUnchanged} are the common case, a
+ * bank rebuilt with nothing moved, through the map entry point and the sorted
+ * array one the tracker uses. {@code totalsDepositAndWithdraw} alternates
+ * between two banks that differ in a tenth of their items, so every call moves
+ * stock and the ledger ends each pair where it started.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class LedgerReconcileBenchmark
+{
+    @Param({"100", "800", "1400"})
+    public int items;
+
+    // The tree knows 88 banks
+    @Param({"5", "30", "88"})
+    public int locations;
+
+    private BankLedgerService ledger;
+    private BankLocation bank;
+
+    private Map<Integer, Integer> totals;
+    private Map<Integer, Integer> changedTotals;
+    private boolean changed;
+
+    private int[] sortedIds;
+    private long[] sortedGlobals;
+
+    @Setup
+    public void setUp()
+    {
+        LedgerFixture fixture = LedgerFixture.generate(items, locations);
+        ledger = fixture.newLedger();
+        bank = fixture.locations[0];
+
+        totals = fixture.globalTotals();
+        changedTotals = new HashMap<>(totals);
+        Random random = new Random(LedgerFixture.SEED);
+        for (int itemId : fixture.itemIds)
+        {
+            if (random.nextInt(10) == 0)
+            {
+                changedTotals.merge(itemId, 1 + random.nextInt(100), Integer::sum);
+            }
+        }
+
+        sortedIds = fixture.itemIds.clone();
+        Arrays.sort(sortedIds);
+        sortedGlobals = new long[sortedIds.length];
+        for (int i = 0; i < sortedIds.length; i++)
+        {
+            sortedGlobals[i] = totals.get(sortedIds[i]);
+        }
+    }
+
+    @Benchmark
+    public int totalsUnchanged()
+    {
+        ledger.reconcileWithGlobalTotals(bank, totals);
+        return ledger.getVersion();
+    }
+
+    @Benchmark
+    public int snapshotUnchanged()
+    {
+        ledger.reconcileSnapshot(bank, sortedIds, sortedGlobals, sortedIds.length);
+        return ledger.getVersion();
+    }
+
+    @Benchmark
+    public int totalsDepositAndWithdraw()
+    {
+        changed = !changed;
+        ledger.reconcileWithGlobalTotals(bank, changed ? changedTotals : totals);
+        return ledger.getVersion();
+    }
+}
@@ -0,0 +1,105 @@
+package com.tradewinds;
+
+import net.runelite.api.coords.WorldPoint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Throughput of {@link BankLocation#fromWorldPoint}, run each time the bank
+ * opens and by the restrictions on every teleport check.
+ * <p>
+ * {@code bankRegions} resolves tiles inside regions the resource lists, boxes and
+ * polygons included; {@code anywhere} resolves tiles across the overworld, nearly
+ * all of them misses. Neither may allocate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class LocationResolverBenchmark
+{
+    private static final int POINTS = 1024;
+    private static final Pattern REGION = Pattern.compile("\\bregion (\\d+)");
+
+    private final WorldPoint[] bankPoints = new WorldPoint[POINTS];
+    private final WorldPoint[] anywherePoints = new WorldPoint[POINTS];
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        List<Integer> regions = listedRegions();
+        Random random = new Random(LedgerFixture.SEED);
+        for (int i = 0; i < POINTS; i++)
+        {
+            int region = regions.get(random.nextInt(regions.size()));
+            int x = (region >> 8 << 6) + random.nextInt(64);
+            int y = ((region & 0xff) << 6) + random.nextInt(64);
+            bankPoints[i] = new WorldPoint(x, y, 0);
+
+            anywherePoints[i] = new WorldPoint(1_024 + random.nextInt(3_000), 2_496 + random.nextInt(1_700),
+                    random.nextInt(4) == 0 ? 1 + random.nextInt(3) : 0);
+        }
+
+        // Build the resolver outside the measurement
+        BankLocation.fromWorldPoint(bankPoints[0]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public int bankRegions()
+    {
+        return resolveAll(bankPoints);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public int anywhere()
+    {
+        return resolveAll(anywherePoints);
+    }
+
+    private static int resolveAll(WorldPoint[] points)
+    {
+        int hash = 0;
+        for (WorldPoint point : points)
+        {
+            hash += BankLocation.fromWorldPoint(point).ordinal();
+        }
+        return hash;
+    }
+
+    private static List<Integer> listedRegions() throws IOException
+    {
+        List<Integer> regions = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                BankLocationResolver.class.getResourceAsStream(BankLocationResolver.RESOURCE), StandardCharsets.UTF_8)))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                Matcher matcher = REGION.matcher(line);
+                if (!line.startsWith("#") && matcher.find())
+                {
+                    regions.add(Integer.parseInt(matcher.group(1)));
+                }
+            }
+        }
+        return regions;
+    }
+}
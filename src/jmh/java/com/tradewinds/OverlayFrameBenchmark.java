@@ -0,0 +1,281 @@
+package com.tradewinds;
+
+import net.runelite.api.Client;
+import net.runelite.api.InventoryID;
+import net.runelite.api.Item;
+import net.runelite.api.ItemComposition;
+import net.runelite.api.ItemContainer;
+import net.runelite.api.Player;
+import net.runelite.api.coords.WorldPoint;
+import net.runelite.api.events.WidgetLoaded;
+import net.runelite.api.widgets.Widget;
+import net.runelite.api.widgets.WidgetID;
+import net.runelite.api.widgets.WidgetItem;
+import net.runelite.client.events.ConfigChanged;
+import net.runelite.client.ui.FontManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame cost of the bank and item info overlays, drawn headless into an
+ * offscreen image the size of a full bank tab.
+ * <p>
+ * One operation is one frame. Sample mode reports the frame time percentiles and
+ * the gc profiler's {@code gc.alloc.rate.norm} is the bytes allocated per frame;
+ * a steady {@code bankTab} frame should allocate nothing.
+ * <p>
+ * The client, its item definitions and the player are stubs answering only what
+ * the overlays read. The ledger is a {@link LedgerFixture} with the player at its
+ * first bank, so most slots are dimmed, as they are for anyone banking widely.
+ * Each slot is drawn through {@code renderItemOverlay} with a {@link WidgetItem}
+ * over a stub {@link Widget}, its bounds laid out as in the bank's 8-column grid.
+ * The items are built once in setup; the client builds them per frame, but that
+ * cost is the client's, not the overlay's.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class OverlayFrameBenchmark
+{
+    private static final int COLUMNS = 8;
+    private static final int SLOT_WIDTH = 36;
+    private static final int SLOT_HEIGHT = 32;
+    private static final int COLUMN_PITCH = 48;
+    private static final int ROW_PITCH = 36;
+
+    // One placeholder in this many slots
+    private static final int PLACEHOLDER_EVERY = 20;
+    private static final int PLACEHOLDER_TEMPLATE = 14401;
+
+    // A full tab; the bank holds up to 1,410 slots across all of them
+    @Param({"816"})
+    public int slots;
+
+    private TradeWindsBankOverlay bankOverlay;
+    private TradeWindsItemInfoOverlay itemInfoOverlay;
+    private final ConfigChanged configChanged = new ConfigChanged();
+
+    private int[] slotItemIds;
+    private WidgetItem[] slotWidgets;
+
+    private BufferedImage frame;
+    private Graphics2D graphics;
+
+    @Setup
+    public void setUp()
+    {
+        LedgerFixture fixture = LedgerFixture.generate(slots, 30);
+        BankLedgerService ledger = fixture.newLedger();
+        Map<Integer, Integer> totals = fixture.globalTotals();
+
+        slotItemIds = fixture.itemIds.clone();
+        slotWidgets = new WidgetItem[slots];
+        Item[] items = new Item[slots];
+        Map<Integer, ItemComposition> definitions = new HashMap<>();
+        for (int slot = 0; slot < slots; slot++)
+        {
+            int itemId = slotItemIds[slot];
+            items[slot] = new Item(itemId, totals.get(itemId));
+            definitions.put(itemId, definition(slot % PLACEHOLDER_EVERY == 0 ? PLACEHOLDER_TEMPLATE : -1));
+            slotWidgets[slot] = widgetItem(items[slot], new Rectangle(
+                    slot % COLUMNS * COLUMN_PITCH, slot / COLUMNS * ROW_PITCH, SLOT_WIDTH, SLOT_HEIGHT));
+        }
+
+        ItemContainer bank = stub(ItemContainer.class, (proxy, method, args) ->
+        {
+            switch (method.getName())
+            {
+                case "getItems":
+                    return items;
+                case "getItem":
+                    return items[(int) args[0]];
+                case "size":
+                    return items.length;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+
+        // Standing in Lumbridge castle, the fixture's first bank
+        WorldPoint bankTile = new WorldPoint(3208, 3220, 2);
+        Player player = stub(Player.class, (proxy, method, args) ->
+                "getWorldLocation".equals(method.getName()) ? bankTile : defaultValue(method.getReturnType()));
+
+        Client client = stub(Client.class, (proxy, method, args) ->
+        {
+            switch (method.getName())
+            {
+                case "getItemContainer":
+                    return args[0] == InventoryID.BANK ? bank : null;
+                case "getItemDefinition":
+                    return definitions.get((int) args[0]);
+                case "getLocalPlayer":
+                    return player;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+
+        TradeWindsConfig config = stub(TradeWindsConfig.class, (proxy, method, args) ->
+                defaultValue(method.getReturnType()));
+        TradeWindsMetrics metrics = new TradeWindsMetrics();
+        ItemMetadataCache metadata = new ItemMetadataCache(client);
+        metadata.prefetch(bank);
+
+        BankTracker tracker = new BankTracker(client, config, ledger);
+        WidgetLoaded bankOpened = new WidgetLoaded();
+        bankOpened.setGroupId(WidgetID.BANK_GROUP_ID);
+        tracker.handleWidgetLoaded(bankOpened);
+
+        bankOverlay = new TradeWindsBankOverlay(ledger, tracker, config, metadata, client, metrics);
+        configChanged.setGroup(TradeWindsConfig.GROUP);
+
+        TradeWindsMenuService menuService = new TradeWindsMenuService(client, ledger, tracker, config, metadata, metrics);
+        itemInfoOverlay = new TradeWindsItemInfoOverlay(menuService, metrics);
+        menuService.showItemLocations(mostSpreadItem(fixture));
+
+        int rows = (slots + COLUMNS - 1) / COLUMNS;
+        frame = new BufferedImage(COLUMNS * COLUMN_PITCH, rows * ROW_PITCH, BufferedImage.TYPE_INT_RGB);
+        graphics = frame.createGraphics();
+        graphics.setFont(FontManager.getRunescapeSmallFont());
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        graphics.dispose();
+    }
+
+    /**
+     * A frame with nothing changed since the last, the common case while the bank is open.
+     */
+    @Benchmark
+    public BufferedImage bankTab()
+    {
+        drawBankTab();
+        return frame;
+    }
+
+    /**
+     * A frame right after a change, paying for the snapshot rebuild; label sprites
+     * survive it.
+     */
+    @Benchmark
+    public BufferedImage bankTabAfterChange()
+    {
+        bankOverlay.onConfigChanged(configChanged);
+        drawBankTab();
+        return frame;
+    }
+
+    @Benchmark
+    public Dimension itemInfoPanel()
+    {
+        return itemInfoOverlay.render(graphics);
+    }
+
+    private void drawBankTab()
+    {
+        for (int slot = 0; slot < slots; slot++)
+        {
+            bankOverlay.renderItemOverlay(graphics, slotItemIds[slot], slotWidgets[slot]);
+        }
+    }
+
+    private static int mostSpreadItem(LedgerFixture fixture)
+    {
+        int best = fixture.itemIds[0];
+        for (int itemId : fixture.itemIds)
+        {
+            if (fixture.balances.get(itemId).size() > fixture.balances.get(best).size())
+            {
+                best = itemId;
+            }
+        }
+        return best;
+    }
+
+    private static WidgetItem widgetItem(Item item, Rectangle bounds)
+    {
+        Integer itemId = item.getId();
+        Integer quantity = item.getQuantity();
+        Widget widget = stub(Widget.class, (proxy, method, args) ->
+        {
+            switch (method.getName())
+            {
+                case "getItemId":
+                    return itemId;
+                case "getItemQuantity":
+                    return quantity;
+                case "getBounds":
+                    return bounds;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+        return new WidgetItem(itemId, quantity, bounds, widget, null);
+    }
+
+    private static ItemComposition definition(int placeholderTemplateId)
+    {
+        Integer template = placeholderTemplateId;
+        return stub(ItemComposition.class, (proxy, method, args) ->
+        {
+            switch (method.getName())
+            {
+                case "getPlaceholderTemplateId":
+                    return template;
+                case "getName":
+                    return "Benchmark item";
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private static <T> T stub(Class<T> type, InvocationHandler handler)
+    {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    /**
+     * What an unstubbed method answers: config toggles on, everything else empty.
+     */
+    private static Object defaultValue(Class<?> type)
+    {
+        if (type == boolean.class)
+        {
+            return Boolean.TRUE;
+        }
+        if (type == int.class)
+        {
+            return 0;
+        }
+        if (type == long.class)
+        {
+            return 0L;
+        }
+        if (type.isEnum())
+        {
+            return type.getEnumConstants()[0];
+        }
+        return null;
+    }
+}
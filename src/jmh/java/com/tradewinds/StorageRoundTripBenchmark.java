@@ -0,0 +1,88 @@
+package com.tradewinds;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Snapshot save and load through {@link TradeWindsStorage}, as the write-behind
+ * stage and the login loader run them, against a temporary directory.
+ * <p>
+ * Sizes cover a fresh account up to a long-played one whose ledger holds far more
+ * distinct items than any one bank tab. Timings include the file system, so
+ * compare runs on the same machine only.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class StorageRoundTripBenchmark
+{
+    @Param({"800", "1400", "3000"})
+    public int items;
+
+    @Param({"30"})
+    public int locations;
+
+    private Path directory;
+    private TradeWindsStorage storage;
+    private File file;
+    private BankData data;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory("tradewinds-jmh");
+        // Snapshot save and load read neither the client nor the config
+        storage = new TradeWindsStorage(directory.toFile(), null, null);
+        file = new File(directory.toFile(), "bankdata-benchmark.dat");
+        data = LedgerFixture.generate(items, locations).toBankData();
+
+        if (!storage.saveBankData(file, data))
+        {
+            throw new IllegalStateException("could not write " + file);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        try (Stream<Path> paths = Files.walk(directory))
+        {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public boolean save()
+    {
+        return storage.saveBankData(file, data);
+    }
+
+    @Benchmark
+    public Optional<BankData> load() throws IOException
+    {
+        return storage.loadBankData(file);
+    }
+
+    @Benchmark
+    public Optional<BankData> roundTrip() throws IOException
+    {
+        storage.saveBankData(file, data);
+        return storage.loadBankData(file);
+    }
+}
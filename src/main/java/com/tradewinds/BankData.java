@@ -10,4 +10,7 @@ public class BankData
 {
     // itemId -> (BankLocation -> quantity)
     private Map<Integer, Map<BankLocation, Integer>> balances = new HashMap<>();
+
+    // Stamped by each snapshot save; the journal records the one it extends
+    private long generation;
 }
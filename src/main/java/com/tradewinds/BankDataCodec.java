@@ -0,0 +1,439 @@
+package com.tradewinds;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary encoding of {@link BankData}.
+ *
+ * <pre>
+ * magic      4 bytes   0x89 'T' 'W' 'L'
+ * version    1 byte
+ * generation 8 bytes   bumped by every save; see {@link LedgerJournal}
+ * locations  varint count, then per location: varint length + ASCII enum name
+ * items      varint count, then per item:
+ *              varint item id, varint entry count,
+ *              per entry: varint location index, varint quantity
+ * checksum   4 bytes   CRC32 of everything before it
+ * </pre>
+ *
+ * Each location name is written once in the header and entries refer to it by
+ * index, so reordering or adding {@link BankLocation} constants never invalidates
+ * an existing file.
+ */
+public final class BankDataCodec
+{
+    static final int MAGIC = 0x8954574C;
+    static final byte VERSION = 2;
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_NAME_LENGTH = 64;
+
+    private static final BankLocation[] LOCATIONS = BankLocation.values();
+    static final byte[][] LOCATION_NAMES = new byte[LOCATIONS.length][];
+
+    static
+    {
+        for (BankLocation location : LOCATIONS)
+        {
+            LOCATION_NAMES[location.ordinal()] = location.name().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private BankDataCodec()
+    {
+    }
+
+    public static boolean hasMagic(byte[] header)
+    {
+        return header.length >= 4
+                && ((header[0] & 0xFF) << 24 | (header[1] & 0xFF) << 16 | (header[2] & 0xFF) << 8 | (header[3] & 0xFF)) == MAGIC;
+    }
+
+    public static void encode(BankData data, WritableByteChannel channel) throws IOException
+    {
+        Map<Integer, Map<BankLocation, Integer>> balances = data.getBalances() != null ? data.getBalances() : new HashMap<>();
+        Output out = new Output(channel);
+
+        out.putInt(MAGIC);
+        out.put(VERSION);
+        out.putLong(data.getGeneration());
+
+        out.putVarInt(LOCATION_NAMES.length);
+        for (byte[] name : LOCATION_NAMES)
+        {
+            out.putVarInt(name.length);
+            out.put(name);
+        }
+
+        int items = 0;
+        for (Map.Entry<Integer, Map<BankLocation, Integer>> item : balances.entrySet())
+        {
+            if (isWritableItem(item))
+            {
+                items++;
+            }
+        }
+
+        out.putVarInt(items);
+        for (Map.Entry<Integer, Map<BankLocation, Integer>> item : balances.entrySet())
+        {
+            if (!isWritableItem(item))
+            {
+                continue;
+            }
+
+            Map<BankLocation, Integer> perBank = item.getValue();
+            int entries = 0;
+            for (Map.Entry<BankLocation, Integer> bank : perBank.entrySet())
+            {
+                if (isWritableEntry(bank))
+                {
+                    entries++;
+                }
+            }
+
+            out.putVarInt(item.getKey());
+            out.putVarInt(entries);
+            for (Map.Entry<BankLocation, Integer> bank : perBank.entrySet())
+            {
+                if (isWritableEntry(bank))
+                {
+                    out.putVarInt(bank.getKey().ordinal());
+                    out.putVarInt(bank.getValue());
+                }
+            }
+        }
+
+        out.finish();
+    }
+
+    /**
+     * @param size total number of bytes the channel will supply, including the
+     * trailing checksum
+     */
+    public static BankData decode(ReadableByteChannel channel, long size) throws IOException
+    {
+        if (size < 9)
+        {
+            throw new IOException("Bank data file too short: " + size + " bytes");
+        }
+
+        Input in = new Input(channel, size - 4);
+
+        if (in.getInt() != MAGIC)
+        {
+            throw new IOException("Not a TradeWinds binary ledger");
+        }
+
+        int version = in.get() & 0xFF;
+        if (version != VERSION)
+        {
+            throw new IOException("Unsupported ledger version " + version);
+        }
+        long generation = in.getLong();
+
+        // Counts size allocations, so they are bounded by the bytes left before the
+        // checksum can vouch for them: a location is at least a length byte, an item
+        // at least an id and an entry count, an entry a location and a quantity
+        int locationCount = in.getCount(1);
+        BankLocation[] dictionary = new BankLocation[locationCount];
+        byte[] name = new byte[MAX_NAME_LENGTH];
+        for (int i = 0; i < locationCount; i++)
+        {
+            int length = in.getVarInt();
+            if (length > MAX_NAME_LENGTH)
+            {
+                throw new IOException("Location name too long: " + length);
+            }
+            in.get(name, length);
+            dictionary[i] = lookupLocation(name, length);
+        }
+
+        int itemCount = in.getCount(2);
+        Map<Integer, Map<BankLocation, Integer>> balances = new HashMap<>(Math.max(16, itemCount * 4 / 3 + 1));
+        for (int i = 0; i < itemCount; i++)
+        {
+            int itemId = in.getVarInt();
+            int entries = in.getCount(2);
+
+            Map<BankLocation, Integer> perBank = new EnumMap<>(BankLocation.class);
+            for (int e = 0; e < entries; e++)
+            {
+                int index = in.getVarInt();
+                int qty = in.getVarInt();
+                if (index >= dictionary.length)
+                {
+                    throw new IOException("Location index " + index + " out of range");
+                }
+
+                // Locations removed from the enum since the file was written are dropped
+                if (dictionary[index] != null && qty > 0)
+                {
+                    perBank.put(dictionary[index], qty);
+                }
+            }
+
+            if (!perBank.isEmpty())
+            {
+                balances.put(itemId, perBank);
+            }
+        }
+
+        in.verifyChecksum();
+
+        BankData data = new BankData();
+        data.setBalances(balances);
+        data.setGeneration(generation);
+        return data;
+    }
+
+    private static boolean isWritableItem(Map.Entry<Integer, Map<BankLocation, Integer>> item)
+    {
+        return item.getKey() != null && item.getKey() > 0 && item.getValue() != null && !item.getValue().isEmpty();
+    }
+
+    private static boolean isWritableEntry(Map.Entry<BankLocation, Integer> bank)
+    {
+        return bank.getKey() != null && bank.getValue() != null && bank.getValue() > 0;
+    }
+
+    static BankLocation lookupLocation(byte[] name, int length)
+    {
+        outer:
+        for (int i = 0; i < LOCATION_NAMES.length; i++)
+        {
+            byte[] candidate = LOCATION_NAMES[i];
+            if (candidate.length != length)
+            {
+                continue;
+            }
+            for (int b = 0; b < length; b++)
+            {
+                if (candidate[b] != name[b])
+                {
+                    continue outer;
+                }
+            }
+            return LOCATIONS[i];
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------
+    // Buffered channel I/O with a running CRC
+    // ------------------------------------------------------------
+
+    private static final class Output
+    {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final CRC32 crc = new CRC32();
+
+        Output(WritableByteChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        void put(byte b) throws IOException
+        {
+            if (!buffer.hasRemaining())
+            {
+                drain();
+            }
+            buffer.put(b);
+        }
+
+        void put(byte[] bytes) throws IOException
+        {
+            for (byte b : bytes)
+            {
+                put(b);
+            }
+        }
+
+        void putInt(int value) throws IOException
+        {
+            put((byte) (value >>> 24));
+            put((byte) (value >>> 16));
+            put((byte) (value >>> 8));
+            put((byte) value);
+        }
+
+        void putLong(long value) throws IOException
+        {
+            putInt((int) (value >>> 32));
+            putInt((int) value);
+        }
+
+        void putVarInt(int value) throws IOException
+        {
+            while ((value & ~0x7F) != 0)
+            {
+                put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            put((byte) value);
+        }
+
+        void finish() throws IOException
+        {
+            drain();
+
+            buffer.putInt((int) crc.getValue());
+            buffer.flip();
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void drain() throws IOException
+        {
+            buffer.flip();
+            crc.update(buffer.array(), 0, buffer.limit());
+            while (buffer.hasRemaining())
+            {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    private static final class Input
+    {
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final CRC32 crc = new CRC32();
+        private long payloadRemaining;
+        private long payloadUnchecked;
+
+        Input(ReadableByteChannel channel, long payloadLength)
+        {
+            this.channel = channel;
+            this.payloadRemaining = payloadLength;
+            this.payloadUnchecked = payloadLength;
+            buffer.limit(0);
+        }
+
+        byte get() throws IOException
+        {
+            if (payloadRemaining <= 0)
+            {
+                throw new EOFException("Unexpected end of ledger data");
+            }
+            if (!buffer.hasRemaining())
+            {
+                fill();
+            }
+            payloadRemaining--;
+            return buffer.get();
+        }
+
+        void get(byte[] into, int length) throws IOException
+        {
+            for (int i = 0; i < length; i++)
+            {
+                into[i] = get();
+            }
+        }
+
+        int getInt() throws IOException
+        {
+            return (get() & 0xFF) << 24 | (get() & 0xFF) << 16 | (get() & 0xFF) << 8 | (get() & 0xFF);
+        }
+
+        long getLong() throws IOException
+        {
+            return (long) getInt() << 32 | (getInt() & 0xFFFFFFFFL);
+        }
+
+        int getVarInt() throws IOException
+        {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7)
+            {
+                byte b = get();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        /**
+         * Reads a count of records that each take at least {@code minBytes} more
+         * bytes, refusing one the rest of the payload could not hold.
+         */
+        int getCount(int minBytes) throws IOException
+        {
+            int count = getVarInt();
+            if (count < 0 || count > payloadRemaining / minBytes)
+            {
+                throw new IOException("Count " + count + " exceeds the " + payloadRemaining + " bytes left");
+            }
+            return count;
+        }
+
+        void verifyChecksum() throws IOException
+        {
+            if (payloadRemaining != 0)
+            {
+                throw new IOException(payloadRemaining + " unexpected trailing bytes");
+            }
+
+            // The checksum follows the payload; read it without feeding the CRC
+            ByteBuffer trailer = ByteBuffer.allocate(4);
+            while (trailer.hasRemaining())
+            {
+                if (buffer.hasRemaining())
+                {
+                    trailer.put(buffer.get());
+                }
+                else
+                {
+                    fill();
+                }
+            }
+            trailer.flip();
+
+            if (trailer.getInt() != (int) crc.getValue())
+            {
+                throw new IOException("Ledger checksum mismatch");
+            }
+        }
+
+        private void fill() throws IOException
+        {
+            buffer.clear();
+            int read;
+            do
+            {
+                read = channel.read(buffer);
+            }
+            while (read == 0);
+
+            buffer.flip();
+            if (read < 0)
+            {
+                throw new EOFException("Unexpected end of ledger file");
+            }
+
+            // Only the payload part of each chunk feeds the CRC, never the trailer
+            int payload = (int) Math.min(read, payloadUnchecked);
+            crc.update(buffer.array(), 0, payload);
+            payloadUnchecked -= payload;
+        }
+    }
+}
@@ -2,38 +2,533 @@ package com.tradewinds;
 
 import lombok.extern.slf4j.Slf4j;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.LongAdder;
 
 @Slf4j
 @Singleton
 public class BankLedgerService
 {
-    private final Map<Integer, Map<BankLocation, Integer>> balances = new HashMap<>();
-    private BankData bankData = new BankData();
+    // Replaced wholesale when a load or shard is published; mutated in place only
+    // under the lock on the client thread, which reads it without the lock
+    private volatile BankLedgerStore balances = new BankLedgerStore();
     private TradeWindsStorage storage;
+    private ScheduledExecutorService executor;
+    private LedgerWriteBehind writeBehind;
+    private volatile File accountFile;
+    // Compared by the bank tracker on the client thread; bumped on the executor too
+    private volatile int generation;
+    // Bumped by every change to what the ledger reports, including replacements
+    private volatile int version;
 
-    public void setStorage(TradeWindsStorage storage)
+    private volatile LedgerLoadState loadState = LedgerLoadState.UNLOADED;
+    // Bumped by every load, reset and clear; a load publishes only if still current
+    private int loadToken;
+
+    // Journal mode: changes since the last append, plus whether the next save must
+    // be a full snapshot instead (after load, reset or a failed append)
+    private static final int MAX_PENDING_DELTAS = 50_000;
+    private static final long JOURNAL_COMPACT_BYTES = 64 * 1024;
+    private LedgerDeltaBuffer pendingDeltas = new LedgerDeltaBuffer();
+    private LedgerDeltaBuffer drainingDeltas = new LedgerDeltaBuffer();
+    private boolean fullSaveRequired = true;
+
+    // Mapped mode: the shared file this session writes its deltas into. Writes and
+    // refreshes hold the write lock, taken before this service's monitor, so a
+    // refresh never runs while a batch is between the buffer and the file
+    private MappedLedgerFile mappedLedger;
+    private final Object mappedWriteLock = new Object();
+    // Run again when a retired mapped ledger forces a reload
+    private Runnable onLoaded;
+
+    // Sharded mode: the committed shard generation per location, and which
+    // loaded locations (and whether the index) changed since the last commit
+    private long[] shardGenerations = new long[BankLedgerStore.LOCATION_COUNT];
+    private final boolean[] dirtyShards = new boolean[BankLedgerStore.LOCATION_COUNT];
+    private boolean shardIndexDirty;
+    private final int[] heldLocations = new int[BankLedgerStore.LOCATION_COUNT];
+    // Shards being read on the executor, so each is requested once; and what to
+    // run once one is in, as the bank waiting on it can then be reconciled
+    private final boolean[] shardsLoading = new boolean[BankLedgerStore.LOCATION_COUNT];
+    private Runnable onShardLoaded;
+
+    // Format the account's ledger is currently persisted in, null before the first save
+    private LedgerStorageMode persistedFormat;
+    // Generation of the last snapshot loaded or saved; journal appends extend it
+    private long snapshotGeneration;
+
+    private final LatencyHistogram reconcileTimings;
+    private final LatencyHistogram saveTimings;
+    private final LongAdder reconciledItems;
+    private final LongAdder failedSaves;
+
+    /**
+     * A ledger whose metrics are kept to itself, for tools and benchmarks.
+     */
+    public BankLedgerService()
+    {
+        this(new TradeWindsMetrics());
+    }
+
+    @Inject
+    public BankLedgerService(TradeWindsMetrics metrics)
+    {
+        this.reconcileTimings = metrics.histogram("ledger.reconcile");
+        this.saveTimings = metrics.histogram("ledger.save");
+        this.reconciledItems = metrics.counter("ledger.reconcile.items");
+        this.failedSaves = metrics.counter("ledger.save.failed");
+    }
+
+    public void setStorage(TradeWindsStorage storage, ScheduledExecutorService executor)
     {
         this.storage = storage;
+        this.executor = executor;
+        this.writeBehind = storage != null ? new LedgerWriteBehind(executor, this::writeBalances) : null;
     }
 
+    /**
+     * @param onShardLoaded run on the executor whenever a shard requested by
+     *                      {@link #prepareLocation} has been loaded
+     */
+    public void setOnShardLoaded(Runnable onShardLoaded)
+    {
+        this.onShardLoaded = onShardLoaded;
+    }
+
+    /**
+     * Marks the ledger dirty; the write-behind stage saves it off the client thread
+     * once the bank has been quiet for a moment.
+     */
+    public void requestSave()
+    {
+        if (writeBehind == null)
+        {
+            return;
+        }
+
+        if (accountFile == null)
+        {
+            accountFile = storage.resolveBankFile();
+        }
+
+        writeBehind.markDirty();
+    }
+
+    /**
+     * Writes any pending change synchronously. Called on logout and shutdown.
+     */
     public void saveBalances()
     {
-        if (storage == null)
+        if (writeBehind == null)
         {
             return;
         }
 
-        bankData.setBalances(new HashMap<>(balances));
-        storage.saveBankData(bankData);
+        writeBehind.flush();
+        log.info("TradeWinds saves: {} requested, {} coalesced, {} written",
+                writeBehind.getSavesRequested(), writeBehind.getSavesCoalesced(), writeBehind.getSavesWritten());
+    }
 
-        log.info("Saved TradeWinds balances: {} items", balances.size());
+    public long getSavesCoalesced()
+    {
+        return writeBehind != null ? writeBehind.getSavesCoalesced() : 0;
+    }
+
+    public long getSavesWritten()
+    {
+        return writeBehind != null ? writeBehind.getSavesWritten() : 0;
+    }
+
+    private boolean writeBalances()
+    {
+        File file = accountFile;
+        if (storage == null || file == null || loadState != LedgerLoadState.READY)
+        {
+            // Nothing to save until a ledger is loaded; saving now would overwrite it.
+            // Not a success either: the change stays dirty for the next save
+            return false;
+        }
+
+        long start = System.nanoTime();
+        boolean written = writeInCurrentMode(file);
+        saveTimings.recordSince(start);
+        if (!written)
+        {
+            failedSaves.increment();
+        }
+        return written;
+    }
+
+    private boolean writeInCurrentMode(File file)
+    {
+        LedgerStorageMode mode = storage.getStorageMode();
+        synchronized (this)
+        {
+            // Switching modes rewrites everything once in the new format
+            if (formatOf(mode) != persistedFormat)
+            {
+                fullSaveRequired = true;
+            }
+            if (mode != LedgerStorageMode.MAPPED)
+            {
+                closeMappedLedger();
+            }
+        }
+
+        switch (mode)
+        {
+            case MAPPED:
+                return writeMapped(file);
+            case SHARDED:
+                return writeSharded(file);
+            default:
+                return writeFile(file, mode == LedgerStorageMode.JOURNAL);
+        }
     }
 
+    private static LedgerStorageMode formatOf(LedgerStorageMode mode)
+    {
+        // A journal is only ever a tail on a snapshot file
+        return mode == LedgerStorageMode.JOURNAL ? LedgerStorageMode.SNAPSHOT : mode;
+    }
+
+    private boolean writeFile(File file, boolean journal)
+    {
+        LedgerDeltaBuffer batch;
+        long generation;
+        synchronized (this)
+        {
+            generation = snapshotGeneration;
+            if (fullSaveRequired || !journal)
+            {
+                fullSaveRequired = false;
+                pendingDeltas.clear();
+                batch = null;
+            }
+            else
+            {
+                batch = pendingDeltas;
+                pendingDeltas = drainingDeltas;
+                drainingDeltas = batch;
+            }
+        }
+
+        if (batch == null)
+        {
+            return writeSnapshot(file);
+        }
+
+        if (batch.isEmpty())
+        {
+            return true;
+        }
+
+        long journalSize = storage.appendJournal(file, generation, batch);
+        int appended = batch.size();
+        batch.clear();
+
+        if (journalSize < 0)
+        {
+            // The batch is lost from the journal; only a full snapshot can recover it
+            return writeSnapshot(file);
+        }
+
+        log.debug("Journaled {} TradeWinds ledger changes", appended);
+
+        if (journalSize > JOURNAL_COMPACT_BYTES)
+        {
+            log.info("Compacting TradeWinds ledger journal ({} bytes)", journalSize);
+            return writeSnapshot(file);
+        }
+        return true;
+    }
+
+    private boolean writeSnapshot(File file)
+    {
+        BankData snapshot = new BankData();
+        int items;
+        synchronized (this)
+        {
+            if (!ensureFullyLoaded())
+            {
+                fullSaveRequired = true;
+                return false;
+            }
+            snapshot.setBalances(toBalancesMap());
+            // Never reused, even across clock changes or a ledger moved between formats
+            snapshot.setGeneration(Math.max(snapshotGeneration + 1, System.currentTimeMillis()));
+            items = balances.size();
+        }
+
+        if (!storage.saveBankData(file, snapshot))
+        {
+            synchronized (this)
+            {
+                fullSaveRequired = true;
+            }
+            return false;
+        }
+
+        synchronized (this)
+        {
+            persistedFormat = LedgerStorageMode.SNAPSHOT;
+            snapshotGeneration = snapshot.getGeneration();
+        }
+
+        log.info("Saved TradeWinds balances: {} items", items);
+        return true;
+    }
+
+    /**
+     * Adds changed cells onto the shared mapped ledger, creating it on the first
+     * save in mapped mode. The file is rewritten whole only when the ledger was
+     * reset or is moving into it from another format. Changes lost before they
+     * were written (a stalled save overflowing the buffer) are given up by
+     * reloading the file; the bank's next reconcile finds them again.
+     */
+    private boolean writeMapped(File file)
+    {
+        synchronized (mappedWriteLock)
+        {
+            MappedLedgerFile mapped;
+            Map<Integer, Map<BankLocation, Integer>> full = null;
+            LedgerDeltaBuffer batch = null;
+            synchronized (this)
+            {
+                mapped = mappedLedger;
+                if (mapped == null || persistedFormat != LedgerStorageMode.MAPPED)
+                {
+                    fullSaveRequired = false;
+                    pendingDeltas.clear();
+                    if (!ensureFullyLoaded())
+                    {
+                        fullSaveRequired = true;
+                        return false;
+                    }
+                    full = toBalancesMap();
+                }
+                else if (fullSaveRequired)
+                {
+                    return reloadMapped(mapped);
+                }
+                else
+                {
+                    batch = pendingDeltas;
+                    pendingDeltas = drainingDeltas;
+                    drainingDeltas = batch;
+                }
+            }
+
+            if (mapped == null)
+            {
+                Optional<MappedLedgerFile> created = storage.createMappedLedger(file, full);
+                synchronized (this)
+                {
+                    if (!created.isPresent())
+                    {
+                        fullSaveRequired = true;
+                        return false;
+                    }
+                    mappedLedger = created.get();
+                    persistedFormat = LedgerStorageMode.MAPPED;
+                }
+                return true;
+            }
+
+            try
+            {
+                if (full != null)
+                {
+                    mapped.replaceAll(full);
+                    synchronized (this)
+                    {
+                        persistedFormat = LedgerStorageMode.MAPPED;
+                    }
+                    log.info("Rewrote TradeWinds mapped ledger: {} items", full.size());
+                }
+                else if (!batch.isEmpty())
+                {
+                    int changes = batch.size();
+                    mapped.apply(batch);
+                    log.debug("Wrote {} TradeWinds ledger changes to the mapped ledger", changes);
+                }
+                return true;
+            }
+            catch (Exception e)
+            {
+                log.warn("Failed to write mapped ledger", e);
+                synchronized (this)
+                {
+                    if (full != null)
+                    {
+                        fullSaveRequired = true;
+                    }
+                    else
+                    {
+                        // What apply did not write goes back ahead of newer changes
+                        batch.addAll(pendingDeltas);
+                        pendingDeltas.clear();
+                        drainingDeltas = pendingDeltas;
+                        pendingDeltas = batch;
+                    }
+                }
+                return false;
+            }
+            finally
+            {
+                drainingDeltas.clear();
+            }
+        }
+    }
+
+    /**
+     * Replaces the in-memory ledger with the mapped file's contents, dropping
+     * this session's unwritten changes. Caller holds both the write lock and this
+     * service's monitor.
+     */
+    private boolean reloadMapped(MappedLedgerFile mapped)
+    {
+        try
+        {
+            BankLedgerStore store = new BankLedgerStore(balances.size());
+            mapped.readInto(store);
+            balances = store;
+        }
+        catch (Exception e)
+        {
+            log.warn("Failed to reload mapped ledger", e);
+            return false;
+        }
+
+        generation++;
+        version++;
+        pendingDeltas.clear();
+        fullSaveRequired = false;
+        log.warn("Reloaded the TradeWinds mapped ledger after losing unsaved changes; they are reconciled again at their bank");
+        return true;
+    }
+
+    /**
+     * Commits the shards of every location changed since the last save, plus the
+     * index. A full save rewrites every loaded shard; unloaded shards are carried
+     * over untouched.
+     */
+    private boolean writeSharded(File file)
+    {
+        byte[][] shards = new byte[BankLedgerStore.LOCATION_COUNT][];
+        long[] generations;
+        byte[] index;
+        boolean full;
+        synchronized (this)
+        {
+            full = fullSaveRequired;
+            fullSaveRequired = false;
+            pendingDeltas.clear();
+
+            if (!full && !shardIndexDirty)
+            {
+                return true;
+            }
+
+            long next = 0;
+            for (long g : shardGenerations)
+            {
+                next = Math.max(next, g);
+            }
+            next++;
+
+            generations = shardGenerations.clone();
+            for (BankLocation location : BankLedgerStore.LOCATIONS)
+            {
+                int ordinal = location.ordinal();
+                if (full ? balances.isLoaded(location) : dirtyShards[ordinal])
+                {
+                    boolean empty = balances.getItemCount(location) == 0;
+                    generations[ordinal] = empty ? 0 : next;
+                    shards[ordinal] = empty ? null : LedgerShards.encodeShard(balances, location);
+                    dirtyShards[ordinal] = false;
+                }
+            }
+
+            index = LedgerShards.encodeIndex(balances, generations);
+            shardIndexDirty = false;
+        }
+
+        boolean committed = storage.commitShards(file, shards, generations, index, full);
+        synchronized (this)
+        {
+            if (!committed)
+            {
+                for (int ordinal = 0; ordinal < generations.length; ordinal++)
+                {
+                    dirtyShards[ordinal] |= generations[ordinal] != shardGenerations[ordinal] || shards[ordinal] != null;
+                }
+                shardIndexDirty = true;
+                fullSaveRequired |= full;
+                return false;
+            }
+
+            shardGenerations = generations;
+            persistedFormat = LedgerStorageMode.SHARDED;
+        }
+        return true;
+    }
+
+    /**
+     * Starts loading the logged-in account's ledger on the background executor and
+     * publishes it in one step when done. Until then the service reports
+     * {@link LedgerLoadState#LOADING}, reconciles are refused and nothing is saved.
+     * Must be called on the client thread, once the player's name is known.
+     *
+     * @param onLoaded run on the loader thread after the ledger is published, and
+     *                 again after any reload this service starts itself
+     */
+    public void loadBalancesAsync(Runnable onLoaded)
+    {
+        if (storage == null)
+        {
+            log.warn("TradeWindsStorage not initialised yet when calling loadBalancesAsync()");
+            return;
+        }
+
+        this.onLoaded = onLoaded;
+        File file = storage.resolveBankFile();
+        int token = beginLoad(file);
+        executor.execute(() ->
+        {
+            try
+            {
+                long start = System.nanoTime();
+                if (publish(token, readLedger(file)))
+                {
+                    log.info("TradeWinds ledger warm-up took {} ms", (System.nanoTime() - start) / 1_000_000);
+                    if (onLoaded != null)
+                    {
+                        onLoaded.run();
+                    }
+                }
+            }
+            catch (Exception e)
+            {
+                failLoad(token, e);
+            }
+        });
+    }
+
+    /**
+     * Loads the ledger synchronously on the calling thread, which must be the
+     * client thread.
+     */
     public void loadBalances()
     {
         if (storage == null)
@@ -42,94 +537,581 @@ public class BankLedgerService
             return;
         }
 
-        storage.loadBankData().ifPresent(loaded ->
+        File file = storage.resolveBankFile();
+        int token = beginLoad(file);
+        try
         {
-            bankData = loaded;
+            publish(token, readLedger(file));
+        }
+        catch (IOException e)
+        {
+            failLoad(token, e);
+        }
+    }
 
-            balances.clear();
-            if (bankData.getBalances() != null)
+    /**
+     * Leaves a ledger that could not be read unloaded, so nothing is saved over it.
+     */
+    private synchronized void failLoad(int token, Exception e)
+    {
+        log.warn("TradeWinds: loading balances failed; nothing is saved until they load", e);
+        if (token == loadToken)
+        {
+            loadState = LedgerLoadState.UNLOADED;
+        }
+    }
+
+    private synchronized int beginLoad(File file)
+    {
+        closeMappedLedger();
+        accountFile = file;
+        loadState = LedgerLoadState.LOADING;
+        return ++loadToken;
+    }
+
+    /**
+     * Reads whichever format the account's ledger is stored in into a fresh store,
+     * touching no shared state.
+     *
+     * @throws IOException if the ledger exists but could not be read
+     */
+    private LoadedLedger readLedger(File file) throws IOException
+    {
+        BankLedgerStore store = new BankLedgerStore();
+
+        Optional<MappedLedgerFile> existing = storage.openMappedLedger(file);
+        if (existing.isPresent())
+        {
+            MappedLedgerFile mapped = existing.get();
+            try
             {
-                balances.putAll(bankData.getBalances());
+                mapped.readInto(store);
+                boolean keep = storage.isMappedMode();
+                if (!keep)
+                {
+                    // The next save moves the balances into the configured format
+                    closeQuietly(mapped);
+                }
+                return new LoadedLedger(store, LedgerStorageMode.MAPPED, keep ? mapped : null, null, 0);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                closeQuietly(mapped);
+                throw e instanceof IOException ? (IOException) e : new IOException(e);
             }
+        }
 
-            log.info("Loaded TradeWinds balances: {} items", balances.size());
-        });
+        // Shards load only the index; location quantities follow on demand
+        Optional<long[]> shardGenerations = storage.loadShardIndex(file, store);
+        if (shardGenerations.isPresent())
+        {
+            return new LoadedLedger(store, LedgerStorageMode.SHARDED, null, shardGenerations.get(), 0);
+        }
+        store.clear();
+
+        Optional<BankData> data = storage.loadBankData(file);
+        if (data.isPresent() && data.get().getBalances() != null)
+        {
+            fromBalancesMap(store, data.get().getBalances());
+            return new LoadedLedger(store, LedgerStorageMode.SNAPSHOT, null, null, data.get().getGeneration());
+        }
+        return new LoadedLedger(store, null, null, null, 0);
     }
 
-    public void resetBalances()
+    /**
+     * Swaps a loaded ledger in, unless the session moved on (logout, reset or a
+     * newer load) while it was being read.
+     *
+     * @return true if the ledger was published
+     */
+    private boolean publish(int token, LoadedLedger loaded)
     {
-        log.warn("RESETTING ALL TRADEWINDS BALANCES");
-        balances.clear();
-        bankData = new BankData();
+        synchronized (this)
+        {
+            if (token != loadToken)
+            {
+                if (loaded.mapped != null)
+                {
+                    closeQuietly(loaded.mapped);
+                }
+                return false;
+            }
 
-        if (storage != null)
+            balances = loaded.store;
+            generation++;
+            version++;
+            resetShardState();
+            if (loaded.shardGenerations != null)
+            {
+                shardGenerations = loaded.shardGenerations;
+            }
+            mappedLedger = loaded.mapped;
+            pendingDeltas.clear();
+            // A snapshot file folds its journal into a fresh snapshot on first save
+            fullSaveRequired = loaded.format != LedgerStorageMode.MAPPED && loaded.format != LedgerStorageMode.SHARDED;
+            persistedFormat = loaded.format;
+            snapshotGeneration = loaded.snapshotGeneration;
+            loadState = LedgerLoadState.READY;
+        }
+
+        log.info("Loaded TradeWinds balances ({}): {} items", loaded.format, loaded.store.size());
+
+        if (loaded.format != null && loaded.format != formatOf(storage.getStorageMode()))
         {
-            storage.saveBankData(bankData);
+            // Migrate to the configured format without waiting for a bank change
+            requestSave();
         }
+        return true;
     }
 
-    public void reconcileWithGlobalTotals(BankLocation currentBankLocation, Map<Integer, Integer> newGlobalTotals)
+    public LedgerLoadState getLoadState()
     {
-        if (currentBankLocation == null)
+        return loadState;
+    }
+
+    /**
+     * @return true once the account's ledger is loaded; overlays and withdraw
+     * checks must not trust any quantity before then
+     */
+    public boolean isReady()
+    {
+        return loadState == LedgerLoadState.READY;
+    }
+
+    /**
+     * Starts reading the shard for a location on the background executor, so the
+     * bank there can be shown and reconciled without touching disk on the client
+     * thread. Called when the bank opens, and by a reconcile refused because the
+     * shard is not in yet; a no-op unless the ledger was loaded from shards.
+     */
+    public synchronized void prepareLocation(BankLocation location)
+    {
+        File file = accountFile;
+        if (location == null || storage == null || executor == null || file == null || !isReady()
+                || balances.isLoaded(location) || shardsLoading[location.ordinal()])
         {
             return;
         }
 
-        Set<Integer> allItemIds = new HashSet<>();
-        allItemIds.addAll(newGlobalTotals.keySet());
-        allItemIds.addAll(balances.keySet());
-
-        for (int itemId : allItemIds)
+        int ordinal = location.ordinal();
+        long shardGeneration = shardGenerations[ordinal];
+        int token = loadToken;
+        shardsLoading[ordinal] = true;
+        executor.execute(() ->
         {
-            int newGlobal = newGlobalTotals.getOrDefault(itemId, 0);
-
-            Map<BankLocation, Integer> perBank = balances.get(itemId);
-            int oldGlobal = 0;
-            if (perBank != null)
+            Optional<LedgerShards.Shard> shard = storage.loadShard(file, location, shardGeneration);
+            Runnable callback;
+            synchronized (this)
             {
-                for (int qty : perBank.values())
+                if (token != loadToken)
+                {
+                    // The ledger was replaced while reading; the shard belongs to the old one
+                    return;
+                }
+                shardsLoading[ordinal] = false;
+                if (!shard.isPresent() || balances.isLoaded(location))
                 {
-                    oldGlobal += qty;
+                    return;
                 }
+
+                // Filled into a copy, as the client thread reads the store without the lock
+                BankLedgerStore store = balances.copy();
+                shard.get().loadInto(store);
+                balances = store;
+                version++;
+                callback = onShardLoaded;
             }
 
-            int delta = newGlobal - oldGlobal;
-            if (delta == 0)
+            log.debug("Loaded TradeWinds ledger shard for {}: {} items", location, balances.getItemCount(location));
+            if (callback != null)
+            {
+                callback.run();
+            }
+        });
+    }
+
+    /**
+     * Loads every shard not yet loaded on the calling thread, under the lock, into
+     * a copy of the store that is swapped in whole. For work already off the
+     * client thread.
+     *
+     * @return false if a shard could not be read; those read are kept
+     */
+    private boolean ensureFullyLoaded()
+    {
+        if (balances.isFullyLoaded())
+        {
+            return true;
+        }
+
+        File file = accountFile;
+        if (storage == null || file == null)
+        {
+            return false;
+        }
+
+        BankLedgerStore store = balances.copy();
+        boolean complete = true;
+        for (BankLocation location : BankLedgerStore.LOCATIONS)
+        {
+            if (store.isLoaded(location))
             {
                 continue;
             }
 
-            if (perBank == null && newGlobal > 0)
+            Optional<LedgerShards.Shard> shard = storage.loadShard(file, location, shardGenerations[location.ordinal()]);
+            if (!shard.isPresent())
             {
-                perBank = new HashMap<>();
-                balances.put(itemId, perBank);
+                complete = false;
+                continue;
             }
 
-            int oldLocal = perBank != null ? perBank.getOrDefault(currentBankLocation, 0) : 0;
-            int newLocal = Math.max(0, oldLocal + delta);
+            shard.get().loadInto(store);
+            log.debug("Loaded TradeWinds ledger shard for {}: {} items", location, store.getItemCount(location));
+        }
 
-            if (perBank != null)
+        balances = store;
+        version++;
+        return complete;
+    }
+
+    private void resetShardState()
+    {
+        shardGenerations = new long[BankLedgerStore.LOCATION_COUNT];
+        Arrays.fill(dirtyShards, false);
+        Arrays.fill(shardsLoading, false);
+        shardIndexDirty = false;
+    }
+
+    /**
+     * Picks up changes another client has written to the shared mapped ledger since
+     * this one last read it, then lays this session's unwritten changes back on top.
+     * If another client moved the ledger out of the mapped file, it is loaded
+     * again from its new format. Called on the client thread when the bank opens,
+     * before it is reconciled.
+     */
+    public void refreshSharedLedger()
+    {
+        boolean retired = false;
+        synchronized (mappedWriteLock)
+        {
+            synchronized (this)
             {
-                if (newLocal == 0)
+                MappedLedgerFile mapped = mappedLedger;
+                try
                 {
-                    perBank.remove(currentBankLocation);
+                    if (mapped == null || !mapped.hasForeignWrites())
+                    {
+                        return;
+                    }
+
+                    if (mapped.isRetired())
+                    {
+                        closeMappedLedger();
+                        retired = true;
+                    }
+                    else
+                    {
+                        BankLedgerStore store = new BankLedgerStore(balances.size());
+                        mapped.readInto(store);
+                        mergePending(store);
+                        balances = store;
+                        generation++;
+                        version++;
+                    }
                 }
-                else
+                catch (Exception e)
                 {
-                    perBank.put(currentBankLocation, newLocal);
+                    log.warn("Failed to refresh mapped ledger", e);
+                    return;
                 }
+            }
+        }
 
-                if (perBank.isEmpty() || newGlobal == 0)
-                {
-                    balances.remove(itemId);
-                }
+        if (retired)
+        {
+            log.info("TradeWinds mapped ledger was moved to another format by another client; loading it again");
+            loadBalancesAsync(onLoaded);
+            return;
+        }
+        log.info("Reloaded TradeWinds ledger changed by another client: {} items", balances.size());
+    }
+
+    /**
+     * Adds each pending change onto a freshly read ledger, as the next write will
+     * add it onto the file.
+     */
+    private void mergePending(BankLedgerStore store)
+    {
+        for (int i = 0; i < pendingDeltas.size(); i++)
+        {
+            BankLocation location = BankLedgerStore.LOCATIONS[pendingDeltas.getLocation(i)];
+            int itemId = pendingDeltas.getItemId(i);
+            long quantity = (long) store.getQuantity(itemId, location)
+                    + pendingDeltas.getQuantity(i) - pendingDeltas.getPreviousQuantity(i);
+            store.setQuantity(itemId, location, (int) Math.max(0, Math.min(Integer.MAX_VALUE, quantity)));
+        }
+    }
+
+    public void resetBalances()
+    {
+        log.warn("RESETTING ALL TRADEWINDS BALANCES");
+        synchronized (this)
+        {
+            balances.clear();
+            generation++;
+            version++;
+            // A load still in flight must not bring the old balances back
+            loadToken++;
+            loadState = LedgerLoadState.READY;
+            Arrays.fill(dirtyShards, false);
+            pendingDeltas.clear();
+            fullSaveRequired = true;
+            // Rewritten whole, even over a mapped ledger other clients share
+            persistedFormat = null;
+        }
+
+        if (writeBehind != null)
+        {
+            // Not requestSave: this may be off the client thread, where the account
+            // file cannot be resolved. Without a file the save waits for the next request
+            writeBehind.markDirty();
+        }
+        saveBalances();
+    }
+
+    /**
+     * A copy of every balance, loading any shard not yet read. Used to start an
+     * event recording from the ledger as it stands.
+     */
+    synchronized BankData exportBalances()
+    {
+        ensureFullyLoaded();
+        BankData data = new BankData();
+        data.setBalances(toBalancesMap());
+        return data;
+    }
+
+    /**
+     * Swaps in balances from outside the account's storage, as a recorded load
+     * replays, and marks the ledger ready. Nothing is saved.
+     */
+    synchronized void replaceBalances(BankData data)
+    {
+        BankLedgerStore store = new BankLedgerStore();
+        if (data.getBalances() != null)
+        {
+            fromBalancesMap(store, data.getBalances());
+        }
+
+        balances = store;
+        generation++;
+        version++;
+        loadToken++;
+        loadState = LedgerLoadState.READY;
+        resetShardState();
+        pendingDeltas.clear();
+        fullSaveRequired = true;
+        closeMappedLedger();
+    }
+
+    /**
+     * @return false if nothing was reconciled, see {@link #canReconcile}
+     */
+    public synchronized boolean reconcileWithGlobalTotals(BankLocation currentBankLocation, Map<Integer, Integer> newGlobalTotals)
+    {
+        if (!canReconcile(currentBankLocation))
+        {
+            return false;
+        }
+
+        TradeWindsEvents.Reconcile event = new TradeWindsEvents.Reconcile();
+        event.begin();
+        long start = System.nanoTime();
+        int versionBefore = version;
+        Set<Integer> allItemIds = new HashSet<>(newGlobalTotals.keySet());
+        for (int itemId : balances.itemIds())
+        {
+            allItemIds.add(itemId);
+        }
+
+        for (int itemId : allItemIds)
+        {
+            reconcileItem(currentBankLocation, itemId, newGlobalTotals.getOrDefault(itemId, 0));
+        }
+        reconciledItems.add(allItemIds.size());
+        reconcileTimings.recordSince(start);
+        commitReconcile(event, currentBankLocation, "totals", allItemIds.size(), versionBefore);
+        return true;
+    }
+
+    /**
+     * Reconciles a complete bank snapshot. Items the ledger knows about that are
+     * missing from the snapshot are treated as withdrawn.
+     *
+     * @param sortedItemIds item ids in ascending order, one entry per item
+     * @param newGlobals the bank total for the item at the same index
+     * @return false if nothing was reconciled, see {@link #canReconcile}
+     */
+    public synchronized boolean reconcileSnapshot(BankLocation currentBankLocation, int[] sortedItemIds, long[] newGlobals, int count)
+    {
+        if (!canReconcile(currentBankLocation))
+        {
+            return false;
+        }
+
+        TradeWindsEvents.Reconcile event = new TradeWindsEvents.Reconcile();
+        event.begin();
+        long start = System.nanoTime();
+        int versionBefore = version;
+        int missing = 0;
+        for (int itemId : balances.itemIds())
+        {
+            if (Arrays.binarySearch(sortedItemIds, 0, count, itemId) < 0)
+            {
+                reconcileItem(currentBankLocation, itemId, 0);
+                missing++;
+            }
+        }
+        reconciledItems.add(missing);
+
+        reconcileListed(currentBankLocation, sortedItemIds, newGlobals, count);
+        reconcileTimings.recordSince(start);
+        commitReconcile(event, currentBankLocation, "snapshot", missing + count, versionBefore);
+        return true;
+    }
+
+    /**
+     * Reconciles only the listed items, for callers that already know exactly what
+     * changed since the last reconcile.
+     *
+     * @return false if nothing was reconciled, see {@link #canReconcile}
+     */
+    public synchronized boolean reconcileChanges(BankLocation currentBankLocation, int[] itemIds, long[] newGlobals, int count)
+    {
+        if (!canReconcile(currentBankLocation))
+        {
+            return false;
+        }
+
+        TradeWindsEvents.Reconcile event = new TradeWindsEvents.Reconcile();
+        event.begin();
+        long start = System.nanoTime();
+        int versionBefore = version;
+        reconcileListed(currentBankLocation, itemIds, newGlobals, count);
+        reconcileTimings.recordSince(start);
+        commitReconcile(event, currentBankLocation, "changes", count, versionBefore);
+        return true;
+    }
+
+    /**
+     * A reconcile needs the loaded ledger and the location's quantities in memory.
+     * If the location's shard is not in yet its read is started and the reconcile
+     * refused; the caller must then keep its last reconciled view of the bank and
+     * try again once the shard has loaded.
+     */
+    private boolean canReconcile(BankLocation location)
+    {
+        if (location == null || !isReady())
+        {
+            return false;
+        }
+        if (balances.isLoaded(location))
+        {
+            return true;
+        }
+
+        prepareLocation(location);
+        return false;
+    }
+
+    private void commitReconcile(TradeWindsEvents.Reconcile event, BankLocation location, String kind,
+                                 int scanned, int versionBefore)
+    {
+        if (event.shouldCommit())
+        {
+            event.location = TradeWindsEvents.nameOf(location);
+            event.kind = kind;
+            event.itemsScanned = scanned;
+            // Every changed item bumps the version exactly once
+            event.itemsChanged = version - versionBefore;
+            event.commit();
+        }
+    }
+
+    private void reconcileListed(BankLocation currentBankLocation, int[] itemIds, long[] newGlobals, int count)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            reconcileItem(currentBankLocation, itemIds[i], newGlobals[i]);
+        }
+        reconciledItems.add(count);
+    }
+
+    private void reconcileItem(BankLocation currentBankLocation, int itemId, long newGlobal)
+    {
+        long oldGlobal = balances.getTotal(itemId);
+
+        long delta = newGlobal - oldGlobal;
+        if (delta == 0)
+        {
+            return;
+        }
+
+        if (newGlobal == 0)
+        {
+            int count = balances.getLocations(itemId, heldLocations);
+            for (int i = 0; i < count; i++)
+            {
+                int ordinal = heldLocations[i];
+                recordDelta(itemId, ordinal, balances.getQuantity(itemId, BankLedgerStore.LOCATIONS[ordinal]), 0);
             }
+            balances.remove(itemId);
+            version++;
+            // Unloaded shards may still list the item; the index no longer places it there
+            shardIndexDirty = true;
+            log.debug("Reconcile @ {}: item {} oldGlobal={} newGlobal=0 (removed)",
+                    currentBankLocation, itemId, oldGlobal);
+            return;
+        }
+
+        int oldLocal = balances.getQuantity(itemId, currentBankLocation);
+        int newLocal = (int) Math.min(Integer.MAX_VALUE, Math.max(0, oldLocal + delta));
+
+        if (newLocal != oldLocal)
+        {
+            balances.setQuantity(itemId, currentBankLocation, newLocal);
+            recordDelta(itemId, currentBankLocation.ordinal(), oldLocal, newLocal);
+            version++;
+            dirtyShards[currentBankLocation.ordinal()] = true;
+            shardIndexDirty = true;
+        }
 
+        if (log.isDebugEnabled())
+        {
             log.debug("Reconcile @ {}: item {} oldGlobal={} newGlobal={} delta={} oldLocal={} newLocal={}",
                     currentBankLocation, itemId, oldGlobal, newGlobal, delta, oldLocal, newLocal);
         }
     }
 
+    private void recordDelta(int itemId, int location, int previousQuantity, int quantity)
+    {
+        if (fullSaveRequired)
+        {
+            return;
+        }
+
+        if (pendingDeltas.size() >= MAX_PENDING_DELTAS)
+        {
+            // Saves have stalled; a snapshot will capture everything anyway
+            pendingDeltas.clear();
+            fullSaveRequired = true;
+            return;
+        }
+
+        pendingDeltas.add(itemId, location, previousQuantity, quantity);
+    }
+
     public int getLocalQuantity(int itemId, BankLocation currentBankLocation)
     {
         if (currentBankLocation == null)
@@ -137,38 +1119,175 @@ public class BankLedgerService
             return 0;
         }
 
-        Map<BankLocation, Integer> perBank = balances.get(itemId);
-        if (perBank == null)
+        return balances.getQuantity(itemId, currentBankLocation);
+    }
+
+    public long getGlobalQuantity(int itemId)
+    {
+        return balances.getTotal(itemId);
+    }
+
+    /**
+     * @return the item's quantities at every loaded location. Locations holding it
+     * whose shard is not loaded yet are left out and requested from disk in the
+     * background; the shard-loaded callback runs as each arrives.
+     */
+    public synchronized Map<BankLocation, Integer> getPerBank(int itemId)
+    {
+        if (!balances.isFullyLoaded())
         {
-            return 0;
+            int[] held = new int[BankLedgerStore.LOCATION_COUNT];
+            int count = balances.getLocations(itemId, held);
+            for (int i = 0; i < count; i++)
+            {
+                prepareLocation(BankLedgerStore.LOCATIONS[held[i]]);
+            }
         }
-
-        return perBank.getOrDefault(currentBankLocation, 0);
+        return balances.toLocationMap(itemId);
     }
 
-    public int getGlobalQuantity(int itemId)
+    /**
+     * @return true if a location holding the item has not had its shard loaded,
+     * so {@link #getPerBank} leaves it out
+     */
+    public boolean hasUnloadedLocations(int itemId)
     {
-        Map<BankLocation, Integer> perBank = balances.get(itemId);
-        if (perBank == null)
+        BankLedgerStore store = balances;
+        if (store.isFullyLoaded())
         {
-            return 0;
+            return false;
         }
 
-        int total = 0;
-        for (int qty : perBank.values())
+        int[] held = new int[BankLedgerStore.LOCATION_COUNT];
+        int count = store.getLocations(itemId, held);
+        for (int i = 0; i < count; i++)
+        {
+            if (!store.isLoaded(BankLedgerStore.LOCATIONS[held[i]]))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Debug-mode check that the cached global totals and per-location item counts
+     * still match a full recount of the ledger.
+     */
+    public boolean verifyInvariants()
+    {
+        try
+        {
+            balances.verifyInvariants();
+            return true;
+        }
+        catch (IllegalStateException e)
         {
-            total += qty;
+            log.warn("TradeWinds ledger invariant violated: {}", e.getMessage());
+            return false;
         }
-        return total;
     }
 
-    public Map<BankLocation, Integer> getPerBank(int itemId)
+    /**
+     * @return a counter bumped whenever the ledger is replaced wholesale (load,
+     * reset, clear), so cached bank snapshots can tell they are stale
+     */
+    public int getGeneration()
     {
-        return balances.get(itemId);
+        return generation;
     }
 
-    public void clear()
+    /**
+     * @return a counter bumped by every change to the quantities the ledger
+     * reports, so views derived from it can tell when to rebuild
+     */
+    public int getVersion()
+    {
+        return version;
+    }
+
+    public synchronized void clear()
     {
         balances.clear();
+        generation++;
+        version++;
+        loadToken++;
+        loadState = LedgerLoadState.UNLOADED;
+        pendingDeltas.clear();
+        fullSaveRequired = true;
+        resetShardState();
+        persistedFormat = null;
+        snapshotGeneration = 0;
+        accountFile = null;
+        closeMappedLedger();
+    }
+
+    private synchronized void closeMappedLedger()
+    {
+        if (mappedLedger != null)
+        {
+            closeQuietly(mappedLedger);
+            mappedLedger = null;
+        }
+    }
+
+    private static void closeQuietly(MappedLedgerFile mapped)
+    {
+        try
+        {
+            mapped.close();
+        }
+        catch (IOException e)
+        {
+            log.debug("Failed to close mapped ledger", e);
+        }
+    }
+
+    private Map<Integer, Map<BankLocation, Integer>> toBalancesMap()
+    {
+        Map<Integer, Map<BankLocation, Integer>> map = new HashMap<>();
+        for (int itemId : balances.itemIds())
+        {
+            map.put(itemId, balances.toLocationMap(itemId));
+        }
+        return map;
+    }
+
+    private static void fromBalancesMap(BankLedgerStore store, Map<Integer, Map<BankLocation, Integer>> map)
+    {
+        for (Map.Entry<Integer, Map<BankLocation, Integer>> item : map.entrySet())
+        {
+            if (item.getKey() == null || item.getKey() <= 0 || item.getValue() == null)
+            {
+                continue;
+            }
+
+            for (Map.Entry<BankLocation, Integer> bank : item.getValue().entrySet())
+            {
+                if (bank.getKey() != null && bank.getValue() != null && bank.getValue() > 0)
+                {
+                    store.setQuantity(item.getKey(), bank.getKey(), bank.getValue());
+                }
+            }
+        }
+    }
+
+    private static final class LoadedLedger
+    {
+        final BankLedgerStore store;
+        final LedgerStorageMode format;
+        final MappedLedgerFile mapped;
+        final long[] shardGenerations;
+        final long snapshotGeneration;
+
+        LoadedLedger(BankLedgerStore store, LedgerStorageMode format, MappedLedgerFile mapped, long[] shardGenerations,
+                     long snapshotGeneration)
+        {
+            this.store = store;
+            this.format = format;
+            this.mapped = mapped;
+            this.shardGenerations = shardGenerations;
+            this.snapshotGeneration = snapshotGeneration;
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,641 @@
+package com.tradewinds;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Item id keyed open-addressing table whose rows are dense per-location
+ * counters indexed by {@link BankLocation#ordinal()}.
+ * <p>
+ * Measured on a 64-bit JVM with compressed oops, an item costs a flat ~390 bytes
+ * (an int[89] row plus its table slots; the location bits add 16 more) however
+ * many banks hold it, against ~230 bytes for a single-bank item in the old
+ * {@code Map<Integer, Map<BankLocation, Integer>>} layout plus ~48 bytes per
+ * extra bank. The dense rows only break even at four
+ * banks; the win is that lookups and updates never box, hash an enum or allocate.
+ * <p>
+ * Global totals per item and the number of distinct items held at each location
+ * are maintained incrementally by every write, so both are constant-time reads.
+ * <p>
+ * The store can also hold a partial ledger: {@link #beginPartial()} marks every
+ * location unloaded, {@link #putIndexEntry} adds an item's total and the set of
+ * locations holding it without a row, and {@link #loadLocation} fills in one
+ * location's quantities later. Items held only at unloaded locations cost a slot
+ * and no row.
+ */
+public class BankLedgerStore
+{
+    static final BankLocation[] LOCATIONS = BankLocation.values();
+    static final int LOCATION_COUNT = LOCATIONS.length;
+
+    private static final int EMPTY = 0;
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private int[] keys;
+    private int[][] rows;
+    private long[] totals;
+    // Bit per location holding the item; authoritative even for unloaded locations
+    private long[] lowMasks;
+    private long[] highMasks;
+    private final int[] locationItemCounts = new int[LOCATION_COUNT];
+    private final boolean[] loaded = new boolean[LOCATION_COUNT];
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    public BankLedgerStore()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public BankLedgerStore(int expectedItems)
+    {
+        allocate(tableSizeFor(expectedItems));
+        Arrays.fill(loaded, true);
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean contains(int itemId)
+    {
+        return itemId > 0 && find(itemId) >= 0;
+    }
+
+    public int getQuantity(int itemId, BankLocation location)
+    {
+        if (itemId <= 0)
+        {
+            return 0;
+        }
+
+        int slot = find(itemId);
+        return slot < 0 || rows[slot] == null ? 0 : rows[slot][location.ordinal()];
+    }
+
+    public long getTotal(int itemId)
+    {
+        if (itemId <= 0)
+        {
+            return 0;
+        }
+
+        int slot = find(itemId);
+        return slot < 0 ? 0 : totals[slot];
+    }
+
+    /**
+     * @return how many distinct items have a non-zero quantity at the location
+     */
+    public int getItemCount(BankLocation location)
+    {
+        return locationItemCounts[location.ordinal()];
+    }
+
+    /**
+     * @return true if the item has a non-zero quantity at the location, whether or
+     * not that location's quantities are loaded
+     */
+    public boolean isHeldAt(int itemId, BankLocation location)
+    {
+        if (itemId <= 0)
+        {
+            return false;
+        }
+
+        int slot = find(itemId);
+        return slot >= 0 && hasBit(slot, location.ordinal());
+    }
+
+    public boolean isLoaded(BankLocation location)
+    {
+        return loaded[location.ordinal()];
+    }
+
+    public boolean isFullyLoaded()
+    {
+        for (boolean l : loaded)
+        {
+            if (!l)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets the quantity held at a single location, dropping the item entirely once
+     * no location holds any of it.
+     *
+     * @throws IllegalStateException if the location is not loaded
+     */
+    public void setQuantity(int itemId, BankLocation location, int quantity)
+    {
+        if (itemId <= 0)
+        {
+            throw new IllegalArgumentException("Invalid item id " + itemId);
+        }
+        if (!loaded[location.ordinal()])
+        {
+            throw new IllegalStateException(location + " is not loaded");
+        }
+
+        int slot = find(itemId);
+        if (slot < 0)
+        {
+            if (quantity <= 0)
+            {
+                return;
+            }
+            slot = insert(itemId);
+        }
+
+        int column = location.ordinal();
+        int[] row = rows[slot];
+        if (row == null)
+        {
+            row = rows[slot] = new int[LOCATION_COUNT];
+        }
+        int oldQuantity = row[column];
+        int newQuantity = Math.max(0, quantity);
+        if (oldQuantity == newQuantity)
+        {
+            return;
+        }
+
+        row[column] = newQuantity;
+        totals[slot] += newQuantity - oldQuantity;
+
+        if (oldQuantity == 0)
+        {
+            setBit(slot, column);
+        }
+        else if (newQuantity == 0)
+        {
+            clearBit(slot, column);
+        }
+
+        if (totals[slot] == 0)
+        {
+            removeAt(slot);
+        }
+    }
+
+    public void remove(int itemId)
+    {
+        if (itemId <= 0)
+        {
+            return;
+        }
+
+        int slot = find(itemId);
+        if (slot < 0)
+        {
+            return;
+        }
+
+        for (int i = 0; i < LOCATION_COUNT; i++)
+        {
+            if (hasBit(slot, i))
+            {
+                locationItemCounts[i]--;
+            }
+        }
+        removeAt(slot);
+    }
+
+    /**
+     * Marks every location unloaded, ahead of filling the store from an index.
+     * Only valid on an empty store.
+     */
+    public void beginPartial()
+    {
+        if (size != 0)
+        {
+            throw new IllegalStateException("Store is not empty");
+        }
+        Arrays.fill(loaded, false);
+    }
+
+    /**
+     * Adds an item known only from an index: its total and the locations holding
+     * it, with no per-location quantities yet.
+     */
+    public void putIndexEntry(int itemId, long total, int[] locationOrdinals, int count)
+    {
+        if (itemId <= 0 || total <= 0)
+        {
+            return;
+        }
+
+        int slot = find(itemId);
+        if (slot < 0)
+        {
+            slot = insert(itemId);
+        }
+
+        totals[slot] = total;
+        for (int i = 0; i < count; i++)
+        {
+            if (!hasBit(slot, locationOrdinals[i]))
+            {
+                setBit(slot, locationOrdinals[i]);
+            }
+        }
+    }
+
+    /**
+     * Fills in one location's quantities and marks it loaded. Entries for items the
+     * index does not place at the location are stale and ignored; totals are left
+     * alone because the index already counts these quantities.
+     */
+    public void loadLocation(BankLocation location, int[] itemIds, int[] quantities, int count)
+    {
+        int column = location.ordinal();
+        if (loaded[column])
+        {
+            return;
+        }
+
+        for (int i = 0; i < count; i++)
+        {
+            int slot = itemIds[i] > 0 ? find(itemIds[i]) : -1;
+            if (slot < 0 || !hasBit(slot, column) || quantities[i] <= 0)
+            {
+                continue;
+            }
+
+            if (rows[slot] == null)
+            {
+                rows[slot] = new int[LOCATION_COUNT];
+            }
+            rows[slot][column] = quantities[i];
+        }
+        loaded[column] = true;
+    }
+
+    /**
+     * Copies every non-zero quantity at a loaded location into the given arrays,
+     * which must hold at least {@link #getItemCount} entries.
+     *
+     * @return the number of entries written
+     */
+    public int collectLocation(BankLocation location, int[] itemIds, int[] quantities)
+    {
+        int column = location.ordinal();
+        int n = 0;
+        for (int slot = 0; slot < keys.length; slot++)
+        {
+            if (keys[slot] != EMPTY && rows[slot] != null && rows[slot][column] > 0)
+            {
+                itemIds[n] = keys[slot];
+                quantities[n] = rows[slot][column];
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Writes the ordinals of every location holding the item into {@code out},
+     * which must have room for {@link #LOCATION_COUNT} entries.
+     *
+     * @return the number of ordinals written
+     */
+    public int getLocations(int itemId, int[] out)
+    {
+        int slot = itemId > 0 ? find(itemId) : -1;
+        if (slot < 0)
+        {
+            return 0;
+        }
+
+        int n = 0;
+        for (int i = 0; i < LOCATION_COUNT; i++)
+        {
+            if (hasBit(slot, i))
+            {
+                out[n++] = i;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return the non-zero quantities for an item keyed by location, or null when
+     * the item is not held anywhere
+     */
+    public Map<BankLocation, Integer> toLocationMap(int itemId)
+    {
+        if (itemId <= 0)
+        {
+            return null;
+        }
+
+        int slot = find(itemId);
+        if (slot < 0)
+        {
+            return null;
+        }
+
+        int[] row = rows[slot];
+        Map<BankLocation, Integer> perBank = new EnumMap<>(BankLocation.class);
+        for (int i = 0; row != null && i < LOCATION_COUNT; i++)
+        {
+            if (row[i] > 0)
+            {
+                perBank.put(LOCATIONS[i], row[i]);
+            }
+        }
+        return perBank;
+    }
+
+    /**
+     * @return a copy of every item id currently in the table, safe to iterate
+     * while the table is being modified
+     */
+    public int[] itemIds()
+    {
+        int[] ids = new int[size];
+        int n = 0;
+        for (int key : keys)
+        {
+            if (key != EMPTY)
+            {
+                ids[n++] = key;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return an independent copy, rows included, that can be filled in off the
+     * thread reading this one and swapped in whole
+     */
+    public BankLedgerStore copy()
+    {
+        BankLedgerStore copy = new BankLedgerStore(0);
+        copy.keys = keys.clone();
+        copy.rows = new int[rows.length][];
+        for (int i = 0; i < rows.length; i++)
+        {
+            copy.rows[i] = rows[i] != null ? rows[i].clone() : null;
+        }
+        copy.totals = totals.clone();
+        copy.lowMasks = lowMasks.clone();
+        copy.highMasks = highMasks.clone();
+        System.arraycopy(locationItemCounts, 0, copy.locationItemCounts, 0, LOCATION_COUNT);
+        System.arraycopy(loaded, 0, copy.loaded, 0, LOCATION_COUNT);
+        copy.mask = mask;
+        copy.size = size;
+        copy.resizeAt = resizeAt;
+        return copy;
+    }
+
+    public void clear()
+    {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(rows, null);
+        Arrays.fill(totals, 0);
+        Arrays.fill(lowMasks, 0);
+        Arrays.fill(highMasks, 0);
+        Arrays.fill(locationItemCounts, 0);
+        Arrays.fill(loaded, true);
+        size = 0;
+    }
+
+    /**
+     * Recounts every total and per-location item count from the rows and compares
+     * them with the incrementally maintained values. Items held at an unloaded
+     * location can only be checked for rows not exceeding their total.
+     *
+     * @throws IllegalStateException describing the first mismatch found
+     */
+    public void verifyInvariants()
+    {
+        int[] counted = new int[LOCATION_COUNT];
+        int items = 0;
+
+        for (int slot = 0; slot < keys.length; slot++)
+        {
+            if (keys[slot] == EMPTY)
+            {
+                continue;
+            }
+            items++;
+
+            long total = 0;
+            boolean complete = true;
+            int[] row = rows[slot];
+            for (int i = 0; i < LOCATION_COUNT; i++)
+            {
+                int quantity = row != null ? row[i] : 0;
+                if (quantity < 0)
+                {
+                    throw new IllegalStateException("Negative quantity for item " + keys[slot] + " at " + LOCATIONS[i]);
+                }
+                if (hasBit(slot, i))
+                {
+                    counted[i]++;
+                    complete &= loaded[i];
+                }
+                if (loaded[i] && (quantity > 0) != hasBit(slot, i))
+                {
+                    throw new IllegalStateException("Item " + keys[slot] + " location bit disagrees with quantity at " + LOCATIONS[i]);
+                }
+                total += quantity;
+            }
+
+            if (complete ? total != totals[slot] : total > totals[slot])
+            {
+                throw new IllegalStateException("Item " + keys[slot] + " cached total " + totals[slot] + " != recount " + total);
+            }
+            if (totals[slot] == 0)
+            {
+                throw new IllegalStateException("Item " + keys[slot] + " is held nowhere but still present");
+            }
+        }
+
+        if (items != size)
+        {
+            throw new IllegalStateException("Cached size " + size + " != recount " + items);
+        }
+
+        for (int i = 0; i < LOCATION_COUNT; i++)
+        {
+            if (counted[i] != locationItemCounts[i])
+            {
+                throw new IllegalStateException(LOCATIONS[i] + " cached item count " + locationItemCounts[i] + " != recount " + counted[i]);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------
+    // Open addressing internals
+    // ------------------------------------------------------------
+
+    private int find(int itemId)
+    {
+        int slot = index(itemId);
+        while (true)
+        {
+            int key = keys[slot];
+            if (key == itemId)
+            {
+                return slot;
+            }
+            if (key == EMPTY)
+            {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private int insert(int itemId)
+    {
+        if (size >= resizeAt)
+        {
+            rehash(keys.length << 1);
+        }
+
+        int slot = index(itemId);
+        while (keys[slot] != EMPTY)
+        {
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = itemId;
+        rows[slot] = null;
+        totals[slot] = 0;
+        lowMasks[slot] = 0;
+        highMasks[slot] = 0;
+        size++;
+        return slot;
+    }
+
+    private void removeAt(int slot)
+    {
+        // Backward-shift deletion keeps probe chains intact without tombstones
+        int gap = slot;
+        int i = slot;
+        while (true)
+        {
+            i = (i + 1) & mask;
+            int key = keys[i];
+            if (key == EMPTY)
+            {
+                break;
+            }
+
+            int home = index(key);
+            if (((i - home) & mask) >= ((i - gap) & mask))
+            {
+                keys[gap] = key;
+                rows[gap] = rows[i];
+                totals[gap] = totals[i];
+                lowMasks[gap] = lowMasks[i];
+                highMasks[gap] = highMasks[i];
+                gap = i;
+            }
+        }
+
+        keys[gap] = EMPTY;
+        rows[gap] = null;
+        totals[gap] = 0;
+        lowMasks[gap] = 0;
+        highMasks[gap] = 0;
+        size--;
+    }
+
+    private void rehash(int newCapacity)
+    {
+        int[] oldKeys = keys;
+        int[][] oldRows = rows;
+        long[] oldTotals = totals;
+        long[] oldLowMasks = lowMasks;
+        long[] oldHighMasks = highMasks;
+
+        allocate(newCapacity);
+
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            int key = oldKeys[i];
+            if (key == EMPTY)
+            {
+                continue;
+            }
+
+            int slot = index(key);
+            while (keys[slot] != EMPTY)
+            {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            rows[slot] = oldRows[i];
+            totals[slot] = oldTotals[i];
+            lowMasks[slot] = oldLowMasks[i];
+            highMasks[slot] = oldHighMasks[i];
+        }
+    }
+
+    private void allocate(int capacity)
+    {
+        keys = new int[capacity];
+        rows = new int[capacity][];
+        totals = new long[capacity];
+        lowMasks = new long[capacity];
+        highMasks = new long[capacity];
+        mask = capacity - 1;
+        resizeAt = capacity * 2 / 3;
+    }
+
+    private boolean hasBit(int slot, int column)
+    {
+        return column < 64
+                ? (lowMasks[slot] & (1L << column)) != 0
+                : (highMasks[slot] & (1L << (column - 64))) != 0;
+    }
+
+    private void setBit(int slot, int column)
+    {
+        if (column < 64)
+        {
+            lowMasks[slot] |= 1L << column;
+        }
+        else
+        {
+            highMasks[slot] |= 1L << (column - 64);
+        }
+        locationItemCounts[column]++;
+    }
+
+    private void clearBit(int slot, int column)
+    {
+        if (column < 64)
+        {
+            lowMasks[slot] &= ~(1L << column);
+        }
+        else
+        {
+            highMasks[slot] &= ~(1L << (column - 64));
+        }
+        locationItemCounts[column]--;
+    }
+
+    private int index(int itemId)
+    {
+        int h = itemId * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static int tableSizeFor(int expectedItems)
+    {
+        int needed = Math.max(16, expectedItems * 3 / 2 + 1);
+        return Integer.highestOneBit(needed - 1) << 1;
+    }
+}
@@ -0,0 +1,356 @@
+package com.tradewinds;
+
+import net.runelite.api.coords.WorldPoint;
+
+import java.awt.Polygon;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resolves a world position to the bank the player is standing at, from the
+ * {@code bank-locations.txt} resource.
+ * <p>
+ * The resource is compiled once into a flat table indexed by plane and region id,
+ * so most lookups are a single array read. Regions that hold more than one bank
+ * list boxes or polygons instead; their table cell points at a small refinement
+ * that tests the tile against each shape in file order before falling back to the
+ * region's whole-region entry, if any. Instances resolve through a separate table
+ * keyed by the region of the instance's template.
+ */
+public final class BankLocationResolver
+{
+    static final String RESOURCE = "bank-locations.txt";
+
+    private static final int PLANES = 4;
+    private static final int REGIONS = 1 << 16;
+    private static final int MAX_REFINEMENTS = 128;
+    private static final BankLocation[] LOCATIONS = BankLocation.values();
+
+    // 0 = no bank, n > 0 = LOCATIONS[n - 1], n < 0 = refinements[-n - 1]
+    private final byte[] regionTable = new byte[PLANES * REGIONS];
+    private final byte[] instanceTable = new byte[REGIONS];
+    private final Refinement[] refinements;
+
+    private static final class DefaultHolder
+    {
+        static final BankLocationResolver INSTANCE = fromResource();
+    }
+
+    public static BankLocationResolver getDefault()
+    {
+        return DefaultHolder.INSTANCE;
+    }
+
+    private static BankLocationResolver fromResource()
+    {
+        InputStream in = BankLocationResolver.class.getResourceAsStream(RESOURCE);
+        if (in == null)
+        {
+            throw new IllegalStateException("Missing resource " + RESOURCE);
+        }
+
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8))
+        {
+            return new BankLocationResolver(reader);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException naming the line of the first malformed entry
+     */
+    BankLocationResolver(Reader source) throws IOException
+    {
+        List<Entry> entries = parse(source);
+
+        // Whole regions first, so refinements can fall back to them
+        for (Entry entry : entries)
+        {
+            if (entry.instance)
+            {
+                claim(instanceTable, entry.region, entry);
+            }
+            else if (entry.shape == null)
+            {
+                for (int plane = 0; plane < PLANES; plane++)
+                {
+                    if (entry.plane < 0 || entry.plane == plane)
+                    {
+                        claim(regionTable, cell(plane, entry.region), entry);
+                    }
+                }
+            }
+        }
+
+        List<Refinement> compiled = new ArrayList<>();
+        for (Entry entry : entries)
+        {
+            if (entry.shape == null)
+            {
+                continue;
+            }
+
+            for (int plane = 0; plane < PLANES; plane++)
+            {
+                if (entry.plane >= 0 && entry.plane != plane)
+                {
+                    continue;
+                }
+
+                int cell = cell(plane, entry.region);
+                Refinement refinement;
+                if (regionTable[cell] < 0)
+                {
+                    refinement = compiled.get(-regionTable[cell] - 1);
+                }
+                else
+                {
+                    if (compiled.size() == MAX_REFINEMENTS)
+                    {
+                        throw new IllegalArgumentException(RESOURCE + ":" + entry.line + ": more than "
+                                + MAX_REFINEMENTS + " refined region planes");
+                    }
+
+                    refinement = new Refinement(regionTable[cell] > 0 ? LOCATIONS[regionTable[cell] - 1] : BankLocation.UNKNOWN);
+                    compiled.add(refinement);
+                    regionTable[cell] = (byte) -compiled.size();
+                }
+                refinement.add(entry.shape, entry.location);
+            }
+        }
+
+        refinements = compiled.toArray(new Refinement[0]);
+    }
+
+    public BankLocation resolve(WorldPoint wp)
+    {
+        return resolve(wp, false);
+    }
+
+    /**
+     * @param wp the player's position; inside an instance, the template position
+     * from {@code WorldPoint.fromLocalInstance}
+     * @param instanced whether the player is in an instanced region
+     */
+    public BankLocation resolve(WorldPoint wp, boolean instanced)
+    {
+        if (wp == null)
+        {
+            return BankLocation.UNKNOWN;
+        }
+
+        int region = wp.getRegionID();
+        int plane = wp.getPlane();
+        if (region < 0 || region >= REGIONS || plane < 0 || plane >= PLANES)
+        {
+            return BankLocation.UNKNOWN;
+        }
+
+        if (instanced && instanceTable[region] > 0)
+        {
+            return LOCATIONS[instanceTable[region] - 1];
+        }
+
+        byte value = regionTable[cell(plane, region)];
+        if (value > 0)
+        {
+            return LOCATIONS[value - 1];
+        }
+        if (value == 0)
+        {
+            return BankLocation.UNKNOWN;
+        }
+        return refinements[-value - 1].resolve(wp.getX(), wp.getY());
+    }
+
+    private static int cell(int plane, int region)
+    {
+        return plane << 16 | region;
+    }
+
+    private static void claim(byte[] table, int index, Entry entry)
+    {
+        byte value = (byte) (entry.location.ordinal() + 1);
+        if (table[index] != 0 && table[index] != value)
+        {
+            throw new IllegalArgumentException(RESOURCE + ":" + entry.line + ": region " + entry.region
+                    + " already belongs to " + LOCATIONS[table[index] - 1]);
+        }
+        table[index] = value;
+    }
+
+    // ------------------------------------------------------------
+    // Resource parsing
+    // ------------------------------------------------------------
+
+    private static List<Entry> parse(Reader source) throws IOException
+    {
+        List<Entry> entries = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(source);
+
+        String text;
+        int line = 0;
+        while ((text = reader.readLine()) != null)
+        {
+            line++;
+            int comment = text.indexOf('#');
+            if (comment >= 0)
+            {
+                text = text.substring(0, comment);
+            }
+
+            String[] tokens = text.trim().split("\\s+");
+            if (tokens.length == 1 && tokens[0].isEmpty())
+            {
+                continue;
+            }
+
+            try
+            {
+                entries.add(parseEntry(tokens, line));
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new IllegalArgumentException(RESOURCE + ":" + line + ": " + e.getMessage(), e);
+            }
+        }
+
+        return entries;
+    }
+
+    private static Entry parseEntry(String[] tokens, int line)
+    {
+        if (tokens.length < 3)
+        {
+            throw new IllegalArgumentException("expected LOCATION region <id> or LOCATION instance <id>");
+        }
+
+        BankLocation location = BankLocation.valueOf(tokens[0]);
+        boolean instance = tokens[1].equals("instance");
+        if (!instance && !tokens[1].equals("region"))
+        {
+            throw new IllegalArgumentException("unknown keyword " + tokens[1]);
+        }
+
+        int region = parseInt(tokens[2], 0, REGIONS - 1);
+        Entry entry = new Entry(line, location, region, instance);
+        if (instance)
+        {
+            if (tokens.length != 3)
+            {
+                throw new IllegalArgumentException("instance entries take no shape");
+            }
+            return entry;
+        }
+
+        int i = 3;
+        if (i < tokens.length && tokens[i].equals("plane"))
+        {
+            entry.plane = parseInt(tokens[i + 1], 0, PLANES - 1);
+            i += 2;
+        }
+
+        if (i == tokens.length)
+        {
+            return entry;
+        }
+
+        String kind = tokens[i++];
+        int coordinates = tokens.length - i;
+        if (kind.equals("box") && coordinates == 4)
+        {
+            int x1 = parseInt(tokens[i], 0, Integer.MAX_VALUE - 1);
+            int y1 = parseInt(tokens[i + 1], 0, Integer.MAX_VALUE - 1);
+            int x2 = parseInt(tokens[i + 2], x1, Integer.MAX_VALUE - 1);
+            int y2 = parseInt(tokens[i + 3], y1, Integer.MAX_VALUE - 1);
+            // inclusive tile box as the polygon around those tiles
+            entry.shape = new Polygon(new int[]{x1, x2 + 1, x2 + 1, x1}, new int[]{y1, y1, y2 + 1, y2 + 1}, 4);
+        }
+        else if (kind.equals("poly") && coordinates >= 6 && coordinates % 2 == 0)
+        {
+            Polygon polygon = new Polygon();
+            for (; i < tokens.length; i += 2)
+            {
+                polygon.addPoint(parseInt(tokens[i], 0, Integer.MAX_VALUE), parseInt(tokens[i + 1], 0, Integer.MAX_VALUE));
+            }
+            entry.shape = polygon;
+        }
+        else
+        {
+            throw new IllegalArgumentException("expected box x1 y1 x2 y2 or poly with at least three points");
+        }
+
+        return entry;
+    }
+
+    private static int parseInt(String token, int min, int max)
+    {
+        int value = Integer.parseInt(token);
+        if (value < min || value > max)
+        {
+            throw new IllegalArgumentException(token + " out of range");
+        }
+        return value;
+    }
+
+    private static final class Entry
+    {
+        final int line;
+        final BankLocation location;
+        final int region;
+        final boolean instance;
+        int plane = -1;
+        Polygon shape;
+
+        Entry(int line, BankLocation location, int region, boolean instance)
+        {
+            this.line = line;
+            this.location = location;
+            this.region = region;
+            this.instance = instance;
+        }
+    }
+
+    /**
+     * Shapes within one region and plane, tested against the tile's centre.
+     */
+    private static final class Refinement
+    {
+        private final BankLocation fallback;
+        private final List<Polygon> shapes = new ArrayList<>();
+        private final List<BankLocation> locations = new ArrayList<>();
+
+        Refinement(BankLocation fallback)
+        {
+            this.fallback = fallback;
+        }
+
+        void add(Polygon shape, BankLocation location)
+        {
+            shapes.add(shape);
+            locations.add(location);
+        }
+
+        BankLocation resolve(int x, int y)
+        {
+            for (int i = 0; i < shapes.size(); i++)
+            {
+                if (shapes.get(i).contains(x + 0.5, y + 0.5))
+                {
+                    return locations.get(i);
+                }
+            }
+            return fallback;
+        }
+    }
+}
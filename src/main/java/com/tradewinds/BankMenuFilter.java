@@ -0,0 +1,95 @@
+package com.tradewinds;
+
+import net.runelite.api.MenuEntry;
+import net.runelite.api.events.MenuOpened;
+import net.runelite.api.widgets.WidgetID;
+
+import java.util.Arrays;
+
+/**
+ * Strips Withdraw-X from right-click menus opened on bank items.
+ * <p>
+ * Every menu in the game passes through here, so the common case has to be free:
+ * while the bank interface is closed a menu is rejected on a single field read,
+ * and a bank menu with nothing to remove is scanned without allocating. Only a
+ * menu that actually holds Withdraw-X is compacted in place and trimmed.
+ */
+public final class BankMenuFilter
+{
+    static final String WITHDRAW_X = "Withdraw-X";
+
+    private boolean bankOpen;
+
+    public void onWidgetLoaded(int groupId)
+    {
+        if (groupId == WidgetID.BANK_GROUP_ID)
+        {
+            bankOpen = true;
+        }
+    }
+
+    public void onWidgetClosed(int groupId)
+    {
+        if (groupId == WidgetID.BANK_GROUP_ID)
+        {
+            bankOpen = false;
+        }
+    }
+
+    public boolean isBankOpen()
+    {
+        return bankOpen;
+    }
+
+    public void filter(MenuOpened event)
+    {
+        if (!bankOpen)
+        {
+            return;
+        }
+
+        MenuEntry[] entries = event.getMenuEntries();
+        if (entries == null)
+        {
+            return;
+        }
+
+        int kept = compact(entries);
+        if (kept != entries.length)
+        {
+            event.setMenuEntries(Arrays.copyOf(entries, kept));
+        }
+    }
+
+    /**
+     * Moves every entry worth keeping to the front of the array, preserving order.
+     *
+     * @return how many entries were kept; the array is untouched when that is all of them
+     */
+    static int compact(MenuEntry[] entries)
+    {
+        int kept = 0;
+        for (int i = 0; i < entries.length; i++)
+        {
+            MenuEntry entry = entries[i];
+            if (isBankWithdrawX(entry))
+            {
+                continue;
+            }
+
+            if (kept != i)
+            {
+                entries[kept] = entry;
+            }
+            kept++;
+        }
+        return kept;
+    }
+
+    private static boolean isBankWithdrawX(MenuEntry entry)
+    {
+        // Bank item widget id is stored in param1; test it before the option string
+        return entry.getParam1() >>> 16 == WidgetID.BANK_GROUP_ID
+                && WITHDRAW_X.equals(entry.getOption());
+    }
+}
@@ -0,0 +1,200 @@
+package com.tradewinds;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import net.runelite.api.Item;
+import net.runelite.api.ItemContainer;
+
+/**
+ * Everything {@link TradeWindsBankOverlay} draws for one bank view, computed once
+ * per change instead of once per slot per frame.
+ * <p>
+ * Built from the bank's items against one ledger version, bank location and
+ * config state; the overlay replaces it when any of those moves on. Apart from
+ * the label sprites, which are looked up on first draw, it is never modified
+ * after construction.
+ */
+final class BankOverlaySnapshot
+{
+    static final BankOverlaySnapshot EMPTY = empty(-1, null, -1, -1);
+
+    private final int ledgerVersion;
+    private final BankLocation location;
+    private final int configGeneration;
+    private final int bankGeneration;
+
+    // Parallel arrays sorted by item id
+    private final int[] itemIds;
+    private final String[] labels;
+    private final boolean[] dimmed;
+    private final boolean[] placeholders;
+    private final BufferedImage[] sprites;
+
+    private BankOverlaySnapshot(int ledgerVersion, BankLocation location, int configGeneration, int bankGeneration,
+                                int[] itemIds, String[] labels, boolean[] dimmed, boolean[] placeholders)
+    {
+        this.ledgerVersion = ledgerVersion;
+        this.location = location;
+        this.configGeneration = configGeneration;
+        this.bankGeneration = bankGeneration;
+        this.itemIds = itemIds;
+        this.labels = labels;
+        this.dimmed = dimmed;
+        this.placeholders = placeholders;
+        this.sprites = new BufferedImage[itemIds.length];
+    }
+
+    /**
+     * A snapshot with nothing to draw, e.g. while the overlay is turned off.
+     */
+    static BankOverlaySnapshot empty(int ledgerVersion, BankLocation location, int configGeneration, int bankGeneration)
+    {
+        return new BankOverlaySnapshot(ledgerVersion, location, configGeneration, bankGeneration,
+                new int[0], new String[0], new boolean[0], new boolean[0]);
+    }
+
+    /**
+     * @param ledgerVersion the ledger version read before building, so a change
+     * made while building leaves the snapshot stale rather than silently behind
+     */
+    static BankOverlaySnapshot build(ItemContainer bank, BankLedgerService ledger, ItemMetadataCache metadata,
+                                     int ledgerVersion, BankLocation location, int configGeneration, int bankGeneration)
+    {
+        int[] ids = distinctItemIds(bank);
+        String[] labels = new String[ids.length];
+        boolean[] dimmed = new boolean[ids.length];
+        boolean[] placeholders = new boolean[ids.length];
+
+        for (int i = 0; i < ids.length; i++)
+        {
+            int itemId = ids[i];
+            placeholders[i] = metadata.isPlaceholder(itemId);
+
+            long global = ledger.getGlobalQuantity(itemId);
+            if (placeholders[i] || global == 0)
+            {
+                continue; // nothing to show
+            }
+
+            int local = ledger.getLocalQuantity(itemId, location);
+            labels[i] = formatQuantity(local) + "/" + formatQuantity(global);
+            // Dim items with zero LOCAL storage
+            dimmed[i] = local == 0;
+        }
+
+        return new BankOverlaySnapshot(ledgerVersion, location, configGeneration, bankGeneration,
+                ids, labels, dimmed, placeholders);
+    }
+
+    boolean isCurrent(int ledgerVersion, BankLocation location, int configGeneration, int bankGeneration)
+    {
+        return this.ledgerVersion == ledgerVersion
+                && this.location == location
+                && this.configGeneration == configGeneration
+                && this.bankGeneration == bankGeneration;
+    }
+
+    /**
+     * @return the entry for the item, or -1 if the bank did not hold it
+     */
+    int indexOf(int itemId)
+    {
+        int index = Arrays.binarySearch(itemIds, itemId);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * @return the local/global label, or null if nothing should be drawn
+     */
+    String getLabel(int index)
+    {
+        return labels[index];
+    }
+
+    boolean isDimmed(int index)
+    {
+        return dimmed[index];
+    }
+
+    boolean isPlaceholder(int index)
+    {
+        return placeholders[index];
+    }
+
+    /**
+     * @return the label's pre-rendered sprite, or null if not yet looked up
+     */
+    BufferedImage getSprite(int index)
+    {
+        return sprites[index];
+    }
+
+    void setSprite(int index, BufferedImage sprite)
+    {
+        sprites[index] = sprite;
+    }
+
+    /**
+     * Forgets looked up sprites, after the overlay font changes.
+     */
+    void clearSprites()
+    {
+        Arrays.fill(sprites, null);
+    }
+
+    private static int[] distinctItemIds(ItemContainer bank)
+    {
+        if (bank == null)
+        {
+            return new int[0];
+        }
+
+        Item[] items = bank.getItems();
+        int[] ids = new int[items.length];
+        int count = 0;
+        for (Item item : items)
+        {
+            if (item != null && item.getId() > 0)
+            {
+                ids[count++] = item.getId();
+            }
+        }
+
+        Arrays.sort(ids, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (distinct == 0 || ids[distinct - 1] != ids[i])
+            {
+                ids[distinct++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(ids, distinct);
+    }
+
+    // -------- quantity formatting K/M/B ----------
+    static String formatQuantity(long qty)
+    {
+        if (qty >= 1_000_000_000L)
+        {
+            return trimZero(String.format("%.1fB", qty / 1_000_000_000.0));
+        }
+        else if (qty >= 1_000_000L)
+        {
+            return trimZero(String.format("%.1fM", qty / 1_000_000.0));
+        }
+        else if (qty >= 1_000L)
+        {
+            return trimZero(String.format("%.1fK", qty / 1_000.0));
+        }
+
+        return Long.toString(qty);
+    }
+
+    private static String trimZero(String s)
+    {
+        // "1.0K" -> "1K"
+        return s.replace(".0", "");
+    }
+}
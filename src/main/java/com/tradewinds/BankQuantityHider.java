@@ -0,0 +1,132 @@
+package com.tradewinds;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import net.runelite.api.Client;
+import net.runelite.api.ScriptID;
+import net.runelite.api.events.ScriptPostFired;
+import net.runelite.api.widgets.ItemQuantityMode;
+import net.runelite.api.widgets.Widget;
+import net.runelite.api.widgets.WidgetInfo;
+import net.runelite.client.callback.ClientThread;
+import net.runelite.client.eventbus.Subscribe;
+import net.runelite.client.events.ConfigChanged;
+
+/**
+ * Hides the vanilla yellow stack numbers in the bank while the local/global
+ * overlay draws its own, and puts them back when it stops.
+ * <p>
+ * The bank script lays out every item widget, quantity mode included, each time
+ * the bank is built, so the widgets are only walked once the build has finished
+ * rather than on every frame.
+ */
+@Singleton
+public class BankQuantityHider
+{
+    private final Client client;
+    private final ClientThread clientThread;
+    private final TradeWindsConfig config;
+
+    // What the bank script set before we hid it, to restore exactly that
+    private ItemQuantityMode vanillaMode = ItemQuantityMode.ALWAYS;
+
+    @Inject
+    public BankQuantityHider(Client client, ClientThread clientThread, TradeWindsConfig config)
+    {
+        this.client = client;
+        this.clientThread = clientThread;
+        this.config = config;
+    }
+
+    @Subscribe
+    public void onScriptPostFired(ScriptPostFired event)
+    {
+        if (event.getScriptId() == ScriptID.BANKMAIN_BUILD && isEnabled())
+        {
+            hide();
+        }
+    }
+
+    @Subscribe
+    public void onConfigChanged(ConfigChanged event)
+    {
+        if (!TradeWindsConfig.GROUP.equals(event.getGroup()))
+        {
+            return;
+        }
+
+        // Config changes arrive off the client thread; widgets may only be touched on it
+        clientThread.invoke(() ->
+        {
+            if (isEnabled())
+            {
+                hide();
+            }
+            else
+            {
+                restore();
+            }
+        });
+    }
+
+    /**
+     * Shows the vanilla quantities again. Must be called on the client thread.
+     */
+    public void restore()
+    {
+        Widget[] children = bankItems();
+        if (children == null)
+        {
+            return;
+        }
+
+        for (Widget child : children)
+        {
+            if (child.getItemId() > 0 && child.getItemQuantityMode() == ItemQuantityMode.NEVER)
+            {
+                child.setItemQuantityMode(vanillaMode);
+            }
+        }
+    }
+
+    private boolean isEnabled()
+    {
+        return config.enableLocalBanks() && config.showLocalGlobal();
+    }
+
+    private void hide()
+    {
+        Widget[] children = bankItems();
+        if (children == null)
+        {
+            return;
+        }
+
+        for (Widget child : children)
+        {
+            // Only touch real items
+            if (child.getItemId() <= 0)
+            {
+                continue;
+            }
+
+            ItemQuantityMode mode = child.getItemQuantityMode();
+            if (mode != ItemQuantityMode.NEVER)
+            {
+                vanillaMode = mode;
+                child.setItemQuantityMode(ItemQuantityMode.NEVER);
+            }
+        }
+    }
+
+    private Widget[] bankItems()
+    {
+        Widget container = client.getWidget(WidgetInfo.BANK_ITEM_CONTAINER);
+        if (container == null)
+        {
+            return null; // bank not open
+        }
+        return container.getDynamicChildren();
+    }
+}
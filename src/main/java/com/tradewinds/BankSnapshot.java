@@ -0,0 +1,77 @@
+package com.tradewinds;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+
+import net.runelite.api.Item;
+
+/**
+ * Aggregated bank container contents held as parallel primitive arrays sorted by
+ * item id, so two consecutive snapshots can be diffed in one merge pass. The
+ * arrays are reused between captures and only grow.
+ */
+public class BankSnapshot
+{
+    private long[] packed = new long[0];
+
+    @Getter
+    private int[] itemIds = new int[0];
+    @Getter
+    private long[] totals = new long[0];
+    private int size;
+
+    public void capture(Item[] items)
+    {
+        if (packed.length < items.length)
+        {
+            packed = new long[items.length];
+        }
+
+        // item id in the high word, quantity in the low word, so sorting the longs
+        // groups every slot holding the same item
+        int n = 0;
+        for (Item item : items)
+        {
+            if (item.getId() > 0 && item.getQuantity() > 0)
+            {
+                packed[n++] = ((long) item.getId() << 32) | item.getQuantity();
+            }
+        }
+        Arrays.sort(packed, 0, n);
+
+        if (itemIds.length < n)
+        {
+            itemIds = new int[n];
+            totals = new long[n];
+        }
+
+        size = 0;
+        for (int i = 0; i < n; i++)
+        {
+            int id = (int) (packed[i] >>> 32);
+            int qty = (int) packed[i];
+
+            if (size > 0 && itemIds[size - 1] == id)
+            {
+                totals[size - 1] += qty;
+            }
+            else
+            {
+                itemIds[size] = id;
+                totals[size] = qty;
+                size++;
+            }
+        }
+    }
+
+    public void clear()
+    {
+        size = 0;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+}
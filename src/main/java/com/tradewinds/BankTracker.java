@@ -5,12 +5,9 @@ import lombok.extern.slf4j.Slf4j;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
-import java.util.HashMap;
-import java.util.Map;
 
 import net.runelite.api.Client;
 import net.runelite.api.InventoryID;
-import net.runelite.api.Item;
 import net.runelite.api.ItemContainer;
 import net.runelite.api.coords.WorldPoint;
 import net.runelite.api.events.ItemContainerChanged;
@@ -28,6 +25,16 @@ public class BankTracker
     @Getter
     private BankLocation currentBankLocation;
 
+    // Last reconciled bank contents; only valid while the ledger generation matches
+    private BankSnapshot previousSnapshot = new BankSnapshot();
+    private BankSnapshot currentSnapshot = new BankSnapshot();
+    private boolean snapshotValid;
+    private int snapshotGeneration;
+
+    // Output of diffSnapshots, reused between reconciles
+    int[] changedIds = new int[0];
+    long[] changedTotals = new long[0];
+
     @Inject
     public BankTracker(Client client, TradeWindsConfig config, BankLedgerService bankLedgerService)
     {
@@ -40,19 +47,50 @@ public class BankTracker
     {
         if (event.getGroupId() == WidgetID.BANK_GROUP_ID && client.getLocalPlayer() != null)
         {
-            WorldPoint wp = client.getLocalPlayer().getWorldLocation();
-            int region = wp.getRegionID();
+            boolean instanced = client.isInInstancedRegion();
+            bankOpened(playerTile(instanced), instanced);
+        }
+    }
 
-            currentBankLocation = BankLocation.fromWorldPoint(wp);
-            log.info("Bank opened at location: {} (region {}) world ({}, {})",
-                    currentBankLocation, region, wp.getX(), wp.getY());
+    /**
+     * The tile the bank is resolved by: where the player stands, or inside an
+     * instance the tile it was copied from.
+     */
+    WorldPoint playerTile(boolean instanced)
+    {
+        WorldPoint wp = client.getLocalPlayer().getWorldLocation();
+        if (instanced)
+        {
+            WorldPoint template = WorldPoint.fromLocalInstance(client, client.getLocalPlayer().getLocalLocation());
+            if (template != null)
+            {
+                wp = template;
+            }
         }
+        return wp;
+    }
+
+    /**
+     * Switches to the bank at a tile. Also the entry point for replaying a recorded
+     * bank open, which has no client to ask where the player was.
+     */
+    void bankOpened(WorldPoint wp, boolean instanced)
+    {
+        int region = wp.getRegionID();
+
+        currentBankLocation = BankLocation.fromWorldPoint(wp, instanced);
+        snapshotValid = false;
+        bankLedgerService.refreshSharedLedger();
+        bankLedgerService.prepareLocation(currentBankLocation);
+        log.info("Bank opened at location: {} (region {}) world ({}, {})",
+                currentBankLocation, region, wp.getX(), wp.getY());
     }
 
     public void handleItemContainerChanged(ItemContainerChanged event)
     {
         if (!config.enableLocalBanks())
         {
+            snapshotValid = false;
             return;
         }
 
@@ -61,23 +99,126 @@ public class BankTracker
             return;
         }
 
-        ItemContainer container = event.getItemContainer();
+        reconcile(event.getItemContainer());
+    }
+
+    /**
+     * Reconciles the bank as it stands now. Used once a ledger load or a location's
+     * shard load completes, to catch up on bank changes deferred while it was loading.
+     */
+    public void reconcileCurrentBank()
+    {
+        if (config.enableLocalBanks())
+        {
+            reconcile(client.getItemContainer(InventoryID.BANK));
+        }
+    }
+
+    private void reconcile(ItemContainer container)
+    {
         if (container == null || currentBankLocation == null)
         {
             return;
         }
 
-        Map<Integer, Integer> newGlobalTotals = new HashMap<>();
-        for (Item item : container.getItems())
+        if (!bankLedgerService.isReady())
         {
-            if (item.getId() > 0)
+            // Deferred until the load completes and calls reconcileCurrentBank
+            snapshotValid = false;
+            return;
+        }
+
+        currentSnapshot.capture(container.getItems());
+
+        boolean reconciled;
+        if (snapshotValid && snapshotGeneration == bankLedgerService.getGeneration())
+        {
+            int changed = diffSnapshots(previousSnapshot, currentSnapshot);
+            reconciled = changed == 0
+                    || bankLedgerService.reconcileChanges(currentBankLocation, changedIds, changedTotals, changed);
+        }
+        else
+        {
+            reconciled = bankLedgerService.reconcileSnapshot(currentBankLocation,
+                    currentSnapshot.getItemIds(), currentSnapshot.getTotals(), currentSnapshot.size());
+        }
+
+        if (!reconciled)
+        {
+            // The ledger never saw this bank; the next reconcile must compare it whole.
+            // Deferred until the location's shard is in and calls reconcileCurrentBank
+            snapshotValid = false;
+            return;
+        }
+
+        BankSnapshot swap = previousSnapshot;
+        previousSnapshot = currentSnapshot;
+        currentSnapshot = swap;
+        snapshotValid = true;
+        snapshotGeneration = bankLedgerService.getGeneration();
+
+        if (config.debugMode())
+        {
+            bankLedgerService.verifyInvariants();
+        }
+
+        bankLedgerService.requestSave();
+    }
+
+    /**
+     * Merges two sorted snapshots into {@link #changedIds}/{@link #changedTotals},
+     * recording the new bank total of every item whose total differs.
+     *
+     * @return the number of changed items
+     */
+    int diffSnapshots(BankSnapshot before, BankSnapshot after)
+    {
+        int capacity = before.size() + after.size();
+        if (changedIds.length < capacity)
+        {
+            changedIds = new int[capacity];
+            changedTotals = new long[capacity];
+        }
+
+        int[] beforeIds = before.getItemIds();
+        long[] beforeTotals = before.getTotals();
+        int[] afterIds = after.getItemIds();
+        long[] afterTotals = after.getTotals();
+
+        int i = 0;
+        int j = 0;
+        int changed = 0;
+        while (i < before.size() || j < after.size())
+        {
+            int beforeId = i < before.size() ? beforeIds[i] : Integer.MAX_VALUE;
+            int afterId = j < after.size() ? afterIds[j] : Integer.MAX_VALUE;
+
+            if (beforeId == afterId)
+            {
+                if (beforeTotals[i] != afterTotals[j])
+                {
+                    changedIds[changed] = afterId;
+                    changedTotals[changed++] = afterTotals[j];
+                }
+                i++;
+                j++;
+            }
+            else if (beforeId < afterId)
+            {
+                // withdrawn completely
+                changedIds[changed] = beforeId;
+                changedTotals[changed++] = 0;
+                i++;
+            }
+            else
             {
-                newGlobalTotals.merge(item.getId(), item.getQuantity(), Integer::sum);
+                changedIds[changed] = afterId;
+                changedTotals[changed++] = afterTotals[j];
+                j++;
             }
         }
 
-        bankLedgerService.reconcileWithGlobalTotals(currentBankLocation, newGlobalTotals);
-        bankLedgerService.saveBalances();
+        return changed;
     }
 
     public boolean hasKnownBankLocation()
@@ -93,5 +234,8 @@ public class BankTracker
     public void reset()
     {
         currentBankLocation = null;
+        snapshotValid = false;
+        previousSnapshot.clear();
+        currentSnapshot.clear();
     }
 }
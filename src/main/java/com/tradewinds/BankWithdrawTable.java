@@ -0,0 +1,161 @@
+package com.tradewinds;
+
+import net.runelite.api.Item;
+import net.runelite.api.ItemContainer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What each bank slot may withdraw at the current bank, precomputed from the
+ * ledger whenever the bank contents, the bank location or the ledger change.
+ * <p>
+ * Menu entries are built every frame the player hovers an item, so both building
+ * and clicking an entry must stay cheap: withdraw option text is decoded once and
+ * remembered, and a decision is then one slot lookup.
+ */
+final class BankWithdrawTable
+{
+    /** Option is not a withdraw. Positive codes are a fixed amount. */
+    static final int NOT_WITHDRAW = 0;
+    static final int ALL = -1;
+    static final int ALL_BUT_ONE = -2;
+    static final int X = -3;
+
+    private static final String WITHDRAW_PREFIX = "Withdraw-";
+    // Distinct withdraw options are few, but a custom X amount adds one each time it changes
+    private static final int MAX_CACHED_OPTIONS = 64;
+
+    private final Map<String, Integer> optionCodes = new HashMap<>();
+
+    private int[] itemIds = new int[0];
+    private int[] localQuantities = new int[0];
+    // Whether this bank holds the item's whole stack, so All, All-but-1 and X are safe
+    private boolean[] wholeStack = new boolean[0];
+    private int size;
+
+    private boolean valid;
+    private BankLocation location;
+    private int ledgerVersion;
+
+    boolean isCurrent(BankLocation location, int ledgerVersion)
+    {
+        return valid && this.location == location && this.ledgerVersion == ledgerVersion;
+    }
+
+    void rebuild(ItemContainer bank, BankLocation location, BankLedgerService ledger)
+    {
+        this.location = location;
+        this.ledgerVersion = ledger.getVersion();
+        this.valid = true;
+
+        Item[] items = bank == null ? new Item[0] : bank.getItems();
+        if (itemIds.length < items.length)
+        {
+            itemIds = new int[items.length];
+            localQuantities = new int[items.length];
+            wholeStack = new boolean[items.length];
+        }
+        size = items.length;
+
+        for (int slot = 0; slot < size; slot++)
+        {
+            Item item = items[slot];
+            int itemId = item == null ? -1 : item.getId();
+            itemIds[slot] = itemId;
+
+            if (itemId <= 0)
+            {
+                localQuantities[slot] = 0;
+                wholeStack[slot] = false;
+                continue;
+            }
+
+            int local = ledger.getLocalQuantity(itemId, location);
+            localQuantities[slot] = local;
+            wholeStack[slot] = ledger.getGlobalQuantity(itemId) <= local;
+        }
+    }
+
+    /**
+     * @return whether the table was built from a bank holding this item in this slot
+     */
+    boolean holds(int slot, int itemId)
+    {
+        return slot >= 0 && slot < size && itemIds[slot] == itemId;
+    }
+
+    int getLocalQuantity(int slot)
+    {
+        return localQuantities[slot];
+    }
+
+    /**
+     * @param code an option code from {@link #decodeOption}
+     */
+    boolean allows(int slot, int code)
+    {
+        int local = localQuantities[slot];
+        if (local <= 0)
+        {
+            return false;
+        }
+
+        if (code > 0)
+        {
+            return code <= local;
+        }
+        return wholeStack[slot];
+    }
+
+    /**
+     * @return {@link #NOT_WITHDRAW}, a fixed amount, or {@link #ALL}, {@link #ALL_BUT_ONE} or {@link #X}
+     */
+    int decodeOption(String option)
+    {
+        if (option == null || !option.startsWith(WITHDRAW_PREFIX))
+        {
+            return NOT_WITHDRAW;
+        }
+
+        Integer cached = optionCodes.get(option);
+        if (cached != null)
+        {
+            return cached;
+        }
+
+        int code = parseOption(option.substring(WITHDRAW_PREFIX.length()));
+        if (optionCodes.size() >= MAX_CACHED_OPTIONS)
+        {
+            optionCodes.clear();
+        }
+        optionCodes.put(option, code);
+        return code;
+    }
+
+    private static int parseOption(String suffix)
+    {
+        switch (suffix)
+        {
+            case "All":
+                return ALL;
+            case "All-but-1":
+                return ALL_BUT_ONE;
+            case "X":
+                return X;
+            default:
+                break;
+        }
+
+        // "Withdraw-1", "Withdraw-5", "Withdraw-10", and "Withdraw-100,000" once X is set
+        try
+        {
+            int amount = Integer.parseInt(suffix.replace(",", ""));
+            return amount > 0 ? amount : NOT_WITHDRAW;
+        }
+        catch (NumberFormatException e)
+        {
+            return NOT_WITHDRAW;
+        }
+    }
+}
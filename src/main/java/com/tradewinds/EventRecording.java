@@ -0,0 +1,703 @@
+package com.tradewinds;
+
+import net.runelite.api.Item;
+import net.runelite.api.MenuEntry;
+import net.runelite.api.coords.WorldPoint;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Compact binary encoding of a recorded session's bank and menu events.
+ *
+ * <pre>
+ * header   4 byte magic 0x89 'T' 'W' 'E', 1 byte version, 8 byte start time (epoch ms)
+ * record   1 byte type, zigzag varint game tick delta, varint microseconds since
+ *          the previous record, then by type:
+ *   CONFIG            1 byte of FLAG_* bits
+ *   WIDGET_LOADED     varint group id, 1 byte tile kind (0 none, 1 world, 2 instance
+ *                     template), with a tile: zigzag x, zigzag y, varint plane
+ *   WIDGET_CLOSED     varint group id
+ *   CONTAINER(_STATE) varint container id, varint size, varint changed slot count,
+ *                     per slot: varint slot, zigzag item id, varint quantity
+ *   MENU_ENTRY_ADDED  entry
+ *   MENU_OPENED       varint entry count, entries
+ *   MENU_CLICKED      entry
+ *   LEDGER_LOADED     varint length, the ledger in {@link BankDataCodec} format
+ *   LOGGED_OUT        nothing
+ * entry    varint ring slot + 1 for one of the last {@value #ENTRY_RING} new entries,
+ *          or 0 and then: string option, string target, zigzag menu action id,
+ *          zigzag identifier, param0, param1 and item id
+ * string   varint 0 for null, 1 for a literal (varint length + UTF-8), otherwise
+ *          the index + 2 of an earlier literal
+ * </pre>
+ *
+ * Containers are written as the slots that changed since the last record for the
+ * same container; slots past the previous size count as empty. The client rebuilds
+ * the same menu every frame, so most entries are a one byte ring reference. A
+ * recording ends wherever the writer stopped; a torn last record is dropped.
+ */
+public final class EventRecording
+{
+    static final int MAGIC = 0x89545745;
+    static final byte VERSION = 1;
+
+    static final byte CONFIG = 1;
+    static final byte WIDGET_LOADED = 2;
+    static final byte WIDGET_CLOSED = 3;
+    static final byte CONTAINER = 4;
+    // A container as it stood when recording started; replayed without an event
+    static final byte CONTAINER_STATE = 5;
+    static final byte MENU_ENTRY_ADDED = 6;
+    static final byte MENU_OPENED = 7;
+    static final byte MENU_CLICKED = 8;
+    static final byte LEDGER_LOADED = 9;
+    static final byte LOGGED_OUT = 10;
+
+    static final int FLAG_LOCAL_BANKS = 1;
+    static final int FLAG_RESTRICT_TELEPORTS = 1 << 1;
+    static final int FLAG_DISABLE_GE = 1 << 2;
+    static final int FLAG_DEBUG = 1 << 3;
+
+    static final int TILE_NONE = 0;
+    static final int TILE_WORLD = 1;
+    static final int TILE_INSTANCE = 2;
+
+    static final int ENTRY_RING = 64;
+    // Player names and the like would grow the table without bound
+    static final int MAX_STRINGS = 4096;
+
+    private static final int EMPTY_ITEM = -1;
+
+    private EventRecording()
+    {
+    }
+
+    static int flagsOf(TradeWindsConfig config)
+    {
+        return (config.enableLocalBanks() ? FLAG_LOCAL_BANKS : 0)
+                | (config.restrictTeleports() ? FLAG_RESTRICT_TELEPORTS : 0)
+                | (config.disableGE() ? FLAG_DISABLE_GE : 0)
+                | (config.debugMode() ? FLAG_DEBUG : 0);
+    }
+
+    /**
+     * Reads a whole recording into memory.
+     */
+    public static Recording read(InputStream stream) throws IOException
+    {
+        Decoder decoder = new Decoder(new DataInputStream(new BufferedInputStream(stream)));
+        return decoder.read();
+    }
+
+    // ------------------------------------------------------------
+    // Decoded form
+    // ------------------------------------------------------------
+
+    public static final class Recording
+    {
+        private final long startMillis;
+        private final List<Record> records;
+        private final boolean truncated;
+
+        Recording(long startMillis, List<Record> records, boolean truncated)
+        {
+            this.startMillis = startMillis;
+            this.records = records;
+            this.truncated = truncated;
+        }
+
+        public long getStartMillis()
+        {
+            return startMillis;
+        }
+
+        public List<Record> getRecords()
+        {
+            return records;
+        }
+
+        /**
+         * @return true if the file ended part way through a record
+         */
+        public boolean isTruncated()
+        {
+            return truncated;
+        }
+    }
+
+    /**
+     * One recorded event. Only the fields of its type are set.
+     */
+    public static final class Record
+    {
+        final byte type;
+        final int tick;
+        final long micros;
+
+        int flags;
+        int groupId;
+        WorldPoint tile;
+        boolean instanced;
+
+        int containerId;
+        int size;
+        int[] slots;
+        int[] itemIds;
+        int[] quantities;
+
+        Entry[] entries;
+        byte[] ledger;
+
+        Record(byte type, int tick, long micros)
+        {
+            this.type = type;
+            this.tick = tick;
+            this.micros = micros;
+        }
+
+        public byte getType()
+        {
+            return type;
+        }
+
+        /**
+         * @return microseconds since the recording started
+         */
+        public long getMicros()
+        {
+            return micros;
+        }
+    }
+
+    /**
+     * The parts of a menu entry TradeWinds reads.
+     */
+    public static final class Entry
+    {
+        final String option;
+        final String target;
+        final int type;
+        final int identifier;
+        final int param0;
+        final int param1;
+        final int itemId;
+
+        Entry(String option, String target, int type, int identifier, int param0, int param1, int itemId)
+        {
+            this.option = option;
+            this.target = target;
+            this.type = type;
+            this.identifier = identifier;
+            this.param0 = param0;
+            this.param1 = param1;
+            this.itemId = itemId;
+        }
+
+        boolean matches(MenuEntry entry)
+        {
+            return identifier == entry.getIdentifier()
+                    && param0 == entry.getParam0()
+                    && param1 == entry.getParam1()
+                    && itemId == entry.getItemId()
+                    && type == entry.getType().getId()
+                    && Objects.equals(option, entry.getOption())
+                    && Objects.equals(target, entry.getTarget());
+        }
+    }
+
+    // ------------------------------------------------------------
+    // Encoding, on the client thread
+    // ------------------------------------------------------------
+
+    /**
+     * Appends records to a growable buffer. The string table, entry ring and
+     * container contents carry over {@link #drain()}, so drained chunks must be
+     * written out in order.
+     */
+    static final class Encoder
+    {
+        private byte[] buffer = new byte[8192];
+        private int size;
+
+        private int lastTick;
+        private long lastMicros;
+
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Entry[] ring = new Entry[ENTRY_RING];
+        private int ringNext;
+
+        private final Map<Integer, ContainerContents> containers = new HashMap<>();
+
+        void header(long startMillis, long nanos)
+        {
+            putInt(MAGIC);
+            put(VERSION);
+            putLong(startMillis);
+            lastMicros = nanos / 1_000;
+        }
+
+        void config(int tick, long nanos, int flags)
+        {
+            begin(CONFIG, tick, nanos);
+            put((byte) flags);
+        }
+
+        /**
+         * @param tile the player's tile, or its instance template; null if there is no player
+         */
+        void widgetLoaded(int tick, long nanos, int groupId, WorldPoint tile, boolean instanced)
+        {
+            begin(WIDGET_LOADED, tick, nanos);
+            putVarInt(groupId);
+            if (tile == null)
+            {
+                put((byte) TILE_NONE);
+                return;
+            }
+
+            put((byte) (instanced ? TILE_INSTANCE : TILE_WORLD));
+            putZigZag(tile.getX());
+            putZigZag(tile.getY());
+            putVarInt(tile.getPlane());
+        }
+
+        void widgetClosed(int tick, long nanos, int groupId)
+        {
+            begin(WIDGET_CLOSED, tick, nanos);
+            putVarInt(groupId);
+        }
+
+        void container(int tick, long nanos, boolean state, int containerId, Item[] items)
+        {
+            ContainerContents previous = containers.computeIfAbsent(containerId, k -> new ContainerContents());
+            int count = items.length;
+
+            int changed = 0;
+            for (int slot = 0; slot < count; slot++)
+            {
+                if (previous.differs(slot, items[slot]))
+                {
+                    changed++;
+                }
+            }
+
+            begin(state ? CONTAINER_STATE : CONTAINER, tick, nanos);
+            putVarInt(containerId);
+            putVarInt(count);
+            putVarInt(changed);
+            for (int slot = 0; slot < count; slot++)
+            {
+                Item item = items[slot];
+                if (previous.differs(slot, item))
+                {
+                    putVarInt(slot);
+                    putZigZag(item.getId());
+                    putVarInt(item.getQuantity());
+                }
+            }
+            previous.capture(items);
+        }
+
+        void menuEntryAdded(int tick, long nanos, MenuEntry entry)
+        {
+            begin(MENU_ENTRY_ADDED, tick, nanos);
+            putEntry(entry);
+        }
+
+        void menuOpened(int tick, long nanos, MenuEntry[] entries)
+        {
+            begin(MENU_OPENED, tick, nanos);
+            putVarInt(entries.length);
+            for (MenuEntry entry : entries)
+            {
+                putEntry(entry);
+            }
+        }
+
+        void menuClicked(int tick, long nanos, MenuEntry entry)
+        {
+            begin(MENU_CLICKED, tick, nanos);
+            putEntry(entry);
+        }
+
+        void ledgerLoaded(int tick, long nanos, byte[] ledger)
+        {
+            begin(LEDGER_LOADED, tick, nanos);
+            putVarInt(ledger.length);
+            ensure(ledger.length);
+            System.arraycopy(ledger, 0, buffer, size, ledger.length);
+            size += ledger.length;
+        }
+
+        void loggedOut(int tick, long nanos)
+        {
+            begin(LOGGED_OUT, tick, nanos);
+        }
+
+        int size()
+        {
+            return size;
+        }
+
+        /**
+         * @return the bytes buffered since the last drain, which are then forgotten
+         */
+        byte[] drain()
+        {
+            byte[] chunk = Arrays.copyOf(buffer, size);
+            size = 0;
+            return chunk;
+        }
+
+        private void begin(byte type, int tick, long nanos)
+        {
+            long micros = nanos / 1_000;
+            put(type);
+            putZigZag(tick - lastTick);
+            // nanoTime is monotonic, but never trust it to be
+            putVarLong(Math.max(0, micros - lastMicros));
+            lastTick = tick;
+            lastMicros = Math.max(lastMicros, micros);
+        }
+
+        private void putEntry(MenuEntry entry)
+        {
+            for (int i = 0; i < ENTRY_RING; i++)
+            {
+                Entry known = ring[i];
+                if (known != null && known.matches(entry))
+                {
+                    putVarInt(i + 1);
+                    return;
+                }
+            }
+
+            ring[ringNext] = new Entry(entry.getOption(), entry.getTarget(), entry.getType().getId(),
+                    entry.getIdentifier(), entry.getParam0(), entry.getParam1(), entry.getItemId());
+            ringNext = (ringNext + 1) % ENTRY_RING;
+
+            putVarInt(0);
+            putString(entry.getOption());
+            putString(entry.getTarget());
+            putZigZag(entry.getType().getId());
+            putZigZag(entry.getIdentifier());
+            putZigZag(entry.getParam0());
+            putZigZag(entry.getParam1());
+            putZigZag(entry.getItemId());
+        }
+
+        private void putString(String value)
+        {
+            if (value == null)
+            {
+                putVarInt(0);
+                return;
+            }
+
+            Integer index = strings.get(value);
+            if (index != null)
+            {
+                putVarInt(index + 2);
+                return;
+            }
+
+            if (strings.size() < MAX_STRINGS)
+            {
+                strings.put(value, strings.size());
+            }
+
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putVarInt(1);
+            putVarInt(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        private void put(byte b)
+        {
+            ensure(1);
+            buffer[size++] = b;
+        }
+
+        private void putInt(int value)
+        {
+            put((byte) (value >>> 24));
+            put((byte) (value >>> 16));
+            put((byte) (value >>> 8));
+            put((byte) value);
+        }
+
+        private void putLong(long value)
+        {
+            putInt((int) (value >>> 32));
+            putInt((int) value);
+        }
+
+        private void putVarInt(int value)
+        {
+            putVarLong(value & 0xFFFF_FFFFL);
+        }
+
+        private void putZigZag(int value)
+        {
+            putVarInt(value << 1 ^ value >> 31);
+        }
+
+        private void putVarLong(long value)
+        {
+            ensure(10);
+            while ((value & ~0x7FL) != 0)
+            {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        private void ensure(int bytes)
+        {
+            if (size + bytes > buffer.length)
+            {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + bytes));
+            }
+        }
+    }
+
+    /**
+     * A container's slots as last written, to diff the next change against.
+     */
+    private static final class ContainerContents
+    {
+        private int[] itemIds = new int[0];
+        private int[] quantities = new int[0];
+        private int size;
+
+        boolean differs(int slot, Item item)
+        {
+            int itemId = slot < size ? itemIds[slot] : EMPTY_ITEM;
+            int quantity = slot < size ? quantities[slot] : 0;
+            return item.getId() != itemId || item.getQuantity() != quantity;
+        }
+
+        void capture(Item[] items)
+        {
+            if (itemIds.length < items.length)
+            {
+                itemIds = new int[items.length];
+                quantities = new int[items.length];
+            }
+
+            for (int slot = 0; slot < items.length; slot++)
+            {
+                itemIds[slot] = items[slot].getId();
+                quantities[slot] = items[slot].getQuantity();
+            }
+            size = items.length;
+        }
+    }
+
+    // ------------------------------------------------------------
+    // Decoding, for the replayer
+    // ------------------------------------------------------------
+
+    private static final class Decoder
+    {
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+        private final Entry[] ring = new Entry[ENTRY_RING];
+        private int ringNext;
+
+        private int tick;
+        private long micros;
+
+        Decoder(DataInputStream in)
+        {
+            this.in = in;
+        }
+
+        Recording read() throws IOException
+        {
+            if (in.readInt() != MAGIC)
+            {
+                throw new IOException("Not a TradeWinds event recording");
+            }
+
+            int version = in.readByte() & 0xFF;
+            if (version != VERSION)
+            {
+                throw new IOException("Unsupported recording version " + version);
+            }
+            long startMillis = in.readLong();
+
+            List<Record> records = new ArrayList<>();
+            while (true)
+            {
+                int type = in.read();
+                if (type < 0)
+                {
+                    return new Recording(startMillis, records, false);
+                }
+
+                try
+                {
+                    records.add(readRecord((byte) type));
+                }
+                catch (EOFException e)
+                {
+                    return new Recording(startMillis, records, true);
+                }
+            }
+        }
+
+        private Record readRecord(byte type) throws IOException
+        {
+            tick += getZigZag();
+            micros += getVarLong();
+            Record record = new Record(type, tick, micros);
+
+            switch (type)
+            {
+                case CONFIG:
+                    record.flags = in.readByte() & 0xFF;
+                    break;
+                case WIDGET_LOADED:
+                    record.groupId = getVarInt();
+                    int tileKind = in.readByte();
+                    if (tileKind != TILE_NONE)
+                    {
+                        int x = getZigZag();
+                        int y = getZigZag();
+                        record.tile = new WorldPoint(x, y, getVarInt());
+                        record.instanced = tileKind == TILE_INSTANCE;
+                    }
+                    break;
+                case WIDGET_CLOSED:
+                    record.groupId = getVarInt();
+                    break;
+                case CONTAINER:
+                case CONTAINER_STATE:
+                    readContainer(record);
+                    break;
+                case MENU_ENTRY_ADDED:
+                case MENU_CLICKED:
+                    record.entries = new Entry[]{getEntry()};
+                    break;
+                case MENU_OPENED:
+                    record.entries = new Entry[getVarInt()];
+                    for (int i = 0; i < record.entries.length; i++)
+                    {
+                        record.entries[i] = getEntry();
+                    }
+                    break;
+                case LEDGER_LOADED:
+                    record.ledger = new byte[getVarInt()];
+                    in.readFully(record.ledger);
+                    break;
+                case LOGGED_OUT:
+                    break;
+                default:
+                    throw new IOException("Unknown record type " + type);
+            }
+            return record;
+        }
+
+        private void readContainer(Record record) throws IOException
+        {
+            record.containerId = getVarInt();
+            record.size = getVarInt();
+            int changed = getVarInt();
+            record.slots = new int[changed];
+            record.itemIds = new int[changed];
+            record.quantities = new int[changed];
+            for (int i = 0; i < changed; i++)
+            {
+                record.slots[i] = getVarInt();
+                record.itemIds[i] = getZigZag();
+                record.quantities[i] = getVarInt();
+            }
+        }
+
+        private Entry getEntry() throws IOException
+        {
+            int ref = getVarInt();
+            if (ref > 0)
+            {
+                if (ref > ENTRY_RING || ring[ref - 1] == null)
+                {
+                    throw new IOException("Menu entry reference " + ref + " out of range");
+                }
+                return ring[ref - 1];
+            }
+
+            Entry entry = new Entry(getString(), getString(), getZigZag(), getZigZag(), getZigZag(), getZigZag(),
+                    getZigZag());
+            ring[ringNext] = entry;
+            ringNext = (ringNext + 1) % ENTRY_RING;
+            return entry;
+        }
+
+        private String getString() throws IOException
+        {
+            int ref = getVarInt();
+            if (ref == 0)
+            {
+                return null;
+            }
+            if (ref > 1)
+            {
+                if (ref - 2 >= strings.size())
+                {
+                    throw new IOException("String reference " + ref + " out of range");
+                }
+                return strings.get(ref - 2);
+            }
+
+            byte[] bytes = new byte[getVarInt()];
+            in.readFully(bytes);
+            String value = new String(bytes, StandardCharsets.UTF_8);
+            if (strings.size() < MAX_STRINGS)
+            {
+                strings.add(value);
+            }
+            return value;
+        }
+
+        private int getVarInt() throws IOException
+        {
+            return (int) getVarLong();
+        }
+
+        private int getZigZag() throws IOException
+        {
+            int value = getVarInt();
+            return value >>> 1 ^ -(value & 1);
+        }
+
+        private long getVarLong() throws IOException
+        {
+            long value = 0;
+            for (int shift = 0; shift < 70; shift += 7)
+            {
+                byte b = in.readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.tradewinds;
+
+import java.util.Arrays;
+
+/**
+ * Bounded least-recently-used map from primitive int keys to values.
+ * <p>
+ * Entries live in parallel arrays threaded on a doubly linked recency list, found
+ * through an open-addressing index, so lookups neither box keys nor allocate.
+ * Not thread-safe.
+ */
+final class IntLruCache<V>
+{
+    private static final int NONE = -1;
+
+    private final int capacity;
+    private final int[] keys;
+    private final Object[] values;
+    private final int[] prev;
+    private final int[] next;
+    // entry number + 1 per bucket, 0 = empty; linear probing
+    private final int[] index;
+    private final int mask;
+
+    private int size;
+    private int head = NONE;
+    private int tail = NONE;
+
+    IntLruCache(int capacity)
+    {
+        if (capacity <= 0)
+        {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+
+        this.capacity = capacity;
+        this.keys = new int[capacity];
+        this.values = new Object[capacity];
+        this.prev = new int[capacity];
+        this.next = new int[capacity];
+
+        int buckets = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        this.index = new int[buckets];
+        this.mask = buckets - 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(int key)
+    {
+        int entry = find(key);
+        if (entry == NONE)
+        {
+            return null;
+        }
+
+        moveToFront(entry);
+        return (V) values[entry];
+    }
+
+    void put(int key, V value)
+    {
+        int entry = find(key);
+        if (entry != NONE)
+        {
+            values[entry] = value;
+            moveToFront(entry);
+            return;
+        }
+
+        if (size < capacity)
+        {
+            entry = size++;
+        }
+        else
+        {
+            entry = tail;
+            unindex(keys[entry]);
+            unlink(entry);
+        }
+
+        keys[entry] = key;
+        values[entry] = value;
+        linkFront(entry);
+
+        int bucket = bucket(key);
+        while (index[bucket] != 0)
+        {
+            bucket = (bucket + 1) & mask;
+        }
+        index[bucket] = entry + 1;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    void clear()
+    {
+        Arrays.fill(index, 0);
+        Arrays.fill(values, null);
+        size = 0;
+        head = NONE;
+        tail = NONE;
+    }
+
+    private int find(int key)
+    {
+        int bucket = bucket(key);
+        int slot;
+        while ((slot = index[bucket]) != 0)
+        {
+            if (keys[slot - 1] == key)
+            {
+                return slot - 1;
+            }
+            bucket = (bucket + 1) & mask;
+        }
+        return NONE;
+    }
+
+    private void unindex(int key)
+    {
+        int bucket = bucket(key);
+        while (keys[index[bucket] - 1] != key)
+        {
+            bucket = (bucket + 1) & mask;
+        }
+
+        // Backward-shift deletion keeps every probe chain unbroken without tombstones
+        int hole = bucket;
+        int scan = (hole + 1) & mask;
+        while (index[scan] != 0)
+        {
+            int home = bucket(keys[index[scan] - 1]);
+            if (((scan - home) & mask) >= ((scan - hole) & mask))
+            {
+                index[hole] = index[scan];
+                hole = scan;
+            }
+            scan = (scan + 1) & mask;
+        }
+        index[hole] = 0;
+    }
+
+    private int bucket(int key)
+    {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void moveToFront(int entry)
+    {
+        if (entry != head)
+        {
+            unlink(entry);
+            linkFront(entry);
+        }
+    }
+
+    private void linkFront(int entry)
+    {
+        prev[entry] = NONE;
+        next[entry] = head;
+        if (head != NONE)
+        {
+            prev[head] = entry;
+        }
+        head = entry;
+        if (tail == NONE)
+        {
+            tail = entry;
+        }
+    }
+
+    private void unlink(int entry)
+    {
+        int p = prev[entry];
+        int n = next[entry];
+        if (p != NONE)
+        {
+            next[p] = n;
+        }
+        else
+        {
+            head = n;
+        }
+        if (n != NONE)
+        {
+            prev[n] = p;
+        }
+        else
+        {
+            tail = p;
+        }
+    }
+}
@@ -1,6 +1,5 @@
 package com.tradewinds;
 
-import java.time.Instant;
 import java.util.Map;
 
 public class ItemLocationInfo
@@ -8,14 +7,14 @@ public class ItemLocationInfo
     private final int itemId;
     private final String name;
     private final Map<BankLocation, Integer> perBank;
-    private final Instant created;
+    private final int createdTick;
 
-    public ItemLocationInfo(int itemId, String name, Map<BankLocation, Integer> perBank)
+    public ItemLocationInfo(int itemId, String name, Map<BankLocation, Integer> perBank, int createdTick)
     {
         this.itemId = itemId;
         this.name = name;
         this.perBank = perBank;
-        this.created = Instant.now();
+        this.createdTick = createdTick;
     }
 
     public int getItemId()
@@ -33,8 +32,11 @@ public class ItemLocationInfo
         return perBank;
     }
 
-    public Instant getCreated()
+    /**
+     * @return the client tick count when the info was requested
+     */
+    public int getCreatedTick()
     {
-        return created;
+        return createdTick;
     }
 }
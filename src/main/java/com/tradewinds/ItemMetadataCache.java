@@ -0,0 +1,152 @@
+package com.tradewinds;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.BitSet;
+
+import net.runelite.api.Client;
+import net.runelite.api.GameState;
+import net.runelite.api.Item;
+import net.runelite.api.ItemComposition;
+import net.runelite.api.ItemContainer;
+
+/**
+ * Item facts the overlays and menus need over and over, resolved from item
+ * definitions once instead of on every frame or click.
+ * <p>
+ * Placeholder and tradeable status are bitsets over item ids; display names
+ * are a bounded LRU. Both are filled in bulk from the bank when it opens or changes, so
+ * rendering a bank slot never reaches the item definition loader. Lookups must
+ * be made on the client thread.
+ */
+@Slf4j
+@Singleton
+public class ItemMetadataCache
+{
+    // Comfortably more than the largest bank, so a whole bank's names fit
+    private static final int NAME_CAPACITY = 2048;
+
+    private final Client client;
+
+    private final BitSet resolved = new BitSet();
+    private final BitSet placeholders = new BitSet();
+    private final BitSet untradeables = new BitSet();
+    private final IntLruCache<String> names = new IntLruCache<>(NAME_CAPACITY);
+
+    @Inject
+    public ItemMetadataCache(Client client)
+    {
+        this.client = client;
+    }
+
+    /**
+     * Resolves every item in the bank not already cached. Called when the bank
+     * widget loads and whenever its contents change.
+     */
+    public void prefetch(ItemContainer bank)
+    {
+        if (bank == null)
+        {
+            return;
+        }
+
+        int fetched = 0;
+        for (Item item : bank.getItems())
+        {
+            int itemId = item.getId();
+            if (itemId > 0 && !resolved.get(itemId))
+            {
+                resolve(itemId);
+                fetched++;
+            }
+        }
+
+        if (fetched > 0)
+        {
+            log.debug("Cached metadata for {} bank items", fetched);
+        }
+    }
+
+    public void handleGameStateChanged(GameState state)
+    {
+        // Definitions may be reloaded with the cache on a fresh login or world change
+        if (state == GameState.LOGIN_SCREEN || state == GameState.HOPPING)
+        {
+            clear();
+        }
+    }
+
+    public boolean isPlaceholder(int itemId)
+    {
+        if (itemId <= 0)
+        {
+            return false;
+        }
+
+        if (!resolved.get(itemId))
+        {
+            resolve(itemId);
+        }
+        return placeholders.get(itemId);
+    }
+
+    /**
+     * @return whether the item is known to be untradeable; false when its definition
+     *         cannot be loaded
+     */
+    public boolean isUntradeable(int itemId)
+    {
+        if (itemId <= 0)
+        {
+            return false;
+        }
+
+        if (!resolved.get(itemId))
+        {
+            resolve(itemId);
+        }
+        return untradeables.get(itemId);
+    }
+
+    public String getName(int itemId)
+    {
+        if (itemId <= 0)
+        {
+            return null;
+        }
+
+        String name = names.get(itemId);
+        if (name == null)
+        {
+            name = resolve(itemId);
+        }
+        return name;
+    }
+
+    public void clear()
+    {
+        resolved.clear();
+        placeholders.clear();
+        untradeables.clear();
+        names.clear();
+    }
+
+    private String resolve(int itemId)
+    {
+        ItemComposition comp = client.getItemDefinition(itemId);
+        if (comp == null)
+        {
+            return null;
+        }
+
+        resolved.set(itemId);
+        placeholders.set(itemId, comp.getPlaceholderTemplateId() != -1);
+        untradeables.set(itemId, !comp.isTradeable());
+
+        String name = comp.getName();
+        names.put(itemId, name);
+        return name;
+    }
+}
@@ -0,0 +1,105 @@
+package com.tradewinds;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Pre-rendered overlay labels, so a bank slot costs one image blit per frame
+ * instead of two passes through the text renderer.
+ * <p>
+ * Sprites are keyed by label text and evicted least recently used. They are all
+ * drawn in one font; a different font or size empties the cache. Must be used
+ * from the client thread.
+ */
+final class LabelSpriteCache
+{
+    // A full bank has 800-odd distinct labels; keep them all with room to spare
+    static final int DEFAULT_CAPACITY = 1024;
+
+    private final Color shadow;
+    private final Color foreground;
+    private final Map<String, BufferedImage> sprites;
+
+    private Font font;
+    private FontMetrics metrics;
+    private RenderingHints hints;
+
+    LabelSpriteCache(Color shadow, Color foreground, int capacity)
+    {
+        this.shadow = shadow;
+        this.foreground = foreground;
+        this.sprites = new LinkedHashMap<String, BufferedImage>(capacity * 4 / 3 + 1, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BufferedImage> eldest)
+            {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Renders subsequent sprites in the graphics' current font and hints.
+     *
+     * @return whether the font changed and previously handed out sprites are stale
+     */
+    boolean useFont(Graphics2D graphics, Font font)
+    {
+        if (font.equals(this.font))
+        {
+            return false;
+        }
+
+        this.font = font;
+        this.metrics = graphics.getFontMetrics(font);
+        this.hints = (RenderingHints) graphics.getRenderingHints().clone();
+        sprites.clear();
+        return true;
+    }
+
+    /**
+     * @return the label drawn with a one pixel shadow below and to the right
+     */
+    BufferedImage get(String text)
+    {
+        BufferedImage sprite = sprites.get(text);
+        if (sprite == null)
+        {
+            sprite = render(text);
+            sprites.put(text, sprite);
+        }
+        return sprite;
+    }
+
+    private BufferedImage render(String text)
+    {
+        int width = Math.max(1, metrics.stringWidth(text)) + 1;
+        int height = metrics.getAscent() + metrics.getDescent() + 1;
+        BufferedImage sprite = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+
+        Graphics2D g = sprite.createGraphics();
+        try
+        {
+            g.setRenderingHints(hints);
+            g.setFont(font);
+            int baseline = metrics.getAscent();
+
+            g.setColor(shadow);
+            g.drawString(text, 1, baseline + 1);
+
+            g.setColor(foreground);
+            g.drawString(text, 0, baseline);
+        }
+        finally
+        {
+            g.dispose();
+        }
+        return sprite;
+    }
+}
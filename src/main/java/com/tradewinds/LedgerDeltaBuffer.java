@@ -0,0 +1,102 @@
+package com.tradewinds;
+
+import java.util.Arrays;
+
+/**
+ * Chronological list of ledger changes since the last journal append, held as
+ * parallel primitive arrays. Each record is absolute (item, location, new
+ * quantity), so replaying a record twice is harmless. The quantity it replaced is
+ * kept alongside, so a shared ledger can add the change onto whatever another
+ * client has written to the cell since.
+ */
+public class LedgerDeltaBuffer
+{
+    private int[] itemIds = new int[64];
+    private int[] locations = new int[64];
+    private int[] previousQuantities = new int[64];
+    private int[] quantities = new int[64];
+    private int size;
+
+    public void add(int itemId, int location, int previousQuantity, int quantity)
+    {
+        if (size == itemIds.length)
+        {
+            int capacity = size << 1;
+            itemIds = Arrays.copyOf(itemIds, capacity);
+            locations = Arrays.copyOf(locations, capacity);
+            previousQuantities = Arrays.copyOf(previousQuantities, capacity);
+            quantities = Arrays.copyOf(quantities, capacity);
+        }
+
+        itemIds[size] = itemId;
+        locations[size] = location;
+        previousQuantities[size] = previousQuantity;
+        quantities[size] = quantity;
+        size++;
+    }
+
+    /**
+     * Appends every record of another buffer, in order.
+     */
+    public void addAll(LedgerDeltaBuffer other)
+    {
+        for (int i = 0; i < other.size; i++)
+        {
+            add(other.itemIds[i], other.locations[i], other.previousQuantities[i], other.quantities[i]);
+        }
+    }
+
+    /**
+     * Drops the first {@code count} records, keeping the rest in order.
+     */
+    public void discard(int count)
+    {
+        int remaining = size - count;
+        System.arraycopy(itemIds, count, itemIds, 0, remaining);
+        System.arraycopy(locations, count, locations, 0, remaining);
+        System.arraycopy(previousQuantities, count, previousQuantities, 0, remaining);
+        System.arraycopy(quantities, count, quantities, 0, remaining);
+        size = remaining;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public int getItemId(int index)
+    {
+        return itemIds[index];
+    }
+
+    /**
+     * @return the {@link BankLocation} ordinal
+     */
+    public int getLocation(int index)
+    {
+        return locations[index];
+    }
+
+    /**
+     * @return the quantity the cell held before this change
+     */
+    public int getPreviousQuantity(int index)
+    {
+        return previousQuantities[index];
+    }
+
+    public int getQuantity(int index)
+    {
+        return quantities[index];
+    }
+
+    public void clear()
+    {
+        size = 0;
+    }
+}
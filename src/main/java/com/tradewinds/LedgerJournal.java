@@ -0,0 +1,318 @@
+package com.tradewinds;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of ledger deltas kept next to the snapshot file.
+ *
+ * <pre>
+ * header  4 byte magic 0x89 'T' 'W' 'J', 1 byte version, 8 byte generation of
+ *         the snapshot it extends, location dictionary
+ *         (varint count, then varint length + ASCII name per location)
+ * batch   4 byte payload length, payload, 4 byte CRC32 of the payload
+ * record  varint item id, varint location index, varint new quantity
+ * </pre>
+ *
+ * A batch whose length or checksum does not hold up is a torn write from a crash;
+ * replay stops there and truncates it away so later appends stay readable.
+ * <p>
+ * A journal only holds changes on top of the snapshot whose generation it
+ * records. One left behind by a crash after a newer snapshot was renamed into
+ * place, but before the journal was deleted, names an older generation: replay
+ * skips it and the next append starts the journal afresh.
+ */
+@Slf4j
+public final class LedgerJournal
+{
+    static final int MAGIC = 0x8954574A;
+    static final byte VERSION = 2;
+
+    private static final String SUFFIX = ".journal";
+    private static final int MAX_RECORD_BYTES = 15;
+
+    private LedgerJournal()
+    {
+    }
+
+    public static File journalFileFor(File dataFile)
+    {
+        String name = dataFile.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(dataFile.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + SUFFIX);
+    }
+
+    /**
+     * Appends the buffered deltas as one batch, creating the journal if needed,
+     * or replacing one that extends a different snapshot.
+     *
+     * @param generation the generation of the snapshot the deltas apply to
+     * @return the journal size in bytes after the append
+     */
+    public static long append(File journal, long generation, LedgerDeltaBuffer deltas) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(journal.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            if (channel.size() > 0 && readGeneration(channel) != generation)
+            {
+                log.info("Starting {} afresh; it extended an older snapshot", journal.getName());
+                channel.truncate(0);
+            }
+            if (channel.size() == 0)
+            {
+                writeFully(channel, header(generation));
+            }
+            channel.position(channel.size());
+
+            ByteBuffer batch = ByteBuffer.allocate(8 + deltas.size() * MAX_RECORD_BYTES);
+            batch.position(4);
+            for (int i = 0; i < deltas.size(); i++)
+            {
+                putVarInt(batch, deltas.getItemId(i));
+                putVarInt(batch, deltas.getLocation(i));
+                putVarInt(batch, deltas.getQuantity(i));
+            }
+
+            int payloadLength = batch.position() - 4;
+            CRC32 crc = new CRC32();
+            crc.update(batch.array(), 4, payloadLength);
+            batch.putInt((int) crc.getValue());
+            batch.putInt(0, payloadLength);
+            batch.flip();
+
+            writeFully(channel, batch);
+            channel.force(false);
+            return channel.size();
+        }
+    }
+
+    /**
+     * Applies every intact batch to the balances map, in order, if the journal
+     * extends the snapshot the balances were loaded from.
+     *
+     * @param generation the generation of the loaded snapshot
+     * @return the number of records applied
+     */
+    public static int replay(File journal, long generation, Map<Integer, Map<BankLocation, Integer>> balances) throws IOException
+    {
+        if (!journal.exists())
+        {
+            return 0;
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(journal.toPath()));
+        if (in.remaining() == 0)
+        {
+            return 0;
+        }
+        if (in.remaining() < 5 || in.getInt() != MAGIC)
+        {
+            throw new IOException("Unrecognised ledger journal " + journal.getName());
+        }
+
+        byte version = in.get();
+        if (version != VERSION)
+        {
+            throw new IOException("Unsupported ledger journal version " + version);
+        }
+        if (in.remaining() < 8)
+        {
+            throw new IOException("Truncated ledger journal header in " + journal.getName());
+        }
+        long journalGeneration = in.getLong();
+        if (journalGeneration != generation)
+        {
+            log.warn("Skipping {}: it extends snapshot generation {}, not the loaded {}",
+                    journal.getName(), journalGeneration, generation);
+            return 0;
+        }
+
+        BankLocation[] dictionary = new BankLocation[getVarInt(in)];
+        byte[] name = new byte[64];
+        for (int i = 0; i < dictionary.length; i++)
+        {
+            int length = getVarInt(in);
+            if (length > name.length)
+            {
+                throw new IOException("Location name too long: " + length);
+            }
+            in.get(name, 0, length);
+            dictionary[i] = BankDataCodec.lookupLocation(name, length);
+        }
+
+        int applied = 0;
+        CRC32 crc = new CRC32();
+        while (in.hasRemaining())
+        {
+            int batchStart = in.position();
+            if (in.remaining() < 8)
+            {
+                truncate(journal, batchStart);
+                break;
+            }
+
+            int length = in.getInt();
+            if (length < 0 || length > in.remaining() - 4)
+            {
+                truncate(journal, batchStart);
+                break;
+            }
+
+            crc.reset();
+            crc.update(in.array(), in.position(), length);
+            if (in.getInt(in.position() + length) != (int) crc.getValue())
+            {
+                truncate(journal, batchStart);
+                break;
+            }
+
+            int end = in.position() + length;
+            while (in.position() < end)
+            {
+                int itemId = getVarInt(in);
+                int location = getVarInt(in);
+                int quantity = getVarInt(in);
+                if (location < 0 || location >= dictionary.length)
+                {
+                    throw new IOException("Location index " + location + " out of range");
+                }
+
+                apply(balances, itemId, dictionary[location], quantity);
+                applied++;
+            }
+            in.position(end + 4);
+        }
+
+        return applied;
+    }
+
+    public static void delete(File journal) throws IOException
+    {
+        Files.deleteIfExists(journal.toPath());
+    }
+
+    private static void apply(Map<Integer, Map<BankLocation, Integer>> balances, int itemId,
+                              BankLocation location, int quantity)
+    {
+        if (location == null)
+        {
+            // location no longer exists in this version of the plugin
+            return;
+        }
+
+        Map<BankLocation, Integer> perBank = balances.get(itemId);
+        if (quantity > 0)
+        {
+            if (perBank == null)
+            {
+                perBank = new EnumMap<>(BankLocation.class);
+                balances.put(itemId, perBank);
+            }
+            perBank.put(location, quantity);
+        }
+        else if (perBank != null)
+        {
+            perBank.remove(location);
+            if (perBank.isEmpty())
+            {
+                balances.remove(itemId);
+            }
+        }
+    }
+
+    private static void truncate(File journal, long validLength) throws IOException
+    {
+        log.warn("Discarding torn ledger journal tail at byte {} of {}", validLength, journal.getName());
+        try (FileChannel channel = FileChannel.open(journal.toPath(), StandardOpenOption.WRITE))
+        {
+            channel.truncate(validLength);
+        }
+    }
+
+    /**
+     * @return the generation in the journal's header, or -1 for one that is not
+     * a journal this version can append to
+     */
+    private static long readGeneration(FileChannel channel) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(13);
+        channel.position(0);
+        while (header.hasRemaining() && channel.read(header) >= 0)
+        {
+            // keep reading
+        }
+        header.flip();
+
+        if (header.remaining() < 5 || header.getInt() != MAGIC)
+        {
+            return -1;
+        }
+        return header.get() == VERSION && header.remaining() == 8 ? header.getLong() : -1;
+    }
+
+    private static ByteBuffer header(long generation)
+    {
+        byte[][] names = BankDataCodec.LOCATION_NAMES;
+        int size = 5 + 8 + 5;
+        for (byte[] name : names)
+        {
+            size += 5 + name.length;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(size);
+        header.putInt(MAGIC);
+        header.put(VERSION);
+        header.putLong(generation);
+        putVarInt(header, names.length);
+        for (byte[] name : names)
+        {
+            putVarInt(header, name.length);
+            header.put(name);
+        }
+        header.flip();
+        return header;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            channel.write(buffer);
+        }
+    }
+
+    private static void putVarInt(ByteBuffer buffer, int value)
+    {
+        while ((value & ~0x7F) != 0)
+        {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int getVarInt(ByteBuffer buffer) throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7)
+        {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,11 @@
+package com.tradewinds;
+
+public enum LedgerLoadState
+{
+    /** Logged out, or the last load failed; nothing is known. */
+    UNLOADED,
+    /** The account's ledger is being read in the background. */
+    LOADING,
+    /** The ledger is loaded and may be read, reconciled and saved. */
+    READY
+}
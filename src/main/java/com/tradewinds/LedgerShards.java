@@ -0,0 +1,411 @@
+package com.tradewinds;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+/**
+ * Ledger split into a small global index plus one shard file per location, kept
+ * in a directory beside the snapshot file.
+ *
+ * <pre>
+ * index.dat        4 byte magic 0x89 'T' 'W' 'I', 1 byte version,
+ *                  varint location count, per location: varint length + ASCII
+ *                  name, varlong shard generation (0 = no shard),
+ *                  varint item count, per item: varint id, varlong total,
+ *                  varint location count, varint location index per location,
+ *                  4 byte CRC32
+ * NAME-GEN.shard   4 byte magic 0x89 'T' 'W' 'S', 1 byte version,
+ *                  varint item count, per item: varint id, varint quantity,
+ *                  4 byte CRC32
+ * </pre>
+ *
+ * Shards are never rewritten in place: a save writes changed shards under a new
+ * generation and then atomically replaces the index that names them, so a crash
+ * at any point leaves the previous index and every shard it refers to intact.
+ */
+@Slf4j
+public final class LedgerShards
+{
+    static final int INDEX_MAGIC = 0x89545749;
+    static final int SHARD_MAGIC = 0x89545753;
+    static final byte VERSION = 1;
+
+    private static final String SUFFIX = ".shards";
+    private static final String INDEX_NAME = "index.dat";
+    private static final String SHARD_SUFFIX = ".shard";
+    private static final int MAX_NAME_LENGTH = 64;
+
+    private LedgerShards()
+    {
+    }
+
+    public static File directoryFor(File dataFile)
+    {
+        String name = dataFile.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(dataFile.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + SUFFIX);
+    }
+
+    public static boolean exists(File directory)
+    {
+        return new File(directory, INDEX_NAME).isFile();
+    }
+
+    /**
+     * Fills an empty store with the index: every item's total and the locations
+     * holding it, with every location left unloaded.
+     *
+     * @return the shard generation for each location ordinal, 0 where none exists
+     */
+    public static long[] readIndex(File directory, BankLedgerStore store) throws IOException
+    {
+        ByteBuffer in = readChecked(new File(directory, INDEX_NAME), INDEX_MAGIC);
+
+        int locationCount = getVarInt(in);
+        BankLocation[] dictionary = new BankLocation[locationCount];
+        long[] generations = new long[BankLedgerStore.LOCATION_COUNT];
+        byte[] name = new byte[MAX_NAME_LENGTH];
+        for (int i = 0; i < locationCount; i++)
+        {
+            int length = getVarInt(in);
+            if (length > MAX_NAME_LENGTH)
+            {
+                throw new IOException("Location name too long: " + length);
+            }
+            in.get(name, 0, length);
+            dictionary[i] = BankDataCodec.lookupLocation(name, length);
+
+            long generation = getVarLong(in);
+            if (dictionary[i] != null)
+            {
+                generations[dictionary[i].ordinal()] = generation;
+            }
+        }
+
+        store.beginPartial();
+
+        int itemCount = getVarInt(in);
+        int[] ordinals = new int[BankLedgerStore.LOCATION_COUNT];
+        for (int i = 0; i < itemCount; i++)
+        {
+            int itemId = getVarInt(in);
+            long total = getVarLong(in);
+            int held = getVarInt(in);
+
+            int n = 0;
+            for (int l = 0; l < held; l++)
+            {
+                int index = getVarInt(in);
+                if (index >= dictionary.length)
+                {
+                    throw new IOException("Location index " + index + " out of range");
+                }
+                if (dictionary[index] != null && n < ordinals.length)
+                {
+                    ordinals[n++] = dictionary[index].ordinal();
+                }
+            }
+
+            store.putIndexEntry(itemId, total, ordinals, n);
+        }
+
+        return generations;
+    }
+
+    /**
+     * Reads one location's shard, for loading into a store filled by
+     * {@link #readIndex} with {@link Shard#loadInto}.
+     */
+    public static Shard readShard(File directory, BankLocation location, long generation) throws IOException
+    {
+        if (generation == 0)
+        {
+            return new Shard(location, new int[0], new int[0], 0, 0);
+        }
+
+        ByteBuffer in = readChecked(shardFile(directory, location, generation), SHARD_MAGIC);
+
+        int count = getVarInt(in);
+        int[] itemIds = new int[count];
+        int[] quantities = new int[count];
+        for (int i = 0; i < count; i++)
+        {
+            itemIds[i] = getVarInt(in);
+            quantities[i] = getVarInt(in);
+        }
+
+        return new Shard(location, itemIds, quantities, count, in.capacity());
+    }
+
+    public static byte[] encodeShard(BankLedgerStore store, BankLocation location)
+    {
+        int[] itemIds = new int[store.getItemCount(location)];
+        int[] quantities = new int[itemIds.length];
+        int count = store.collectLocation(location, itemIds, quantities);
+
+        Output out = new Output(SHARD_MAGIC);
+        out.putVarInt(count);
+        for (int i = 0; i < count; i++)
+        {
+            out.putVarInt(itemIds[i]);
+            out.putVarInt(quantities[i]);
+        }
+        return out.finish();
+    }
+
+    public static byte[] encodeIndex(BankLedgerStore store, long[] generations)
+    {
+        Output out = new Output(INDEX_MAGIC);
+
+        byte[][] names = BankDataCodec.LOCATION_NAMES;
+        out.putVarInt(names.length);
+        for (int i = 0; i < names.length; i++)
+        {
+            out.putVarInt(names[i].length);
+            out.put(names[i]);
+            out.putVarLong(generations[i]);
+        }
+
+        int[] itemIds = store.itemIds();
+        int[] ordinals = new int[BankLedgerStore.LOCATION_COUNT];
+        out.putVarInt(itemIds.length);
+        for (int itemId : itemIds)
+        {
+            out.putVarInt(itemId);
+            out.putVarLong(store.getTotal(itemId));
+
+            int held = store.getLocations(itemId, ordinals);
+            out.putVarInt(held);
+            for (int l = 0; l < held; l++)
+            {
+                out.putVarInt(ordinals[l]);
+            }
+        }
+
+        return out.finish();
+    }
+
+    /**
+     * Writes the changed shards under their new generations, then swaps in the
+     * index that refers to them and removes shard files nothing refers to.
+     *
+     * @param shards encoded shard per location ordinal, null where unchanged
+     * @param generations the generation of every location's shard after this commit
+     */
+    public static void commit(File directory, byte[][] shards, long[] generations, byte[] index) throws IOException
+    {
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Could not create " + directory);
+        }
+
+        for (int ordinal = 0; ordinal < shards.length; ordinal++)
+        {
+            if (shards[ordinal] != null)
+            {
+                Path shard = shardFile(directory, BankLedgerStore.LOCATIONS[ordinal], generations[ordinal]).toPath();
+                Files.write(shard, shards[ordinal]);
+            }
+        }
+
+        Path target = new File(directory, INDEX_NAME).toPath();
+        Path temp = target.resolveSibling(INDEX_NAME + ".tmp");
+        Files.write(temp, index);
+        try
+        {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        removeUnreferenced(directory, generations);
+    }
+
+    public static void delete(File directory) throws IOException
+    {
+        File[] files = directory.listFiles();
+        if (files == null)
+        {
+            return;
+        }
+
+        for (File file : files)
+        {
+            Files.deleteIfExists(file.toPath());
+        }
+        Files.deleteIfExists(directory.toPath());
+    }
+
+    private static void removeUnreferenced(File directory, long[] generations)
+    {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SHARD_SUFFIX));
+        if (files == null)
+        {
+            return;
+        }
+
+        for (File file : files)
+        {
+            boolean referenced = false;
+            for (int ordinal = 0; ordinal < generations.length && !referenced; ordinal++)
+            {
+                referenced = generations[ordinal] != 0
+                        && file.getName().equals(shardName(BankLedgerStore.LOCATIONS[ordinal], generations[ordinal]));
+            }
+
+            if (!referenced && !file.delete())
+            {
+                log.debug("Could not remove stale ledger shard {}", file.getName());
+            }
+        }
+    }
+
+    private static File shardFile(File directory, BankLocation location, long generation)
+    {
+        return new File(directory, shardName(location, generation));
+    }
+
+    private static String shardName(BankLocation location, long generation)
+    {
+        return location.name() + "-" + generation + SHARD_SUFFIX;
+    }
+
+    private static ByteBuffer readChecked(File file, int magic) throws IOException
+    {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        if (bytes.length < 9)
+        {
+            throw new IOException(file.getName() + " too short: " + bytes.length + " bytes");
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 4);
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (in.getInt(bytes.length - 4) != (int) crc.getValue())
+        {
+            throw new IOException(file.getName() + " checksum mismatch");
+        }
+
+        in.limit(bytes.length - 4);
+        if (in.getInt() != magic || in.get() != VERSION)
+        {
+            throw new IOException("Unrecognised ledger shard file " + file.getName());
+        }
+        return in;
+    }
+
+    private static int getVarInt(ByteBuffer in) throws IOException
+    {
+        long value = getVarLong(in);
+        if (value > Integer.MAX_VALUE)
+        {
+            throw new IOException("Varint out of range");
+        }
+        return (int) value;
+    }
+
+    private static long getVarLong(ByteBuffer in) throws IOException
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            if (!in.hasRemaining())
+            {
+                throw new IOException("Unexpected end of ledger shard data");
+            }
+
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static final class Output
+    {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        Output(int magic)
+        {
+            bytes.write(magic >>> 24);
+            bytes.write(magic >>> 16);
+            bytes.write(magic >>> 8);
+            bytes.write(magic);
+            bytes.write(VERSION);
+        }
+
+        void put(byte[] value)
+        {
+            bytes.write(value, 0, value.length);
+        }
+
+        void putVarInt(int value)
+        {
+            putVarLong(value & 0xFFFFFFFFL);
+        }
+
+        void putVarLong(long value)
+        {
+            while ((value & ~0x7FL) != 0)
+            {
+                bytes.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            bytes.write((int) value);
+        }
+
+        byte[] finish()
+        {
+            CRC32 crc = new CRC32();
+            byte[] payload = bytes.toByteArray();
+            crc.update(payload, 0, payload.length);
+
+            int checksum = (int) crc.getValue();
+            byte[] out = new byte[payload.length + 4];
+            System.arraycopy(payload, 0, out, 0, payload.length);
+            ByteBuffer.wrap(out, payload.length, 4).putInt(checksum);
+            return out;
+        }
+    }
+
+    /**
+     * One location's quantities as read from disk, not yet in any store.
+     */
+    public static final class Shard
+    {
+        final BankLocation location;
+        final int[] itemIds;
+        final int[] quantities;
+        final int count;
+        // Size on disk, 0 for a location with no shard
+        final int bytes;
+
+        Shard(BankLocation location, int[] itemIds, int[] quantities, int count, int bytes)
+        {
+            this.location = location;
+            this.itemIds = itemIds;
+            this.quantities = quantities;
+            this.count = count;
+            this.bytes = bytes;
+        }
+
+        public void loadInto(BankLedgerStore store)
+        {
+            store.loadLocation(location, itemIds, quantities, count);
+        }
+    }
+}
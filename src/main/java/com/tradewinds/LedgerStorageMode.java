@@ -0,0 +1,13 @@
+package com.tradewinds;
+
+public enum LedgerStorageMode
+{
+    /** Rewrite the whole ledger file on every save. */
+    SNAPSHOT,
+    /** Append small delta batches to a journal and fold them into the file periodically. */
+    JOURNAL,
+    /** Keep the ledger in a memory-mapped file updated cell by cell, safe to share between clients. */
+    MAPPED,
+    /** Keep a small totals index plus one file per bank, loading each bank's file only when needed. */
+    SHARDED
+}
@@ -0,0 +1,126 @@
+package com.tradewinds;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Write-behind stage for ledger saves. Changes only mark the ledger dirty; a single
+ * save runs on the background executor once no further change has arrived for
+ * {@link #QUIET_PERIOD_MS}, so a burst of bank updates costs one write.
+ */
+@Slf4j
+public class LedgerWriteBehind
+{
+    static final long QUIET_PERIOD_MS = 2_000;
+
+    private final ScheduledExecutorService executor;
+    private final BooleanSupplier writer;
+
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Object writeLock = new Object();
+    private volatile long lastChangeNanos;
+
+    private final AtomicLong savesRequested = new AtomicLong();
+    private final AtomicLong savesCoalesced = new AtomicLong();
+    private final AtomicLong savesWritten = new AtomicLong();
+
+    /**
+     * @param writer performs the actual save, returning false if it failed or could
+     * not run yet and the ledger should stay dirty
+     */
+    public LedgerWriteBehind(ScheduledExecutorService executor, BooleanSupplier writer)
+    {
+        this.executor = executor;
+        this.writer = writer;
+    }
+
+    public void markDirty()
+    {
+        savesRequested.incrementAndGet();
+        lastChangeNanos = System.nanoTime();
+        dirty.set(true);
+
+        if (scheduled.compareAndSet(false, true))
+        {
+            executor.schedule(this::drain, QUIET_PERIOD_MS, TimeUnit.MILLISECONDS);
+        }
+        else
+        {
+            savesCoalesced.incrementAndGet();
+        }
+    }
+
+    /**
+     * Writes any pending change on the calling thread. Used on logout and shutdown,
+     * where the save must have landed before the ledger is cleared.
+     */
+    public void flush()
+    {
+        write();
+    }
+
+    public long getSavesRequested()
+    {
+        return savesRequested.get();
+    }
+
+    public long getSavesCoalesced()
+    {
+        return savesCoalesced.get();
+    }
+
+    public long getSavesWritten()
+    {
+        return savesWritten.get();
+    }
+
+    private void drain()
+    {
+        long remaining = lastChangeNanos + TimeUnit.MILLISECONDS.toNanos(QUIET_PERIOD_MS) - System.nanoTime();
+        if (remaining > 0)
+        {
+            executor.schedule(this::drain, remaining, TimeUnit.NANOSECONDS);
+            return;
+        }
+
+        scheduled.set(false);
+        write();
+    }
+
+    private void write()
+    {
+        synchronized (writeLock)
+        {
+            if (!dirty.getAndSet(false))
+            {
+                return;
+            }
+
+            boolean ok;
+            try
+            {
+                ok = writer.getAsBoolean();
+            }
+            catch (RuntimeException e)
+            {
+                log.warn("TradeWinds ledger save failed", e);
+                ok = false;
+            }
+
+            if (ok)
+            {
+                savesWritten.incrementAndGet();
+            }
+            else
+            {
+                dirty.set(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,741 @@
+package com.tradewinds;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Fixed-layout, memory-mapped ledger that several RuneLite clients can share.
+ *
+ * <pre>
+ * header  magic, version, slot capacity, column count, write sequence (long),
+ *         item count, used columns, retired flag, then one 32 byte name per column
+ * slots   capacity x (int item id, int quantity per column)
+ * </pre>
+ *
+ * Items are placed by open addressing on the item id; columns are matched to
+ * {@link BankLocation}s by name, so the layout survives enum changes. Writers
+ * take an exclusive {@link FileLock} and only touch the cells they changed, adding
+ * their change onto the cell's current value rather than overwriting it, and bump
+ * the write sequence to odd while they work and back to even when done. Readers
+ * retry on a moving sequence (a seqlock) and fall back to a shared lock, so another
+ * client's totals are never overwritten with a stale whole-file copy.
+ * <p>
+ * The file is never replaced while clients may have it mapped: it is created whole
+ * under a temporary name and linked into place only if no file is there yet, and
+ * when the ledger moves to another format it is first marked retired under the
+ * lock, so clients still mapping it know to load the ledger again. A retired file
+ * that cannot be deleted yet, as on Windows while anyone still maps it, is skipped,
+ * and a new ledger is created under the next free name beside it.
+ */
+@Slf4j
+public class MappedLedgerFile implements Closeable
+{
+    static final int MAGIC = 0x8954574D;
+    static final int VERSION = 1;
+
+    private static final String SUFFIX = ".map";
+
+    private static final int COLUMNS = 128;
+    private static final int NAME_BYTES = 32;
+    private static final int SLOT_BYTES = 4 + COLUMNS * 4;
+    private static final int INITIAL_CAPACITY = 2048;
+
+    private static final int OFF_MAGIC = 0;
+    private static final int OFF_VERSION = 4;
+    private static final int OFF_CAPACITY = 8;
+    private static final int OFF_COLUMNS = 12;
+    private static final int OFF_SEQUENCE = 16;
+    private static final int OFF_ITEM_COUNT = 24;
+    private static final int OFF_USED_COLUMNS = 28;
+    private static final int OFF_RETIRED = 32;
+    private static final int OFF_NAMES = 64;
+    private static final int HEADER_BYTES = OFF_NAMES + COLUMNS * NAME_BYTES;
+
+    private static final int OPTIMISTIC_READS = 3;
+    // Names a data file's mapped ledger may take while retired ones linger
+    private static final int MAX_NAMES = 8;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private MappedByteBuffer map;
+    private int capacity;
+
+    // Sequence after our own last read or write; anything else means another client wrote
+    private long knownSequence = -1;
+    private boolean foreignWrites;
+
+    // BankLocation ordinal -> column in this file, or -1 until first written
+    private final int[] columnForOrdinal = new int[BankLedgerStore.LOCATION_COUNT];
+
+    private MappedLedgerFile(File file) throws IOException
+    {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+
+        remap();
+        if (map.getInt(OFF_MAGIC) != MAGIC || map.getInt(OFF_VERSION) != VERSION || map.getInt(OFF_COLUMNS) != COLUMNS)
+        {
+            close();
+            throw new IOException("Unrecognised mapped ledger " + file.getName());
+        }
+        if (map.getInt(OFF_RETIRED) != 0)
+        {
+            close();
+            throw new IOException("Mapped ledger " + file.getName() + " was retired");
+        }
+        resolveColumns();
+    }
+
+    public static File fileFor(File dataFile)
+    {
+        return fileFor(dataFile, 0);
+    }
+
+    private static File fileFor(File dataFile, int attempt)
+    {
+        String name = dataFile.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        return new File(dataFile.getParentFile(), base + (attempt > 0 ? "." + attempt : "") + SUFFIX);
+    }
+
+    /**
+     * @return the mapped ledger in use beside the data file, or null if there is
+     * none; retired files left behind are removed where possible
+     */
+    public static File find(File dataFile) throws IOException
+    {
+        for (int attempt = 0; attempt < MAX_NAMES; attempt++)
+        {
+            File file = fileFor(dataFile, attempt);
+            if (!file.exists())
+            {
+                continue;
+            }
+            if (!isRetiredFile(file))
+            {
+                return file;
+            }
+            deleteRetired(file);
+        }
+        return null;
+    }
+
+    /**
+     * @return where a new mapped ledger beside the data file goes: the first name
+     * with no file, once any retired file that can be is removed
+     */
+    public static File vacantFileFor(File dataFile) throws IOException
+    {
+        for (int attempt = 0; attempt < MAX_NAMES; attempt++)
+        {
+            File file = fileFor(dataFile, attempt);
+            if (file.exists() && isRetiredFile(file))
+            {
+                deleteRetired(file);
+            }
+            if (!file.exists())
+            {
+                return file;
+            }
+        }
+        throw new IOException("No free mapped ledger name beside " + dataFile.getName());
+    }
+
+    public static MappedLedgerFile open(File file) throws IOException
+    {
+        return new MappedLedgerFile(file);
+    }
+
+    /**
+     * Builds a mapped ledger from existing balances under a temporary name and
+     * links it into place, so the file never exists half populated. If another
+     * client created the file first, that one is opened instead and the balances
+     * given are not written.
+     */
+    public static MappedLedgerFile create(File file, Map<Integer, Map<BankLocation, Integer>> balances) throws IOException
+    {
+        int capacity = INITIAL_CAPACITY;
+        while (balances.size() > capacity * 7 / 10)
+        {
+            capacity <<= 1;
+        }
+
+        Path temp = Files.createTempFile(file.getParentFile().toPath(), file.getName(), ".tmp");
+        long sequence;
+        try
+        {
+            try (RandomAccessFile out = new RandomAccessFile(temp.toFile(), "rw"))
+            {
+                out.setLength(HEADER_BYTES + (long) capacity * SLOT_BYTES);
+                MappedByteBuffer buffer = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, out.length());
+                buffer.putInt(OFF_MAGIC, MAGIC);
+                buffer.putInt(OFF_VERSION, VERSION);
+                buffer.putInt(OFF_CAPACITY, capacity);
+                buffer.putInt(OFF_COLUMNS, COLUMNS);
+                buffer.force();
+            }
+
+            try (MappedLedgerFile staged = new MappedLedgerFile(temp.toFile()))
+            {
+                staged.replaceAll(balances);
+                sequence = staged.knownSequence;
+            }
+
+            if (!publish(temp, file))
+            {
+                log.debug("Mapped ledger {} was created by another client", file.getName());
+                return new MappedLedgerFile(file);
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(temp);
+        }
+
+        MappedLedgerFile ledger = new MappedLedgerFile(file);
+        // A write another client made since the link still shows as foreign
+        ledger.knownSequence = sequence;
+        return ledger;
+    }
+
+    /**
+     * Marks a mapped ledger retired under the exclusive lock, then deletes it if
+     * it can. Clients still mapping it see the mark and load the ledger again from
+     * whichever format now holds it; a file left behind is never opened again.
+     *
+     * @return true if there was a file to retire
+     */
+    public static boolean retire(File file) throws IOException
+    {
+        if (!file.exists())
+        {
+            return false;
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel();
+             FileLock ignored = channel.lock())
+        {
+            if (channel.size() >= HEADER_BYTES)
+            {
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+                if (header.getInt(OFF_MAGIC) == MAGIC)
+                {
+                    header.putInt(OFF_RETIRED, 1);
+                    // Moved by a whole write, so every client sees a foreign change
+                    header.putLong(OFF_SEQUENCE, header.getLong(OFF_SEQUENCE) + 2);
+                    header.force();
+                }
+            }
+        }
+        deleteRetired(file);
+        return true;
+    }
+
+    private static boolean isRetiredFile(File file) throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"))
+        {
+            if (raf.length() < HEADER_BYTES)
+            {
+                return false;
+            }
+            raf.seek(OFF_MAGIC);
+            int magic = raf.readInt();
+            raf.seek(OFF_RETIRED);
+            return magic == MAGIC && raf.readInt() != 0;
+        }
+    }
+
+    private static void deleteRetired(File file)
+    {
+        try
+        {
+            Files.deleteIfExists(file.toPath());
+        }
+        catch (IOException e)
+        {
+            // Still mapped somewhere; retired, so it is skipped until it can go
+            log.debug("Could not delete retired mapped ledger {} yet", file.getName(), e);
+        }
+    }
+
+    /**
+     * Links a fully written file into place, failing rather than replacing a file
+     * another client may already have mapped.
+     *
+     * @return false if the target already exists
+     */
+    private static boolean publish(Path temp, File file) throws IOException
+    {
+        try
+        {
+            Files.createLink(file.toPath(), temp);
+            return true;
+        }
+        catch (FileAlreadyExistsException e)
+        {
+            return false;
+        }
+        catch (UnsupportedOperationException | IOException e)
+        {
+            // No hard links here; a plain move also refuses an existing target
+            try
+            {
+                Files.move(temp, file.toPath());
+                return true;
+            }
+            catch (FileAlreadyExistsException exists)
+            {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return true once the ledger has moved to another format and this file is
+     * no longer written or read by anyone else
+     */
+    public synchronized boolean isRetired()
+    {
+        return map.getInt(OFF_RETIRED) != 0;
+    }
+
+    /**
+     * @return true if another client has written since this one last read the file
+     */
+    public synchronized boolean hasForeignWrites() throws IOException
+    {
+        remapIfGrown();
+        return foreignWrites || map.getLong(OFF_SEQUENCE) != knownSequence;
+    }
+
+    public synchronized int getItemCount() throws IOException
+    {
+        remapIfGrown();
+        return map.getInt(OFF_ITEM_COUNT);
+    }
+
+    /**
+     * Reads the whole ledger straight out of the mapping, without parsing.
+     */
+    public synchronized void readInto(BankLedgerStore store) throws IOException
+    {
+        for (int attempt = 0; attempt < OPTIMISTIC_READS; attempt++)
+        {
+            remapIfGrown();
+            long before = map.getLong(OFF_SEQUENCE);
+            if ((before & 1) != 0)
+            {
+                Thread.yield();
+                continue;
+            }
+
+            store.clear();
+            copyInto(store);
+
+            if (map.getLong(OFF_SEQUENCE) == before && map.getInt(OFF_CAPACITY) == capacity)
+            {
+                knownSequence = before;
+                foreignWrites = false;
+                return;
+            }
+        }
+
+        try (FileLock ignored = channel.lock(0, Long.MAX_VALUE, true))
+        {
+            remapIfGrown();
+            store.clear();
+            copyInto(store);
+            knownSequence = map.getLong(OFF_SEQUENCE);
+            foreignWrites = false;
+        }
+    }
+
+    /**
+     * Adds each delta's change onto what its cell holds now, so whatever another
+     * client wrote there since this one last read the file is kept. Deltas are
+     * removed from the buffer as they are written; after a failure it holds only
+     * the ones still to write.
+     */
+    public synchronized void apply(LedgerDeltaBuffer deltas) throws IOException
+    {
+        int written = 0;
+        try (FileLock ignored = channel.lock())
+        {
+            beginWrite();
+            try
+            {
+                for (; written < deltas.size(); written++)
+                {
+                    int itemId = deltas.getItemId(written);
+                    int ordinal = deltas.getLocation(written);
+                    long quantity = (long) readCell(itemId, ordinal)
+                            + deltas.getQuantity(written) - deltas.getPreviousQuantity(written);
+                    writeCell(itemId, ordinal, (int) Math.max(0, Math.min(Integer.MAX_VALUE, quantity)));
+                }
+            }
+            finally
+            {
+                endWrite();
+            }
+        }
+        finally
+        {
+            deltas.discard(written);
+        }
+    }
+
+    /**
+     * Replaces every cell with the given balances. Only used for migration and
+     * resets, where discarding other clients' view is the intent.
+     */
+    public synchronized void replaceAll(Map<Integer, Map<BankLocation, Integer>> balances) throws IOException
+    {
+        try (FileLock ignored = channel.lock())
+        {
+            beginWrite();
+
+            for (int slot = 0; slot < capacity; slot++)
+            {
+                int base = slotOffset(slot);
+                for (int b = 0; b < SLOT_BYTES; b += 4)
+                {
+                    map.putInt(base + b, 0);
+                }
+            }
+            map.putInt(OFF_ITEM_COUNT, 0);
+
+            for (Map.Entry<Integer, Map<BankLocation, Integer>> item : balances.entrySet())
+            {
+                if (item.getKey() == null || item.getKey() <= 0 || item.getValue() == null)
+                {
+                    continue;
+                }
+                for (Map.Entry<BankLocation, Integer> bank : item.getValue().entrySet())
+                {
+                    if (bank.getKey() != null && bank.getValue() != null && bank.getValue() > 0)
+                    {
+                        writeCell(item.getKey(), bank.getKey().ordinal(), bank.getValue());
+                    }
+                }
+            }
+
+            endWrite();
+            foreignWrites = false;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        channel.close();
+        raf.close();
+        map = null;
+    }
+
+    // ------------------------------------------------------------
+    // Cell access (callers hold the exclusive lock)
+    // ------------------------------------------------------------
+
+    private void beginWrite() throws IOException
+    {
+        if (map.getInt(OFF_RETIRED) != 0)
+        {
+            throw new IOException("Mapped ledger " + file.getName() + " was retired");
+        }
+        remapIfGrown();
+        long sequence = map.getLong(OFF_SEQUENCE);
+        if (sequence != knownSequence)
+        {
+            foreignWrites = true;
+            // columns another client added must be found, not added twice
+            resolveColumns();
+        }
+        // an odd sequence left behind by a client that died mid-write stays odd
+        map.putLong(OFF_SEQUENCE, (sequence & 1) == 0 ? sequence + 1 : sequence + 2);
+    }
+
+    private void endWrite()
+    {
+        knownSequence = map.getLong(OFF_SEQUENCE) + 1;
+        map.putLong(OFF_SEQUENCE, knownSequence);
+        map.force();
+    }
+
+    private void writeCell(int itemId, int ordinal, int quantity) throws IOException
+    {
+        int column = columnForOrdinal[ordinal];
+        if (column < 0)
+        {
+            if (quantity <= 0)
+            {
+                return;
+            }
+            column = allocateColumn(ordinal);
+        }
+
+        int slot = findSlot(itemId);
+        if (slot < 0)
+        {
+            if (quantity <= 0)
+            {
+                return;
+            }
+            slot = insertSlot(itemId);
+        }
+
+        map.putInt(slotOffset(slot) + 4 + column * 4, Math.max(0, quantity));
+    }
+
+    private int readCell(int itemId, int ordinal)
+    {
+        int column = columnForOrdinal[ordinal];
+        int slot = column < 0 ? -1 : findSlot(itemId);
+        return slot < 0 ? 0 : map.getInt(slotOffset(slot) + 4 + column * 4);
+    }
+
+    private int findSlot(int itemId)
+    {
+        int mask = capacity - 1;
+        int slot = index(itemId, mask);
+        for (int probes = 0; probes < capacity; probes++)
+        {
+            int key = map.getInt(slotOffset(slot));
+            if (key == itemId)
+            {
+                return slot;
+            }
+            if (key == 0)
+            {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int insertSlot(int itemId) throws IOException
+    {
+        int count = map.getInt(OFF_ITEM_COUNT);
+        if (count + 1 > capacity * 7 / 10)
+        {
+            grow();
+        }
+
+        int mask = capacity - 1;
+        int slot = index(itemId, mask);
+        while (map.getInt(slotOffset(slot)) != 0)
+        {
+            slot = (slot + 1) & mask;
+        }
+
+        map.putInt(slotOffset(slot), itemId);
+        map.putInt(OFF_ITEM_COUNT, map.getInt(OFF_ITEM_COUNT) + 1);
+        return slot;
+    }
+
+    private void grow() throws IOException
+    {
+        int oldCapacity = capacity;
+        int[] ids = new int[oldCapacity];
+        int[][] rows = new int[oldCapacity][];
+        int live = 0;
+
+        for (int slot = 0; slot < oldCapacity; slot++)
+        {
+            int base = slotOffset(slot);
+            int id = map.getInt(base);
+            if (id == 0)
+            {
+                continue;
+            }
+
+            int[] row = new int[COLUMNS];
+            boolean any = false;
+            for (int c = 0; c < COLUMNS; c++)
+            {
+                row[c] = map.getInt(base + 4 + c * 4);
+                any |= row[c] != 0;
+            }
+
+            // rows whose every cell was emptied are dropped while rehashing
+            if (any)
+            {
+                ids[live] = id;
+                rows[live++] = row;
+            }
+        }
+
+        int newCapacity = oldCapacity << 1;
+        raf.setLength(HEADER_BYTES + (long) newCapacity * SLOT_BYTES);
+        map.putInt(OFF_CAPACITY, newCapacity);
+        remap();
+
+        for (int slot = 0; slot < oldCapacity; slot++)
+        {
+            int base = slotOffset(slot);
+            for (int b = 0; b < SLOT_BYTES; b += 4)
+            {
+                map.putInt(base + b, 0);
+            }
+        }
+
+        int mask = newCapacity - 1;
+        for (int i = 0; i < live; i++)
+        {
+            int slot = index(ids[i], mask);
+            while (map.getInt(slotOffset(slot)) != 0)
+            {
+                slot = (slot + 1) & mask;
+            }
+
+            int base = slotOffset(slot);
+            map.putInt(base, ids[i]);
+            for (int c = 0; c < COLUMNS; c++)
+            {
+                map.putInt(base + 4 + c * 4, rows[i][c]);
+            }
+        }
+        map.putInt(OFF_ITEM_COUNT, live);
+
+        log.debug("Grew mapped ledger {} to {} slots", file.getName(), newCapacity);
+    }
+
+    private int allocateColumn(int ordinal) throws IOException
+    {
+        // another client may have added it since we last looked
+        resolveColumns();
+        if (columnForOrdinal[ordinal] >= 0)
+        {
+            return columnForOrdinal[ordinal];
+        }
+
+        int used = map.getInt(OFF_USED_COLUMNS);
+        if (used >= COLUMNS)
+        {
+            throw new IOException("Mapped ledger has no free location columns");
+        }
+
+        byte[] name = BankDataCodec.LOCATION_NAMES[ordinal];
+        int offset = OFF_NAMES + used * NAME_BYTES;
+        map.put(offset, (byte) name.length);
+        for (int i = 0; i < name.length; i++)
+        {
+            map.put(offset + 1 + i, name[i]);
+        }
+        map.putInt(OFF_USED_COLUMNS, used + 1);
+
+        columnForOrdinal[ordinal] = used;
+        return used;
+    }
+
+    private void resolveColumns()
+    {
+        Arrays.fill(columnForOrdinal, -1);
+
+        int used = Math.min(COLUMNS, map.getInt(OFF_USED_COLUMNS));
+        byte[] name = new byte[NAME_BYTES];
+        for (int column = 0; column < used; column++)
+        {
+            int offset = OFF_NAMES + column * NAME_BYTES;
+            int length = Math.min(NAME_BYTES - 1, map.get(offset) & 0xFF);
+            for (int i = 0; i < length; i++)
+            {
+                name[i] = map.get(offset + 1 + i);
+            }
+
+            BankLocation location = BankDataCodec.lookupLocation(name, length);
+            if (location != null)
+            {
+                columnForOrdinal[location.ordinal()] = column;
+            }
+        }
+    }
+
+    private void copyInto(BankLedgerStore store)
+    {
+        resolveColumns();
+        for (int slot = 0; slot < capacity; slot++)
+        {
+            int base = slotOffset(slot);
+            int itemId = map.getInt(base);
+            if (itemId <= 0)
+            {
+                continue;
+            }
+
+            for (int ordinal = 0; ordinal < columnForOrdinal.length; ordinal++)
+            {
+                int column = columnForOrdinal[ordinal];
+                if (column < 0)
+                {
+                    continue;
+                }
+
+                int quantity = map.getInt(base + 4 + column * 4);
+                if (quantity > 0)
+                {
+                    store.setQuantity(itemId, BankLedgerStore.LOCATIONS[ordinal], quantity);
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------
+    // Mapping
+    // ------------------------------------------------------------
+
+    private void remapIfGrown() throws IOException
+    {
+        if (map.getInt(OFF_CAPACITY) != capacity)
+        {
+            remap();
+        }
+    }
+
+    private void remap() throws IOException
+    {
+        long size = channel.size();
+        if (size < HEADER_BYTES)
+        {
+            throw new IOException("Mapped ledger " + file.getName() + " is truncated");
+        }
+
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        int newCapacity = header.getInt(OFF_CAPACITY);
+        if (Integer.bitCount(newCapacity) != 1 || HEADER_BYTES + (long) newCapacity * SLOT_BYTES > size)
+        {
+            throw new IOException("Mapped ledger " + file.getName() + " has a bad capacity " + newCapacity);
+        }
+
+        capacity = newCapacity;
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) capacity * SLOT_BYTES);
+    }
+
+    private static int slotOffset(int slot)
+    {
+        return HEADER_BYTES + slot * SLOT_BYTES;
+    }
+
+    private static int index(int itemId, int mask)
+    {
+        int h = itemId * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
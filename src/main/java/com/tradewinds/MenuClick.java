@@ -0,0 +1,66 @@
+package com.tradewinds;
+
+import net.runelite.api.MenuAction;
+import net.runelite.api.events.MenuOptionClicked;
+
+/**
+ * One menu click, classified once by {@link MenuClickDispatcher} and handed to
+ * every rule in turn. The dispatcher reuses a single instance on the client
+ * thread, so rules must not keep a reference past their own evaluation.
+ */
+public final class MenuClick
+{
+    public enum Kind
+    {
+        /** A {@link MenuAction#RUNELITE} entry added by a plugin, ours included. */
+        CUSTOM,
+        /** An option on an item in the bank interface. */
+        BANK_ITEM,
+        /** Anything else the game itself put in the menu. */
+        OTHER
+    }
+
+    private MenuOptionClicked event;
+    private Kind kind;
+    private int bankSlot;
+    private int bankItemId;
+
+    void reset(MenuOptionClicked event, Kind kind, int bankSlot, int bankItemId)
+    {
+        this.event = event;
+        this.kind = kind;
+        this.bankSlot = bankSlot;
+        this.bankItemId = bankItemId;
+    }
+
+    public MenuOptionClicked getEvent()
+    {
+        return event;
+    }
+
+    public Kind getKind()
+    {
+        return kind;
+    }
+
+    public String getOption()
+    {
+        return event.getMenuOption();
+    }
+
+    /**
+     * @return the bank slot clicked, or -1 unless this is a {@link Kind#BANK_ITEM} click
+     */
+    public int getBankSlot()
+    {
+        return bankSlot;
+    }
+
+    /**
+     * @return the item in the clicked bank slot, or -1 if there is none
+     */
+    public int getBankItemId()
+    {
+        return bankItemId;
+    }
+}
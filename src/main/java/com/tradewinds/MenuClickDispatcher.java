@@ -0,0 +1,166 @@
+package com.tradewinds;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.runelite.api.Client;
+import net.runelite.api.InventoryID;
+import net.runelite.api.Item;
+import net.runelite.api.ItemContainer;
+import net.runelite.api.MenuAction;
+import net.runelite.api.events.MenuOptionClicked;
+import net.runelite.api.widgets.WidgetID;
+import net.runelite.api.widgets.WidgetInfo;
+
+/**
+ * Single entry point for menu clicks. Each click is classified once, by menu
+ * action and widget group, and then offered to an ordered table of rules. The
+ * first rule that handles or consumes the click ends evaluation.
+ */
+@Slf4j
+@Singleton
+public class MenuClickDispatcher
+{
+    private final Client client;
+    private final BankTracker bankTracker;
+    private final List<MenuClickRule> rules;
+    private final MenuClick click = new MenuClick();
+    private final LatencyHistogram dispatchTimings;
+
+    @Inject
+    public MenuClickDispatcher(Client client, TradeWindsMenuService menuService,
+                               TradeWindsRestrictionService restrictionService, TradeWindsMetrics metrics,
+                               BankTracker bankTracker)
+    {
+        this.client = client;
+        this.bankTracker = bankTracker;
+        this.rules = Collections.unmodifiableList(Arrays.asList(
+                new MenuClickRule("Locations option", menuService::handleLocationsOption,
+                        MenuClick.Kind.CUSTOM),
+                new MenuClickRule("Local withdraw limit", menuService::enforceWithdrawLimit,
+                        MenuClick.Kind.BANK_ITEM),
+                new MenuClickRule("Teleport cargo", restrictionService::checkTeleportCargo,
+                        MenuClick.Kind.OTHER),
+                new MenuClickRule("Grand Exchange", restrictionService::checkGrandExchange,
+                        MenuClick.Kind.OTHER)
+        ));
+
+        this.dispatchTimings = metrics.histogram("menu.click");
+        for (MenuClickRule rule : rules)
+        {
+            metrics.register("menu.click." + metricName(rule.getName()), rule.getTimings());
+        }
+    }
+
+    public void dispatch(MenuOptionClicked event)
+    {
+        long dispatchStart = System.nanoTime();
+        classify(event);
+
+        try
+        {
+            for (MenuClickRule rule : rules)
+            {
+                if (!rule.appliesTo(click.getKind()))
+                {
+                    continue;
+                }
+
+                TradeWindsEvents.MenuRule jfrEvent = new TradeWindsEvents.MenuRule();
+                jfrEvent.begin();
+                long start = System.nanoTime();
+                boolean stop = rule.evaluate(click) || event.isConsumed();
+                rule.record(System.nanoTime() - start, stop);
+                commitRuleEvent(jfrEvent, rule, stop);
+
+                if (stop)
+                {
+                    log.debug("Menu click '{}' stopped at rule {}", event.getMenuOption(), rule.getName());
+                    break;
+                }
+            }
+        }
+        finally
+        {
+            click.reset(null, null, -1, -1);
+            dispatchTimings.recordSince(dispatchStart);
+        }
+    }
+
+    /**
+     * The rule table in evaluation order, with per-rule timings.
+     */
+    public List<MenuClickRule> getRules()
+    {
+        return rules;
+    }
+
+    private void commitRuleEvent(TradeWindsEvents.MenuRule jfrEvent, MenuClickRule rule, boolean stopped)
+    {
+        if (jfrEvent.shouldCommit())
+        {
+            jfrEvent.rule = rule.getName();
+            jfrEvent.option = click.getOption();
+            jfrEvent.kind = click.getKind().name();
+            jfrEvent.location = TradeWindsEvents.nameOf(bankTracker.getCurrentBankLocation());
+            jfrEvent.itemId = click.getBankItemId();
+            jfrEvent.stopped = stopped;
+            jfrEvent.commit();
+        }
+    }
+
+    // "Local withdraw limit" -> "localWithdrawLimit"
+    private static String metricName(String ruleName)
+    {
+        StringBuilder sb = new StringBuilder();
+        boolean upper = false;
+        for (char c : ruleName.toCharArray())
+        {
+            if (c == ' ')
+            {
+                upper = sb.length() > 0;
+                continue;
+            }
+            sb.append(upper ? Character.toUpperCase(c) : Character.toLowerCase(c));
+            upper = false;
+        }
+        return sb.toString();
+    }
+
+    private void classify(MenuOptionClicked event)
+    {
+        MenuAction action = event.getMenuAction();
+        if (action == MenuAction.RUNELITE)
+        {
+            click.reset(event, MenuClick.Kind.CUSTOM, -1, -1);
+            return;
+        }
+
+        // For bank widget actions, param1 is the widget and param0 the slot index
+        boolean widgetOp = action == MenuAction.CC_OP || action == MenuAction.CC_OP_LOW_PRIORITY;
+        if (!widgetOp || WidgetInfo.TO_GROUP(event.getParam1()) != WidgetID.BANK_GROUP_ID)
+        {
+            click.reset(event, MenuClick.Kind.OTHER, -1, -1);
+            return;
+        }
+
+        int slot = event.getParam0();
+        int itemId = -1;
+        ItemContainer bank = client.getItemContainer(InventoryID.BANK);
+        if (bank != null && slot >= 0 && slot < bank.size())
+        {
+            Item item = bank.getItem(slot);
+            if (item != null && item.getId() > 0)
+            {
+                itemId = item.getId();
+            }
+        }
+
+        click.reset(event, MenuClick.Kind.BANK_ITEM, slot, itemId);
+    }
+}
@@ -0,0 +1,90 @@
+package com.tradewinds;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * A named step in the menu click table, with the kinds of click it cares about
+ * and the time spent evaluating it.
+ */
+public final class MenuClickRule
+{
+    private final String name;
+    private final int kindMask;
+    private final Predicate<MenuClick> handler;
+
+    private final LatencyHistogram timings = new LatencyHistogram();
+    private final LongAdder stops = new LongAdder();
+
+    /**
+     * @param handler returns true once the click has been dealt with, which ends
+     * evaluation; consuming the event has the same effect
+     */
+    public MenuClickRule(String name, Predicate<MenuClick> handler, MenuClick.Kind... kinds)
+    {
+        int mask = 0;
+        for (MenuClick.Kind kind : kinds)
+        {
+            mask |= 1 << kind.ordinal();
+        }
+
+        this.name = name;
+        this.kindMask = mask;
+        this.handler = handler;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    boolean appliesTo(MenuClick.Kind kind)
+    {
+        return (kindMask & 1 << kind.ordinal()) != 0;
+    }
+
+    boolean evaluate(MenuClick click)
+    {
+        return handler.test(click);
+    }
+
+    void record(long nanos, boolean stopped)
+    {
+        timings.record(nanos);
+        if (stopped)
+        {
+            stops.increment();
+        }
+    }
+
+    /**
+     * Evaluation times; the dispatcher publishes it as a metric.
+     */
+    public LatencyHistogram getTimings()
+    {
+        return timings;
+    }
+
+    public long getEvaluations()
+    {
+        return timings.getCount();
+    }
+
+    /**
+     * @return how many clicks this rule handled or consumed
+     */
+    public long getStops()
+    {
+        return stops.sum();
+    }
+
+    public long getTotalNanos()
+    {
+        return timings.getTotalNanos();
+    }
+
+    public long getMaxNanos()
+    {
+        return timings.getMaxNanos();
+    }
+}
@@ -0,0 +1,342 @@
+package com.tradewinds;
+
+import net.runelite.api.MenuAction;
+import net.runelite.api.MenuEntry;
+import net.runelite.api.NPC;
+import net.runelite.api.widgets.WidgetInfo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides which menu clicks are teleports and which open the Grand Exchange,
+ * from the {@code restriction-rules.txt} resource.
+ * <p>
+ * The resource is compiled once into bitsets over item, NPC, object and interface
+ * ids and flag tables over {@link MenuAction}, so classifying a click is a few
+ * array probes. Option text is only compared, exactly, once the action matched.
+ * The only substring test left is on spell names, and only for clicks inside a
+ * spellbook.
+ */
+public final class RestrictionRules
+{
+    static final String RESOURCE = "restriction-rules.txt";
+
+    private static final MenuAction[] ACTIONS = MenuAction.values();
+
+    private final BitSet teleportItems = new BitSet();
+    private final BitSet carryItems = new BitSet();
+    private final boolean[] itemActions = new boolean[ACTIONS.length];
+    private final BitSet notTeleportItems = new BitSet();
+    private final Set<String> teleportOptions = new HashSet<>();
+    private final Set<String> teleportItemOptions = new HashSet<>();
+
+    private final boolean[] widgetActions = new boolean[ACTIONS.length];
+    private final BitSet spellbooks = new BitSet();
+    private final int[] teleportSpells;
+    private final String[] teleportSpellNames;
+
+    private final BitSet geNpcs = new BitSet();
+    private final BitSet geObjects = new BitSet();
+    private final boolean[] geActions = new boolean[ACTIONS.length];
+    private final Set<String> geOptions = new HashSet<>();
+    private final BitSet geInterfaces = new BitSet();
+
+    private static final class DefaultHolder
+    {
+        static final RestrictionRules INSTANCE = fromResource();
+    }
+
+    public static RestrictionRules getDefault()
+    {
+        return DefaultHolder.INSTANCE;
+    }
+
+    private static RestrictionRules fromResource()
+    {
+        InputStream in = RestrictionRules.class.getResourceAsStream(RESOURCE);
+        if (in == null)
+        {
+            throw new IllegalStateException("Missing resource " + RESOURCE);
+        }
+
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8))
+        {
+            return new RestrictionRules(reader);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException naming the line of the first malformed rule
+     */
+    RestrictionRules(Reader source) throws IOException
+    {
+        List<Integer> spells = new ArrayList<>();
+        List<String> spellNames = new ArrayList<>();
+
+        BufferedReader reader = new BufferedReader(source);
+        String text;
+        int line = 0;
+        while ((text = reader.readLine()) != null)
+        {
+            line++;
+            int comment = text.indexOf('#');
+            if (comment >= 0)
+            {
+                text = text.substring(0, comment);
+            }
+
+            text = text.trim();
+            if (text.isEmpty())
+            {
+                continue;
+            }
+
+            try
+            {
+                parseRule(text, spells, spellNames);
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new IllegalArgumentException(RESOURCE + ":" + line + ": " + e.getMessage(), e);
+            }
+        }
+
+        teleportSpells = spells.stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+        teleportSpellNames = spellNames.toArray(new String[0]);
+    }
+
+    // ------------------------------------------------------------
+    // Classification
+    // ------------------------------------------------------------
+
+    /**
+     * @return whether the entry uses an item's teleport option or casts a teleport spell
+     */
+    public boolean isTeleport(MenuEntry entry)
+    {
+        int action = entry.getType().ordinal();
+
+        if (itemActions[action])
+        {
+            int itemId = entry.getItemId();
+            String option = entry.getOption();
+            if (itemId > 0 && !notTeleportItems.get(itemId)
+                    && (teleportOptions.contains(option)
+                    || teleportItems.get(itemId) && teleportItemOptions.contains(option)))
+            {
+                return true;
+            }
+        }
+
+        if (widgetActions[action])
+        {
+            int widgetId = entry.getParam1();
+            if (widgetId >= 0 && spellbooks.get(WidgetInfo.TO_GROUP(widgetId)))
+            {
+                return Arrays.binarySearch(teleportSpells, widgetId) >= 0
+                        || hasTeleportSpellName(entry.getTarget());
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return whether the entry opens or operates the Grand Exchange
+     */
+    public boolean isGrandExchange(MenuEntry entry)
+    {
+        int action = entry.getType().ordinal();
+
+        if (widgetActions[action])
+        {
+            int widgetId = entry.getParam1();
+            if (widgetId >= 0 && geInterfaces.get(WidgetInfo.TO_GROUP(widgetId)))
+            {
+                return true;
+            }
+        }
+
+        if (!geActions[action] || !geOptions.contains(entry.getOption()))
+        {
+            return false;
+        }
+
+        NPC npc = entry.getNpc();
+        if (npc != null)
+        {
+            return npc.getId() >= 0 && geNpcs.get(npc.getId());
+        }
+
+        // Object options carry the object id as the identifier
+        int objectId = entry.getIdentifier();
+        return objectId >= 0 && geObjects.get(objectId);
+    }
+
+    /**
+     * @return whether the item may be carried while teleporting; teleport items always may
+     */
+    public boolean isAllowedCargo(int itemId)
+    {
+        return itemId > 0 && (carryItems.get(itemId) || teleportItems.get(itemId));
+    }
+
+    private boolean hasTeleportSpellName(String target)
+    {
+        if (target == null)
+        {
+            return false;
+        }
+
+        for (String name : teleportSpellNames)
+        {
+            if (target.contains(name))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------
+    // Resource parsing
+    // ------------------------------------------------------------
+
+    private void parseRule(String text, List<Integer> spells, List<String> spellNames)
+    {
+        String[] tokens = text.split("\\s+");
+        String keyword = tokens[0];
+
+        if (keyword.equals("teleport-spell-name"))
+        {
+            spellNames.add(restOfLine(text, keyword));
+            return;
+        }
+
+        if (keyword.equals("teleport-option"))
+        {
+            teleportOptions.add(restOfLine(text, keyword));
+            return;
+        }
+
+        if (keyword.equals("teleport-item-option"))
+        {
+            teleportItemOptions.add(restOfLine(text, keyword));
+            return;
+        }
+
+        if (tokens.length < 2)
+        {
+            throw new IllegalArgumentException(keyword + " needs at least one value");
+        }
+
+        switch (keyword)
+        {
+            case "teleport-item":
+                addIds(teleportItems, tokens);
+                break;
+            case "not-teleport-item":
+                addIds(notTeleportItems, tokens);
+                break;
+            case "carry":
+                addIds(carryItems, tokens);
+                break;
+            case "item-action":
+                addActions(itemActions, tokens);
+                break;
+            case "widget-action":
+                addActions(widgetActions, tokens);
+                break;
+            case "spellbook":
+                addIds(spellbooks, tokens);
+                break;
+            case "teleport-spell":
+                if (tokens.length != 3)
+                {
+                    throw new IllegalArgumentException("expected teleport-spell <group> <child>");
+                }
+                int group = parseId(tokens[1]);
+                int child = parseId(tokens[2]);
+                if (group > 0xFFFF || child > 0xFFFF)
+                {
+                    throw new IllegalArgumentException("component " + group + ":" + child + " out of range");
+                }
+                spells.add(group << 16 | child);
+                break;
+            case "ge-npc":
+                addIds(geNpcs, tokens);
+                break;
+            case "ge-object":
+                addIds(geObjects, tokens);
+                break;
+            case "ge-action":
+                addActions(geActions, tokens);
+                break;
+            case "ge-option":
+                addOptions(geOptions, tokens);
+                break;
+            case "ge-interface":
+                addIds(geInterfaces, tokens);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown rule " + keyword);
+        }
+    }
+
+    private static String restOfLine(String text, String keyword)
+    {
+        String phrase = text.substring(keyword.length()).trim();
+        if (phrase.isEmpty())
+        {
+            throw new IllegalArgumentException(keyword + " needs a phrase");
+        }
+        return phrase;
+    }
+
+    private static void addIds(BitSet set, String[] tokens)
+    {
+        for (int i = 1; i < tokens.length; i++)
+        {
+            set.set(parseId(tokens[i]));
+        }
+    }
+
+    private static void addActions(boolean[] table, String[] tokens)
+    {
+        for (int i = 1; i < tokens.length; i++)
+        {
+            table[MenuAction.valueOf(tokens[i]).ordinal()] = true;
+        }
+    }
+
+    private static void addOptions(Set<String> options, String[] tokens)
+    {
+        options.addAll(Arrays.asList(tokens).subList(1, tokens.length));
+    }
+
+    private static int parseId(String token)
+    {
+        int value = Integer.parseInt(token);
+        if (value < 0)
+        {
+            throw new IllegalArgumentException(token + " out of range");
+        }
+        return value;
+    }
+}
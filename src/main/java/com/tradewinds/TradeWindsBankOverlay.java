@@ -1,17 +1,22 @@
 package com.tradewinds;
 
 import net.runelite.api.Client;
-import net.runelite.api.ItemComposition;
+import net.runelite.api.InventoryID;
+import net.runelite.api.events.ItemContainerChanged;
 import net.runelite.api.widgets.WidgetItem;
+import net.runelite.client.eventbus.Subscribe;
+import net.runelite.client.events.ConfigChanged;
 import net.runelite.client.ui.overlay.WidgetItemOverlay;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.awt.Color;
+import java.awt.Dimension;
 import java.awt.Font;
-import java.awt.FontMetrics;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.LongAdder;
 
 @Singleton
 public class TradeWindsBankOverlay extends WidgetItemOverlay
@@ -19,126 +24,196 @@ public class TradeWindsBankOverlay extends WidgetItemOverlay
     private final BankLedgerService bankLedgerService;
     private final BankTracker bankTracker;
     private final TradeWindsConfig config;
-    private final Client client; // <-- add this
+    private final ItemMetadataCache itemMetadataCache;
+    private final Client client;
+    private final LatencyHistogram renderTimings;
+    private final LongAdder snapshotRebuilds;
+
+    private static final Color TEXT_COLOR = new Color(0, 255, 255);
+    private static final Color DIM_COLOR = new Color(0, 0, 0, 120);
+
+    // Rebuilt only when the ledger, bank location, bank contents or config move on
+    private BankOverlaySnapshot snapshot = BankOverlaySnapshot.EMPTY;
+    private volatile int configGeneration;
+    private int bankGeneration;
+
+    // Labels are blitted from pre-rendered sprites in a font derived once, not per slot
+    private final LabelSpriteCache labelSprites =
+            new LabelSpriteCache(Color.BLACK, TEXT_COLOR, LabelSpriteCache.DEFAULT_CAPACITY);
+    private Font baseFont;
+    // One translucent tile shared by every dimmed slot, rebuilt if the slot size changes
+    private BufferedImage dimTile;
+
+    // Slots labelled in the current frame, for the frame's JFR event
+    private int slotsDrawn;
 
     @Inject
     public TradeWindsBankOverlay(
             BankLedgerService bankLedgerService,
             BankTracker bankTracker,
             TradeWindsConfig config,
-            Client client
+            ItemMetadataCache itemMetadataCache,
+            Client client,
+            TradeWindsMetrics metrics
     )
     {
         this.bankLedgerService = bankLedgerService;
         this.bankTracker = bankTracker;
         this.config = config;
+        this.itemMetadataCache = itemMetadataCache;
         this.client = client;
+        this.renderTimings = metrics.histogram("overlay.bank");
+        this.snapshotRebuilds = metrics.counter("overlay.bank.rebuilds");
 
         showOnBank();
     }
 
-    // -------- placeholders ----------
-    private boolean isPlaceholderItem(int itemId)
+    @Subscribe
+    public void onConfigChanged(ConfigChanged event)
     {
-        if (itemId <= 0)
+        if (TradeWindsConfig.GROUP.equals(event.getGroup()))
         {
-            return false;
+            configGeneration++;
         }
+    }
 
-        ItemComposition comp = client.getItemDefinition(itemId);
-        if (comp == null)
+    @Subscribe
+    public void onItemContainerChanged(ItemContainerChanged event)
+    {
+        if (event.getContainerId() == InventoryID.BANK.getId())
         {
-            return false;
+            bankGeneration++;
         }
-
-        return comp.getPlaceholderTemplateId() != -1;
     }
 
-    // -------- quantity formatting K/M/B ----------
-    private static String formatQuantity(long qty)
+    @Override
+    public Dimension render(Graphics2D graphics)
     {
-        if (qty >= 1_000_000_000L)
-        {
-            return trimZero(String.format("%.1fB", qty / 1_000_000_000.0));
-        }
-        else if (qty >= 1_000_000L)
+        long start = System.nanoTime();
+        TradeWindsEvents.OverlayFrame event = new TradeWindsEvents.OverlayFrame();
+        event.begin();
+        slotsDrawn = 0;
+
+        try
         {
-            return trimZero(String.format("%.1fM", qty / 1_000_000.0));
+            return super.render(graphics);
         }
-        else if (qty >= 1_000L)
+        finally
         {
-            return trimZero(String.format("%.1fK", qty / 1_000.0));
+            renderTimings.recordSince(start);
+            if (event.shouldCommit())
+            {
+                event.overlay = "bank";
+                event.location = TradeWindsEvents.nameOf(bankTracker.getCurrentBankLocation());
+                event.items = slotsDrawn;
+                event.commit();
+            }
         }
-
-        return Long.toString(qty);
-    }
-
-    private static String trimZero(String s)
-    {
-        // "1.0K" -> "1K"
-        return s.replace(".0", "");
     }
 
     @Override
     public void renderItemOverlay(Graphics2D graphics, int itemId, WidgetItem itemWidget)
     {
-        if (!config.enableLocalBanks() || !config.showLocalGlobal())
-        {
-            return;
-        }
-
-        // Skip placeholders completely
-        if (isPlaceholderItem(itemId))
+        int index = labelIndex(itemId);
+        if (index >= 0)
         {
-            return;
+            // Only asked for once there is something to draw; the client builds it per call
+            drawLabel(graphics, index, itemWidget.getCanvasBounds());
         }
+    }
 
-        int local = bankLedgerService.getLocalQuantity(itemId, bankTracker.getCurrentBankLocation());
-        int global = bankLedgerService.getGlobalQuantity(itemId);
-
-        if (global == 0)
+    /**
+     * @return the item's entry in the current snapshot, or -1 if nothing is drawn for it
+     */
+    private int labelIndex(int itemId)
+    {
+        BankOverlaySnapshot snapshot = currentSnapshot();
+        int index = snapshot.indexOf(itemId);
+        // Skip placeholders completely, and items with nothing to show
+        if (index < 0 || snapshot.isPlaceholder(index) || snapshot.getLabel(index) == null)
         {
-            return; // nothing to show
+            return -1;
         }
+        return index;
+    }
 
-        Rectangle bounds = itemWidget.getCanvasBounds();
+    /**
+     * Draws the label, and the dim tile if needed, for an entry from {@link #labelIndex}.
+     */
+    private void drawLabel(Graphics2D graphics, int index, Rectangle bounds)
+    {
         if (bounds == null)
         {
             return;
         }
 
-        // local/global with K/M/B formatting
-        String text = formatQuantity(local) + "/" + formatQuantity(global);
-
         Font originalFont = graphics.getFont();
-        Font smallFont = originalFont.deriveFont(originalFont.getSize2D() - 1.0f);
-        graphics.setFont(smallFont);
+        if (originalFont != baseFont)
+        {
+            baseFont = originalFont;
+            if (labelSprites.useFont(graphics, originalFont.deriveFont(originalFont.getSize2D() - 1.0f)))
+            {
+                snapshot.clearSprites();
+            }
+        }
 
-        FontMetrics fm = graphics.getFontMetrics();
-        int textWidth = fm.stringWidth(text);
-        int textHeight = fm.getAscent();
+        // local/global with K/M/B formatting, shadow included
+        BufferedImage sprite = snapshot.getSprite(index);
+        if (sprite == null)
+        {
+            sprite = labelSprites.get(snapshot.getLabel(index));
+            snapshot.setSprite(index, sprite);
+        }
 
         int padding = 1;
-        int x = (int) (bounds.getX() + bounds.getWidth() - textWidth - padding);
-        int y = (int) (bounds.getY() + textHeight + padding);
+        // The sprite is one pixel wider than the text for the shadow
+        int x = bounds.x + bounds.width - (sprite.getWidth() - 1) - padding;
+        int y = bounds.y + padding;
+        graphics.drawImage(sprite, x, y, null);
+        slotsDrawn++;
 
-        // Shadow
-        graphics.setColor(Color.BLACK);
-        graphics.drawString(text, x + 1, y + 1);
-
-        // Foreground
-        graphics.setColor(new Color(0, 255, 255));
-        graphics.drawString(text, x, y);
+        // Dim items with zero LOCAL storage
+        if (snapshot.isDimmed(index))
+        {
+            graphics.drawImage(dimTile(bounds.width, bounds.height), bounds.x, bounds.y, null);
+        }
+    }
 
-        graphics.setFont(originalFont);
+    private BufferedImage dimTile(int width, int height)
+    {
+        if (dimTile == null || dimTile.getWidth() != width || dimTile.getHeight() != height)
+        {
+            dimTile = new BufferedImage(Math.max(1, width), Math.max(1, height), BufferedImage.TYPE_INT_ARGB_PRE);
+            Graphics2D g = dimTile.createGraphics();
+            try
+            {
+                g.setColor(DIM_COLOR);
+                g.fillRect(0, 0, width, height);
+            }
+            finally
+            {
+                g.dispose();
+            }
+        }
+        return dimTile;
+    }
 
-        // Dim items with zero LOCAL storage
-        if (local == 0)
+    private BankOverlaySnapshot currentSnapshot()
+    {
+        BankLocation location = bankTracker.getCurrentBankLocation();
+        int ledgerVersion = bankLedgerService.getVersion();
+        if (snapshot.isCurrent(ledgerVersion, location, configGeneration, bankGeneration))
         {
-            Color old = graphics.getColor();
-            graphics.setColor(new Color(0, 0, 0, 120));
-            graphics.fill(bounds);
-            graphics.setColor(old);
+            return snapshot;
         }
+
+        snapshotRebuilds.increment();
+        // Config is read here rather than per slot; its proxy is not free
+        boolean enabled = config.enableLocalBanks() && config.showLocalGlobal() && bankLedgerService.isReady();
+        snapshot = enabled
+                ? BankOverlaySnapshot.build(client.getItemContainer(InventoryID.BANK), bankLedgerService,
+                        itemMetadataCache, ledgerVersion, location, configGeneration, bankGeneration)
+                : BankOverlaySnapshot.empty(ledgerVersion, location, configGeneration, bankGeneration);
+        return snapshot;
     }
 }
@@ -57,6 +57,17 @@ public interface TradeWindsConfig extends Config
         return false; // optional for Phase 1
     }
 
+    @ConfigItem(
+            keyName = "storageMode",
+            name = "Ledger storage",
+            description = "Snapshot rewrites the whole ledger on each save; Journal appends only the changes and compacts in the background; Mapped updates a shared file in place so several clients can use one ledger; Sharded keeps one file per bank and loads only the banks you visit",
+            position = 5
+    )
+    default LedgerStorageMode storageMode()
+    {
+        return LedgerStorageMode.JOURNAL;
+    }
+
     // --- DEBUG / DEV ---
 
     @ConfigItem(
@@ -70,6 +81,17 @@ public interface TradeWindsConfig extends Config
         return false;
     }
 
+    @ConfigItem(
+            keyName = "recordEvents",
+            name = "Record events",
+            description = "Developer tool: record bank and menu events to tradewinds/recordings for replaying offline.",
+            position = 51
+    )
+    default boolean recordEvents()
+    {
+        return false;
+    }
+
     // Internal storage for balances JSON (we don't actually read this; it just reserves the key)
     @ConfigItem(
             keyName = "balances",
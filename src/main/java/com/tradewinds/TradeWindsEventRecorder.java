@@ -0,0 +1,362 @@
+package com.tradewinds;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.ScheduledExecutorService;
+
+import net.runelite.api.Client;
+import net.runelite.api.GameState;
+import net.runelite.api.InventoryID;
+import net.runelite.api.ItemContainer;
+import net.runelite.api.events.GameStateChanged;
+import net.runelite.api.events.ItemContainerChanged;
+import net.runelite.api.events.MenuEntryAdded;
+import net.runelite.api.events.MenuOpened;
+import net.runelite.api.events.MenuOptionClicked;
+import net.runelite.api.events.WidgetClosed;
+import net.runelite.api.events.WidgetLoaded;
+import net.runelite.api.widgets.WidgetID;
+import net.runelite.client.eventbus.EventBus;
+import net.runelite.client.eventbus.Subscribe;
+
+/**
+ * Records the bank and menu events TradeWinds handles, so a real session can be
+ * replayed offline. Runs only while the "Record events" option is set; otherwise
+ * it is not even subscribed.
+ * <p>
+ * Events are encoded on the client thread into memory, in the format described by
+ * {@link EventRecording}, and appended to {@code recordings/events-<time>.twr}
+ * in the TradeWinds directory on the background executor. A recording starts with
+ * the config, the carried and banked items and, once loaded, the ledger, so
+ * replaying it needs nothing else. Start it before opening the bank: the bank a
+ * recording starts in is unknown to the replay until it is opened again.
+ */
+@Slf4j
+@Singleton
+public class TradeWindsEventRecorder
+{
+    static final String DIRECTORY_NAME = "recordings";
+    private static final String FILE_PREFIX = "events-";
+    private static final String FILE_SUFFIX = ".twr";
+
+    // Handed to the executor at the next tick once this much is buffered
+    private static final int FLUSH_BYTES = 64 * 1024;
+
+    private final Client client;
+    private final TradeWindsConfig config;
+    private final EventBus eventBus;
+    private final BankTracker bankTracker;
+    private final BankLedgerService bankLedgerService;
+    private final ScheduledExecutorService executor;
+
+    private File directory;
+    // Both null while not recording
+    private EventRecording.Encoder encoder;
+    private RecordingFile file;
+    private int flags;
+
+    @Inject
+    public TradeWindsEventRecorder(Client client, TradeWindsConfig config, EventBus eventBus, BankTracker bankTracker,
+                                   BankLedgerService bankLedgerService, ScheduledExecutorService executor)
+    {
+        this.client = client;
+        this.config = config;
+        this.eventBus = eventBus;
+        this.bankTracker = bankTracker;
+        this.bankLedgerService = bankLedgerService;
+        this.executor = executor;
+    }
+
+    /**
+     * Must be called on the client thread, where events are encoded.
+     *
+     * @param directory the TradeWinds directory, or null to stop and stay stopped
+     */
+    public void setDirectory(File directory)
+    {
+        this.directory = directory;
+        if (directory == null)
+        {
+            stop();
+        }
+    }
+
+    public boolean isRecording()
+    {
+        return encoder != null;
+    }
+
+    /**
+     * Starts or stops recording to follow the config and hands buffered events to
+     * the writer. Called every game tick.
+     */
+    public void update()
+    {
+        boolean wanted = directory != null && config.recordEvents();
+        if (wanted != isRecording())
+        {
+            if (wanted)
+            {
+                start();
+            }
+            else
+            {
+                stop();
+            }
+            return;
+        }
+
+        if (!wanted)
+        {
+            return;
+        }
+
+        if (file.failed)
+        {
+            log.warn("Stopped recording TradeWinds events: could not write {}", file.file);
+            stop();
+            return;
+        }
+
+        int current = EventRecording.flagsOf(config);
+        if (current != flags)
+        {
+            flags = current;
+            encoder.config(client.getTickCount(), System.nanoTime(), flags);
+        }
+
+        if (encoder.size() >= FLUSH_BYTES)
+        {
+            flush(false);
+        }
+    }
+
+    /**
+     * Writes out whatever is buffered and closes the recording.
+     */
+    public void stop()
+    {
+        if (encoder == null)
+        {
+            return;
+        }
+
+        eventBus.unregister(this);
+        flush(true);
+        log.info("Stopped recording TradeWinds events to {}", file.file.getName());
+        encoder = null;
+        file = null;
+    }
+
+    /**
+     * Records a ledger load completing. Called on the client thread, before the
+     * bank is caught up with the loaded ledger.
+     */
+    public void recordLedgerLoaded()
+    {
+        if (encoder != null)
+        {
+            writeLedger();
+        }
+    }
+
+    private void start()
+    {
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        file = new RecordingFile(new File(new File(directory, DIRECTORY_NAME), FILE_PREFIX + stamp + FILE_SUFFIX));
+        encoder = new EventRecording.Encoder();
+
+        long now = System.nanoTime();
+        int tick = client.getTickCount();
+        encoder.header(System.currentTimeMillis(), now);
+        flags = EventRecording.flagsOf(config);
+        encoder.config(tick, now, flags);
+
+        // What the replay cannot learn from events seen after this point
+        for (InventoryID id : new InventoryID[]{InventoryID.INVENTORY, InventoryID.EQUIPMENT, InventoryID.BANK})
+        {
+            ItemContainer container = client.getItemContainer(id);
+            if (container != null)
+            {
+                encoder.container(tick, now, true, id.getId(), container.getItems());
+            }
+        }
+        if (bankLedgerService.isReady())
+        {
+            writeLedger();
+        }
+
+        eventBus.register(this);
+        log.info("Recording TradeWinds events to {}", file.file.getAbsolutePath());
+    }
+
+    private void writeLedger()
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try
+        {
+            BankDataCodec.encode(bankLedgerService.exportBalances(), Channels.newChannel(bytes));
+        }
+        catch (IOException e)
+        {
+            // Cannot happen writing to memory
+            throw new IllegalStateException(e);
+        }
+        encoder.ledgerLoaded(client.getTickCount(), System.nanoTime(), bytes.toByteArray());
+    }
+
+    private void flush(boolean close)
+    {
+        byte[] chunk = encoder.drain();
+        RecordingFile target = file;
+        executor.execute(() ->
+        {
+            target.append(chunk);
+            if (close)
+            {
+                target.close();
+            }
+        });
+    }
+
+    // ------------------------------------------------------------
+    // Recorded events; ahead of every other subscriber, so each is
+    // recorded as the client posted it
+    // ------------------------------------------------------------
+
+    @Subscribe(priority = 1)
+    public void onWidgetLoaded(WidgetLoaded event)
+    {
+        int groupId = event.getGroupId();
+        if (groupId == WidgetID.BANK_GROUP_ID && client.getLocalPlayer() != null)
+        {
+            boolean instanced = client.isInInstancedRegion();
+            encoder.widgetLoaded(client.getTickCount(), System.nanoTime(), groupId,
+                    bankTracker.playerTile(instanced), instanced);
+        }
+        else
+        {
+            encoder.widgetLoaded(client.getTickCount(), System.nanoTime(), groupId, null, false);
+        }
+    }
+
+    @Subscribe(priority = 1)
+    public void onWidgetClosed(WidgetClosed event)
+    {
+        encoder.widgetClosed(client.getTickCount(), System.nanoTime(), event.getGroupId());
+    }
+
+    @Subscribe(priority = 1)
+    public void onItemContainerChanged(ItemContainerChanged event)
+    {
+        int containerId = event.getContainerId();
+        if (containerId == InventoryID.BANK.getId()
+                || containerId == InventoryID.INVENTORY.getId()
+                || containerId == InventoryID.EQUIPMENT.getId())
+        {
+            encoder.container(client.getTickCount(), System.nanoTime(), false, containerId,
+                    event.getItemContainer().getItems());
+        }
+    }
+
+    @Subscribe(priority = 1)
+    public void onMenuEntryAdded(MenuEntryAdded event)
+    {
+        encoder.menuEntryAdded(client.getTickCount(), System.nanoTime(), event.getMenuEntry());
+    }
+
+    @Subscribe(priority = 1)
+    public void onMenuOpened(MenuOpened event)
+    {
+        if (event.getMenuEntries() != null)
+        {
+            encoder.menuOpened(client.getTickCount(), System.nanoTime(), event.getMenuEntries());
+        }
+    }
+
+    @Subscribe(priority = 1)
+    public void onMenuOptionClicked(MenuOptionClicked event)
+    {
+        encoder.menuClicked(client.getTickCount(), System.nanoTime(), event.getMenuEntry());
+    }
+
+    @Subscribe(priority = 1)
+    public void onGameStateChanged(GameStateChanged event)
+    {
+        if (event.getGameState() == GameState.LOGIN_SCREEN)
+        {
+            encoder.loggedOut(client.getTickCount(), System.nanoTime());
+        }
+    }
+
+    /**
+     * The file a recording is appended to, touched only on the executor.
+     */
+    private static final class RecordingFile
+    {
+        final File file;
+        private OutputStream out;
+        volatile boolean failed;
+
+        RecordingFile(File file)
+        {
+            this.file = file;
+        }
+
+        synchronized void append(byte[] chunk)
+        {
+            if (failed)
+            {
+                return;
+            }
+
+            try
+            {
+                if (out == null)
+                {
+                    File parent = file.getParentFile();
+                    if (!parent.isDirectory() && !parent.mkdirs())
+                    {
+                        throw new IOException("could not create " + parent);
+                    }
+                    out = new FileOutputStream(file);
+                }
+                out.write(chunk);
+            }
+            catch (IOException e)
+            {
+                log.warn("Failed to write TradeWinds event recording {}", file, e);
+                failed = true;
+                close();
+            }
+        }
+
+        synchronized void close()
+        {
+            if (out == null)
+            {
+                return;
+            }
+
+            try
+            {
+                out.close();
+            }
+            catch (IOException e)
+            {
+                log.debug("Failed to close {}", file, e);
+            }
+            out = null;
+        }
+    }
+}
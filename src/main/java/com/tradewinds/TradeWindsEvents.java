@@ -0,0 +1,163 @@
+package com.tradewinds;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder events for TradeWinds work, so a recording of a stutter shows
+ * what the plugin was doing next to GC pauses and client thread stalls.
+ * <p>
+ * Enable them with the usual JDK tooling, e.g.
+ * {@code jcmd <pid> JFR.start settings=profile} or
+ * {@code -XX:StartFlightRecording}; they are on in the default settings. Call
+ * sites follow the begin / {@code shouldCommit()} / commit pattern, so with no
+ * recording running an event is never filled in, and once compiled the event
+ * object itself is optimised away.
+ */
+final class TradeWindsEvents
+{
+    private static final String CATEGORY = "TradeWinds";
+
+    private TradeWindsEvents()
+    {
+    }
+
+    @Name("com.tradewinds.Reconcile")
+    @Label("Bank Reconcile")
+    @Category({CATEGORY, "Ledger"})
+    @Description("Ledger reconciled against the bank's contents")
+    @StackTrace(false)
+    static final class Reconcile extends Event
+    {
+        @Label("Bank Location")
+        String location;
+
+        @Label("Kind")
+        @Description("snapshot, changes or totals")
+        String kind;
+
+        @Label("Items Scanned")
+        int itemsScanned;
+
+        @Label("Items Changed")
+        int itemsChanged;
+    }
+
+    @Name("com.tradewinds.StorageSave")
+    @Label("Ledger Save")
+    @Category({CATEGORY, "Storage"})
+    @Description("Ledger written to disk")
+    @StackTrace(false)
+    static final class StorageSave extends Event
+    {
+        @Label("Format")
+        String format;
+
+        @Label("Bank Location")
+        String location;
+
+        @Label("Items")
+        @Description("Items, deltas or shards written, by format")
+        int items;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Succeeded")
+        boolean success;
+    }
+
+    @Name("com.tradewinds.StorageLoad")
+    @Label("Ledger Load")
+    @Category({CATEGORY, "Storage"})
+    @Description("Ledger, or one location's shard of it, read from disk")
+    @StackTrace(false)
+    static final class StorageLoad extends Event
+    {
+        @Label("Format")
+        String format;
+
+        @Label("Bank Location")
+        String location;
+
+        @Label("Items")
+        int items;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Succeeded")
+        boolean success;
+    }
+
+    @Name("com.tradewinds.MenuClickRule")
+    @Label("Menu Click Rule")
+    @Category({CATEGORY, "Menu"})
+    @Description("One rule of the menu click table evaluated")
+    @StackTrace(false)
+    static final class MenuRule extends Event
+    {
+        @Label("Rule")
+        String rule;
+
+        @Label("Option")
+        String option;
+
+        @Label("Click Kind")
+        String kind;
+
+        @Label("Bank Location")
+        String location;
+
+        @Label("Item Id")
+        int itemId;
+
+        @Label("Stopped")
+        @Description("The rule handled or consumed the click")
+        boolean stopped;
+    }
+
+    @Name("com.tradewinds.OverlayFrame")
+    @Label("Overlay Frame")
+    @Category({CATEGORY, "Overlay"})
+    @Description("One frame of a TradeWinds overlay")
+    @StackTrace(false)
+    static final class OverlayFrame extends Event
+    {
+        @Label("Overlay")
+        String overlay;
+
+        @Label("Bank Location")
+        String location;
+
+        @Label("Items")
+        @Description("Bank slots labelled, or panel lines shown")
+        int items;
+    }
+
+    @Name("com.tradewinds.NetworkCall")
+    @Label("Network Call")
+    @Category({CATEGORY, "Network"})
+    @Description("Auth or status service work started from the client thread")
+    @StackTrace(false)
+    // Polled every tick and usually not due; only a call that did work lasts this long
+    @Threshold("1 ms")
+    static final class NetworkCall extends Event
+    {
+        @Label("Operation")
+        String operation;
+    }
+
+    static String nameOf(BankLocation location)
+    {
+        return location != null ? location.name() : null;
+    }
+}
@@ -5,53 +5,97 @@ import javax.inject.Singleton;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
+import java.util.List;
 import java.util.Map;
 
-import net.runelite.api.Client;
-import net.runelite.api.widgets.Widget;
-import net.runelite.api.widgets.WidgetInfo;
-import net.runelite.api.widgets.ItemQuantityMode;
-
-
 import net.runelite.client.ui.overlay.OverlayLayer;
 import net.runelite.client.ui.overlay.OverlayPanel;
 import net.runelite.client.ui.overlay.OverlayPosition;
+import net.runelite.client.ui.overlay.components.LayoutableRenderableEntity;
 import net.runelite.client.ui.overlay.components.LineComponent;
 import net.runelite.client.ui.overlay.components.TitleComponent;
 
+/**
+ * Shows where an item is banked after the "TradeWinds locations" option.
+ * <p>
+ * The panel's components are built once per {@link ItemLocationInfo} and kept
+ * between frames; each frame only lays them out and paints them.
+ */
 @Singleton
 public class TradeWindsItemInfoOverlay extends OverlayPanel
 {
+    private static final Dimension PANEL_SIZE = new Dimension(220, 0);
+
     private final TradeWindsMenuService menuService;
-    private final Client client;
+    private final LatencyHistogram renderTimings;
+
+    // The info the panel's children were built from
+    private ItemLocationInfo shownInfo;
 
     @Inject
-    public TradeWindsItemInfoOverlay(TradeWindsMenuService menuService, Client client)
+    public TradeWindsItemInfoOverlay(TradeWindsMenuService menuService, TradeWindsMetrics metrics)
     {
         this.menuService = menuService;
-        this.client = client;
+        this.renderTimings = metrics.histogram("overlay.itemInfo");
 
         setPosition(OverlayPosition.TOP_LEFT);
         setLayer(OverlayLayer.ABOVE_WIDGETS);
+        setClearChildren(false);
+        panelComponent.setPreferredSize(PANEL_SIZE);
     }
 
     @Override
     public Dimension render(Graphics2D graphics)
     {
-        // Make sure vanilla yellow stack text is disabled while the bank is open
-        hideVanillaBankQuantities();
+        TradeWindsEvents.OverlayFrame event = new TradeWindsEvents.OverlayFrame();
+        event.begin();
+        long start = System.nanoTime();
+        try
+        {
+            return renderPanel(graphics);
+        }
+        finally
+        {
+            renderTimings.recordSince(start);
+            if (shownInfo != null && event.shouldCommit())
+            {
+                event.overlay = "item info";
+                // The title is the first child, the rest are bank lines
+                event.items = panelComponent.getChildren().size() - 1;
+                event.commit();
+            }
+        }
+    }
 
+    private Dimension renderPanel(Graphics2D graphics)
+    {
         ItemLocationInfo info = menuService.getActiveItemInfo();
         if (info == null)
         {
+            if (shownInfo != null)
+            {
+                shownInfo = null;
+                panelComponent.getChildren().clear();
+            }
             return null;
         }
 
-        panelComponent.getChildren().clear();
-        panelComponent.setPreferredSize(new Dimension(220, 0));
+        if (info != shownInfo)
+        {
+            shownInfo = info;
+            buildComponents(info);
+        }
+
+        return super.render(graphics);
+    }
+
+    private void buildComponents(ItemLocationInfo info)
+    {
+        List<LayoutableRenderableEntity> children = panelComponent.getChildren();
+        children.clear();
 
         // Title: item name
-        panelComponent.getChildren().add(
+        children.add(
                 TitleComponent.builder()
                         .text(info.getName())
                         .color(Color.WHITE)
@@ -67,46 +111,12 @@ public class TradeWindsItemInfoOverlay extends OverlayPanel
                 continue;
             }
 
-            String bankName = entry.getKey().name().toLowerCase().replace('_', ' ');
-            bankName = bankName.substring(0, 1).toUpperCase() + bankName.substring(1);
-
-            panelComponent.getChildren().add(
+            children.add(
                     LineComponent.builder()
-                            .left(bankName)
+                            .left(entry.getKey().getDisplayName())
                             .right(Integer.toString(qty))
                             .build()
             );
         }
-
-        return super.render(graphics);
-    }
-
-    // ============================================================
-    // Hide vanilla bank stack quantities
-    // ============================================================
-
-    private void hideVanillaBankQuantities()
-    {
-        Widget container = client.getWidget(WidgetInfo.BANK_ITEM_CONTAINER);
-        if (container == null)
-        {
-            return; // bank not open
-        }
-
-        Widget[] children = container.getDynamicChildren();
-        if (children == null)
-        {
-            return;
-        }
-
-        for (Widget child : children)
-        {
-            // Only touch real items
-            if (child.getItemId() > 0 &&
-                    child.getItemQuantityMode() != ItemQuantityMode.NEVER)
-            {
-                child.setItemQuantityMode(ItemQuantityMode.NEVER);
-            }
-        }
     }
 }
@@ -2,13 +2,9 @@ package com.tradewinds;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
-import java.time.Duration;
-import java.time.Instant;
 import java.util.EnumMap;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.ArrayList;
-import java.util.List;
 
 import net.runelite.api.ChatMessageType;
 import net.runelite.api.Client;
@@ -16,38 +12,54 @@ import net.runelite.api.InventoryID;
 import net.runelite.api.Item;
 import net.runelite.api.ItemContainer;
 import net.runelite.api.MenuAction;
-import net.runelite.api.MenuEntry;
+import net.runelite.api.events.ItemContainerChanged;
 import net.runelite.api.events.MenuEntryAdded;
 import net.runelite.api.events.MenuOpened;
 import net.runelite.api.events.MenuOptionClicked;
+import net.runelite.api.events.WidgetClosed;
+import net.runelite.api.events.WidgetLoaded;
 import net.runelite.api.widgets.WidgetID;
-import net.runelite.api.widgets.WidgetInfo;
 import net.runelite.client.eventbus.Subscribe;
 
 @Singleton
 public class TradeWindsMenuService
 {
-    private static final Duration ITEM_INFO_LIFETIME = Duration.ofSeconds(10);
+    // About ten seconds at 0.6 s per game tick
+    private static final int ITEM_INFO_LIFETIME_TICKS = 17;
 
     private final Client client;
     private final BankLedgerService bankLedgerService;
     private final BankTracker bankTracker;
     private final TradeWindsConfig config;
+    private final ItemMetadataCache itemMetadataCache;
+    private final LatencyHistogram menuOpenedTimings;
+
+    private final BankMenuFilter bankMenuFilter = new BankMenuFilter();
+    private final BankWithdrawTable withdrawTable = new BankWithdrawTable();
 
     private ItemLocationInfo activeItemInfo;
+    // Item last shown while some of its banks were still being read from disk,
+    // shown again once they are in unless the ledger was replaced meanwhile
+    private int refreshItemId = -1;
+    private boolean refreshItemInfo;
+    private int refreshLedgerGeneration;
 
     @Inject
     public TradeWindsMenuService(
             Client client,
             BankLedgerService bankLedgerService,
             BankTracker bankTracker,
-            TradeWindsConfig config
+            TradeWindsConfig config,
+            ItemMetadataCache itemMetadataCache,
+            TradeWindsMetrics metrics
     )
     {
         this.client = client;
         this.bankLedgerService = bankLedgerService;
         this.bankTracker = bankTracker;
         this.config = config;
+        this.itemMetadataCache = itemMetadataCache;
+        this.menuOpenedTimings = metrics.histogram("menu.opened");
     }
 
     // ------------------------------------------------------------
@@ -56,19 +68,25 @@ public class TradeWindsMenuService
 
     public void handleMenuEntryAdded(MenuEntryAdded event)
     {
-        if (event.getType() != MenuAction.CC_OP_LOW_PRIORITY.getId())
+        int widgetId = event.getActionParam1();
+        int groupId = widgetId >> 16;
+        if (groupId != WidgetID.BANK_GROUP_ID)
         {
             return;
         }
 
-        if (!"Examine".equals(event.getOption()))
+        int type = event.getType();
+        if (type == MenuAction.CC_OP.getId() || type == MenuAction.CC_OP_LOW_PRIORITY.getId())
+        {
+            flagForbiddenWithdraw(event);
+        }
+
+        if (type != MenuAction.CC_OP_LOW_PRIORITY.getId())
         {
             return;
         }
 
-        int widgetId = event.getActionParam1();
-        int groupId = widgetId >> 16;
-        if (groupId != WidgetID.BANK_GROUP_ID)
+        if (!"Examine".equals(event.getOption()))
         {
             return;
         }
@@ -101,156 +119,159 @@ public class TradeWindsMenuService
     // ------------------------------------------------------------
 
     @Subscribe
-    public void onMenuOpened(MenuOpened event)
+    public void onWidgetLoaded(WidgetLoaded event)
     {
-        MenuEntry[] entries = event.getMenuEntries();
-        if (entries == null || entries.length == 0)
-        {
-            return;
-        }
-
-        List<MenuEntry> filtered = new ArrayList<>(entries.length);
-
-        for (MenuEntry e : entries)
-        {
-            // Bank item widget id is stored in param1
-            int widgetId = e.getParam1();
-            int groupId = WidgetInfo.TO_GROUP(widgetId);
-
-            if (groupId == WidgetID.BANK_GROUP_ID && "Withdraw-X".equals(e.getOption()))
-            {
-                // Skip this entry – removes X from the bank context menu
-                continue;
-            }
+        bankMenuFilter.onWidgetLoaded(event.getGroupId());
+    }
 
-            filtered.add(e);
-        }
+    @Subscribe
+    public void onWidgetClosed(WidgetClosed event)
+    {
+        bankMenuFilter.onWidgetClosed(event.getGroupId());
+    }
 
-        event.setMenuEntries(filtered.toArray(new MenuEntry[0]));
+    @Subscribe
+    public void onMenuOpened(MenuOpened event)
+    {
+        long start = System.nanoTime();
+        bankMenuFilter.filter(event);
+        menuOpenedTimings.recordSince(start);
     }
 
     // ------------------------------------------------------------
     // Enforce local-bank withdraw limits
     // ------------------------------------------------------------
 
-    @Subscribe
-    public void onMenuOptionClicked(MenuOptionClicked event)
+    /**
+     * Menu click rule: keeps withdraws within what this bank holds.
+     */
+    public boolean enforceWithdrawLimit(MenuClick click)
     {
-        // First, handle our custom RUNELITE menu option
-        if (handleMenuOption(event))
-        {
-            return;
-        }
-
         // Only enforce when local banks feature is enabled
         if (!config.enableLocalBanks())
         {
-            return;
+            return false;
         }
 
-        String option = event.getMenuOption();
-        if (option == null || !option.startsWith("Withdraw"))
+        int code = withdrawTable.decodeOption(click.getOption());
+        int itemId = click.getBankItemId();
+        if (code == BankWithdrawTable.NOT_WITHDRAW || itemId <= 0)
         {
-            return;
+            return false;
         }
 
-        // Only bank item options
-        int widgetId = event.getParam1();
-        int groupId = WidgetInfo.TO_GROUP(widgetId);
-        if (groupId != WidgetID.BANK_GROUP_ID)
+        MenuOptionClicked event = click.getEvent();
+
+        // Quantities read as zero until the ledger is loaded; refuse rather than guess
+        if (!bankLedgerService.isReady())
         {
-            return;
+            event.consume();
+            client.addChatMessage(ChatMessageType.GAMEMESSAGE, "",
+                    "TradeWinds: Your bank ledger is still loading, try again in a moment.", null);
+            return true;
         }
 
-        // For bank widget actions, param0 is the slot index.
-        int slot = event.getParam0();
-        ItemContainer bank = client.getItemContainer(InventoryID.BANK);
-        if (bank == null || slot < 0 || slot >= bank.size())
+        int slot = click.getBankSlot();
+        BankWithdrawTable table = currentWithdrawTable();
+        if (!table.holds(slot, itemId))
         {
-            return;
+            // The bank moved under the table since it was built
+            rebuildWithdrawTable();
+            if (!table.holds(slot, itemId))
+            {
+                return false;
+            }
         }
 
-        Item item = bank.getItem(slot);
-        if (item == null || item.getId() <= 0)
+        if (table.allows(slot, code))
         {
-            return;
+            return false;
         }
 
-        int itemId = item.getId();
-
-        int localQty  = bankLedgerService.getLocalQuantity(itemId, bankTracker.getCurrentBankLocation());
-        int globalQty = bankLedgerService.getGlobalQuantity(itemId);
-
-        // No local stock at all -> block any Withdraw
+        event.consume();
+        int localQty = table.getLocalQuantity(slot);
+        String message;
         if (localQty <= 0)
         {
-            event.consume();
-            client.addChatMessage(ChatMessageType.GAMEMESSAGE, "",
-                    "TradeWinds: You don't have any of this item in this bank.", null);
-            return;
+            message = "TradeWinds: You don't have any of this item in this bank.";
         }
+        else if (code > 0)
+        {
+            message = "TradeWinds: You only have " + localQty + " of this item in this bank.";
+        }
+        else
+        {
+            // All, All-but-1 and X can withdraw the full global stack, so they are only
+            // allowed at the bank that owns the entire stack
+            message = "TradeWinds: '" + click.getOption() + "' is only available at the bank that holds this stack.";
+        }
+        client.addChatMessage(ChatMessageType.GAMEMESSAGE, "", message, null);
+        return true;
+    }
 
-        // Strip the "Withdraw-" prefix
-        String suffix = option.substring("Withdraw-".length());
-
-        // 1) NUMERIC withdraws: "Withdraw-1", "Withdraw-5", "Withdraw-10",
-        //    and also "Withdraw-100000" when X is set in the bank UI.
-        int requested = -1;
-        try
+    /**
+     * Rebuilds the withdraw table once the bank contents change. Called after the
+     * bank tracker has reconciled them into the ledger.
+     */
+    public void handleItemContainerChanged(ItemContainerChanged event)
+    {
+        if (event.getContainerId() == InventoryID.BANK.getId() && config.enableLocalBanks())
         {
-            // Remove commas from "100,000" etc.
-            String numeric = suffix.replace(",", "");
-            requested = Integer.parseInt(numeric);
+            withdrawTable.rebuild(event.getItemContainer(), bankTracker.getCurrentBankLocation(), bankLedgerService);
         }
-        catch (NumberFormatException ignored)
+    }
+
+    private BankWithdrawTable currentWithdrawTable()
+    {
+        if (!withdrawTable.isCurrent(bankTracker.getCurrentBankLocation(), bankLedgerService.getVersion()))
         {
-            // not a plain number, fall through to the keyword cases below
+            rebuildWithdrawTable();
         }
+        return withdrawTable;
+    }
+
+    private void rebuildWithdrawTable()
+    {
+        withdrawTable.rebuild(client.getItemContainer(InventoryID.BANK),
+                bankTracker.getCurrentBankLocation(), bankLedgerService);
+    }
 
-        if (requested > 0)
+    /**
+     * Deprioritises withdraw entries the click rule would refuse, so forbidden
+     * amounts drop out of the left click and to the bottom of the menu.
+     */
+    private void flagForbiddenWithdraw(MenuEntryAdded event)
+    {
+        if (!config.enableLocalBanks() || !bankLedgerService.isReady())
         {
-            if (requested > localQty)
-            {
-                event.consume();
-                client.addChatMessage(ChatMessageType.GAMEMESSAGE, "",
-                        "TradeWinds: You only have " + localQty + " of this item in this bank.", null);
-            }
             return;
         }
 
-        // 2) Keyword withdraws: All / All-but-1 / X
-        switch (suffix)
+        int code = withdrawTable.decodeOption(event.getOption());
+        if (code == BankWithdrawTable.NOT_WITHDRAW)
         {
-            case "All":
-            case "All-but-1":
-            case "X":
-            {
-                // These can withdraw the full global stack. Only allow them
-                // at the bank that owns the entire stack.
-                if (globalQty > localQty)
-                {
-                    event.consume();
-                    client.addChatMessage(ChatMessageType.GAMEMESSAGE, "",
-                            "TradeWinds: '" + option + "' is only available at the bank that holds this stack.", null);
-                }
-                break;
-            }
+            return;
+        }
 
-            default:
-                // Tags, Examine, etc. – let them through
-                break;
+        BankWithdrawTable table = currentWithdrawTable();
+        int slot = event.getActionParam0();
+        if (table.holds(slot, event.getItemId()) && !table.allows(slot, code))
+        {
+            event.getMenuEntry().setDeprioritized(true);
         }
     }
 
-
     // ------------------------------------------------------------
     // Handle RUNELITE "TradeWinds locations" option
     // ------------------------------------------------------------
 
-    public boolean handleMenuOption(MenuOptionClicked event)
+    /**
+     * Menu click rule: answers our own "TradeWinds locations" entry.
+     */
+    public boolean handleLocationsOption(MenuClick click)
     {
-        if (event.getMenuAction() == MenuAction.RUNELITE
-                && event.getMenuOption().equals("TradeWinds locations"))
+        MenuOptionClicked event = click.getEvent();
+        if ("TradeWinds locations".equals(event.getMenuOption()))
         {
             int itemId = event.getId(); // identifier we set above
             printItemLocationsToChat(itemId);
@@ -272,8 +293,9 @@ public class TradeWindsMenuService
             return null;
         }
 
-        if (Duration.between(activeItemInfo.getCreated(), Instant.now())
-                .compareTo(ITEM_INFO_LIFETIME) > 0)
+        // A counter that went backwards was reset, which ends the info too
+        int age = client.getTickCount() - activeItemInfo.getCreatedTick();
+        if (age < 0 || age > ITEM_INFO_LIFETIME_TICKS)
         {
             activeItemInfo = null;
             return null;
@@ -282,13 +304,52 @@ public class TradeWindsMenuService
         return activeItemInfo;
     }
 
+    /**
+     * Shows an item shown while some of its banks were loading again, once the
+     * last of them is in. Called on the client thread after a shard loads.
+     */
+    public void handleShardLoaded()
+    {
+        int itemId = refreshItemId;
+        if (itemId <= 0 || bankLedgerService.hasUnloadedLocations(itemId))
+        {
+            return;
+        }
+
+        refreshItemId = -1;
+        if (refreshLedgerGeneration != bankLedgerService.getGeneration())
+        {
+            return;
+        }
+
+        if (refreshItemInfo)
+        {
+            showItemLocations(itemId);
+        }
+        else
+        {
+            printItemLocationsToChat(itemId);
+        }
+    }
+
     public void showItemLocations(int itemId)
     {
+        if (!bankLedgerService.isReady())
+        {
+            client.addChatMessage(ChatMessageType.GAMEMESSAGE, "",
+                    "TradeWinds: Your bank ledger is still loading.", null);
+            activeItemInfo = null;
+            return;
+        }
+
+        // Only what is loaded; the rest is read in the background and shown after
         Map<BankLocation, Integer> perBank = bankLedgerService.getPerBank(itemId);
+        boolean partial = deferRefresh(itemId, true);
         if (perBank == null || perBank.isEmpty())
         {
-            client.addChatMessage(ChatMessageType.GAMEMESSAGE, "",
-                    "TradeWinds: No known storage for that item yet.", null);
+            client.addChatMessage(ChatMessageType.GAMEMESSAGE, "", partial
+                    ? "TradeWinds: Reading that item's banks..."
+                    : "TradeWinds: No known storage for that item yet.", null);
             activeItemInfo = null;
             return;
         }
@@ -310,8 +371,8 @@ public class TradeWindsMenuService
             return;
         }
 
-        String name = client.getItemDefinition(itemId).getName();
-        activeItemInfo = new ItemLocationInfo(itemId, name, copy);
+        String name = itemMetadataCache.getName(itemId);
+        activeItemInfo = new ItemLocationInfo(itemId, name, copy, client.getTickCount());
 
         StringBuilder sb = new StringBuilder("TradeWinds: ");
         boolean first = true;
@@ -324,16 +385,29 @@ public class TradeWindsMenuService
             first = false;
             sb.append(e.getKey().name()).append("=").append(e.getValue());
         }
+        if (partial)
+        {
+            sb.append(" (reading other banks...)");
+        }
         client.addChatMessage(ChatMessageType.GAMEMESSAGE, "", sb.toString(), null);
     }
 
     public void printItemLocationsToChat(int itemId)
     {
+        if (!bankLedgerService.isReady())
+        {
+            client.addChatMessage(ChatMessageType.GAMEMESSAGE, "",
+                    "TradeWinds: Your bank ledger is still loading.", null);
+            return;
+        }
+
         Map<BankLocation, Integer> perBank = bankLedgerService.getPerBank(itemId);
+        boolean partial = deferRefresh(itemId, false);
         if (perBank == null || perBank.isEmpty())
         {
-            client.addChatMessage(ChatMessageType.GAMEMESSAGE, "",
-                    "TradeWinds: No known storage for that item yet.", null);
+            client.addChatMessage(ChatMessageType.GAMEMESSAGE, "", partial
+                    ? "TradeWinds: Reading that item's banks..."
+                    : "TradeWinds: No known storage for that item yet.", null);
             return;
         }
 
@@ -351,10 +425,7 @@ public class TradeWindsMenuService
                 sb.append(", ");
             }
 
-            String bankName = e.getKey().name().toLowerCase().replace('_', ' ');
-            bankName = bankName.substring(0, 1).toUpperCase() + bankName.substring(1);
-
-            sb.append(bankName).append(": ").append(qty);
+            sb.append(e.getKey().getDisplayName()).append(": ").append(qty);
         }
 
         if (sb.length() == 0)
@@ -364,7 +435,12 @@ public class TradeWindsMenuService
             return;
         }
 
-        String itemName = client.getItemDefinition(itemId).getName();
+        if (partial)
+        {
+            sb.append(" (reading other banks...)");
+        }
+
+        String itemName = itemMetadataCache.getName(itemId);
         client.addChatMessage(
                 ChatMessageType.GAMEMESSAGE,
                 "",
@@ -372,4 +448,21 @@ public class TradeWindsMenuService
                 null
         );
     }
+
+    /**
+     * @return true if some of the item's banks are still being read, in which case
+     * it is shown again by {@link #handleShardLoaded} once they are
+     */
+    private boolean deferRefresh(int itemId, boolean itemInfo)
+    {
+        if (!bankLedgerService.hasUnloadedLocations(itemId))
+        {
+            return false;
+        }
+
+        refreshItemId = itemId;
+        refreshItemInfo = itemInfo;
+        refreshLedgerGeneration = bankLedgerService.getGeneration();
+        return true;
+    }
 }
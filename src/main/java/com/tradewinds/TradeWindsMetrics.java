@@ -0,0 +1,143 @@
+package com.tradewinds;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named counters and latency histograms for what TradeWinds costs the client.
+ * <p>
+ * Call sites look their metric up once and keep it; recording is then lock-free
+ * and allocation-free from any thread. Names are dotted, grouped by subsystem,
+ * e.g. {@code ledger.reconcile}.
+ */
+@Slf4j
+@Singleton
+public class TradeWindsMetrics
+{
+    private static final String DUMP_PREFIX = "metrics-";
+    private static final String DUMP_SUFFIX = ".txt";
+
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private volatile long since = System.currentTimeMillis();
+
+    public LongAdder counter(String name)
+    {
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    public LatencyHistogram histogram(String name)
+    {
+        return histograms.computeIfAbsent(name, k -> new LatencyHistogram());
+    }
+
+    /**
+     * Publishes a histogram owned elsewhere under a name.
+     */
+    public void register(String name, LatencyHistogram histogram)
+    {
+        histograms.put(name, histogram);
+    }
+
+    public void reset()
+    {
+        counters.values().forEach(LongAdder::reset);
+        histograms.values().forEach(LatencyHistogram::reset);
+        since = System.currentTimeMillis();
+    }
+
+    /**
+     * A table of every metric, for the panel and for dumps.
+     */
+    public String report()
+    {
+        StringBuilder sb = new StringBuilder();
+        long seconds = (System.currentTimeMillis() - since) / 1000;
+        sb.append("Since reset: ").append(seconds).append(" s\n");
+
+        Map<String, LatencyHistogram> sortedHistograms = new TreeMap<>(histograms);
+        if (!sortedHistograms.isEmpty())
+        {
+            sb.append(String.format("%n%-28s %8s %8s %8s %8s %8s%n", "latency (us)", "count", "p50", "p99", "max", "total ms"));
+            for (Map.Entry<String, LatencyHistogram> e : sortedHistograms.entrySet())
+            {
+                LatencyHistogram h = e.getValue();
+                sb.append(String.format("%-28s %8d %8s %8s %8s %8d%n",
+                        e.getKey(),
+                        h.getCount(),
+                        micros(h.getPercentileNanos(50)),
+                        micros(h.getPercentileNanos(99)),
+                        micros(h.getMaxNanos()),
+                        h.getTotalNanos() / 1_000_000));
+            }
+        }
+
+        Map<String, LongAdder> sortedCounters = new TreeMap<>(counters);
+        if (!sortedCounters.isEmpty())
+        {
+            sb.append(String.format("%n%-28s %8s%n", "counter", "value"));
+            for (Map.Entry<String, LongAdder> e : sortedCounters.entrySet())
+            {
+                sb.append(String.format("%-28s %8d%n", e.getKey(), e.getValue().sum()));
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * One line naming the histograms that have taken the most time, for logs.
+     */
+    public String summary(int top)
+    {
+        StringBuilder sb = new StringBuilder();
+        histograms.entrySet().stream()
+                .filter(e -> e.getValue().getCount() > 0)
+                .sorted((a, b) -> Long.compare(b.getValue().getTotalNanos(), a.getValue().getTotalNanos()))
+                .limit(top)
+                .forEach(e ->
+                {
+                    LatencyHistogram h = e.getValue();
+                    if (sb.length() > 0)
+                    {
+                        sb.append(", ");
+                    }
+                    sb.append(e.getKey())
+                            .append(" n=").append(h.getCount())
+                            .append(" p99=").append(micros(h.getPercentileNanos(99))).append("us")
+                            .append(" total=").append(h.getTotalNanos() / 1_000_000).append("ms");
+                });
+        return sb.length() > 0 ? sb.toString() : "no samples";
+    }
+
+    /**
+     * Writes {@link #report()} to a new timestamped file in the directory.
+     */
+    public File dump(File directory) throws IOException
+    {
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        File file = new File(directory, DUMP_PREFIX + stamp + DUMP_SUFFIX);
+        Files.write(file.toPath(), report().getBytes(StandardCharsets.UTF_8));
+        log.info("Wrote TradeWinds metrics to {}", file.getAbsolutePath());
+        return file;
+    }
+
+    private static String micros(long nanos)
+    {
+        return nanos < 10_000
+                ? String.format("%.1f", nanos / 1_000.0)
+                : Long.toString(nanos / 1_000);
+    }
+}
@@ -13,6 +13,7 @@ public class TradeWindsPanel extends PluginPanel
     private final TradeWindsPlugin plugin;
     private final TradeWindsConfig config;
     private final TradeWindsAuthService authService;
+    private final TradeWindsMetrics metrics;
 
     private final CardLayout cardLayout = new CardLayout();
     private final JPanel cardsPanel = new JPanel(cardLayout);
@@ -24,11 +25,16 @@ public class TradeWindsPanel extends PluginPanel
     // Main UI
     private JLabel mainStatusLabel;
 
-    public TradeWindsPanel(TradeWindsPlugin plugin, TradeWindsConfig config, TradeWindsAuthService authService)
+    // Performance UI
+    private JTextArea metricsText;
+
+    public TradeWindsPanel(TradeWindsPlugin plugin, TradeWindsConfig config, TradeWindsAuthService authService,
+                           TradeWindsMetrics metrics)
     {
         this.plugin = plugin;
         this.config = config;
         this.authService = authService;
+        this.metrics = metrics;
 
         setLayout(new BorderLayout());
         setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
@@ -39,7 +45,11 @@ public class TradeWindsPanel extends PluginPanel
         refreshState();
 
         // --- NEW: auto-refresh the panel every second ---
-        Timer autoRefresh = new Timer(1000, e -> refreshState());
+        Timer autoRefresh = new Timer(1000, e ->
+        {
+            refreshState();
+            refreshMetrics();
+        });
         autoRefresh.setRepeats(true);
         autoRefresh.start();
     }
@@ -70,6 +80,8 @@ public class TradeWindsPanel extends PluginPanel
         cardsPanel.add(buildMainCard(), CARD_MAIN);
 
         add(cardsPanel, BorderLayout.CENTER);
+
+        add(buildMetricsSection(), BorderLayout.SOUTH);
     }
 
     // ============================================================
@@ -128,6 +140,65 @@ public class TradeWindsPanel extends PluginPanel
         return panel;
     }
 
+    // ============================================================
+    // PERFORMANCE SECTION
+    // ============================================================
+
+    private JPanel buildMetricsSection()
+    {
+        JPanel panel = new JPanel();
+        panel.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
+
+        JLabel title = new JLabel("Performance");
+        title.setFont(title.getFont().deriveFont(Font.BOLD));
+        title.setAlignmentX(Component.LEFT_ALIGNMENT);
+
+        metricsText = new JTextArea();
+        metricsText.setEditable(false);
+        metricsText.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 10));
+
+        JScrollPane scroll = new JScrollPane(metricsText);
+        scroll.setPreferredSize(new Dimension(0, 220));
+        scroll.setAlignmentX(Component.LEFT_ALIGNMENT);
+
+        JButton dumpButton = new JButton("Save to file");
+        dumpButton.addActionListener(e -> plugin.dumpMetrics());
+
+        JButton resetButton = new JButton("Reset");
+        resetButton.addActionListener(e ->
+        {
+            metrics.reset();
+            refreshMetrics();
+        });
+
+        JPanel buttons = new JPanel(new GridLayout(1, 2, 4, 0));
+        buttons.setAlignmentX(Component.LEFT_ALIGNMENT);
+        buttons.add(dumpButton);
+        buttons.add(resetButton);
+
+        panel.add(Box.createVerticalStrut(10));
+        panel.add(title);
+        panel.add(Box.createVerticalStrut(4));
+        panel.add(scroll);
+        panel.add(Box.createVerticalStrut(4));
+        panel.add(buttons);
+
+        return panel;
+    }
+
+    private void refreshMetrics()
+    {
+        // Formatting the report is wasted work while the sidebar shows another panel
+        if (!isShowing())
+        {
+            return;
+        }
+
+        int caret = metricsText.getCaretPosition();
+        metricsText.setText(metrics.report());
+        metricsText.setCaretPosition(Math.min(caret, metricsText.getDocument().getLength()));
+    }
+
     // ============================================================
     // REGISTRATION FLOW
     // ============================================================
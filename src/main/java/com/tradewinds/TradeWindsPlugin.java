@@ -5,15 +5,22 @@ import lombok.extern.slf4j.Slf4j;
 
 import javax.inject.Inject;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
 
+import net.runelite.api.ChatMessageType;
 import net.runelite.api.Client;
 import net.runelite.api.GameState;
+import net.runelite.api.InventoryID;
 
+import net.runelite.api.events.GameStateChanged;
 import net.runelite.api.events.GameTick;
 import net.runelite.api.events.ItemContainerChanged;
 import net.runelite.api.events.MenuEntryAdded;
 import net.runelite.api.events.MenuOptionClicked;
 import net.runelite.api.events.WidgetLoaded;
+import net.runelite.api.widgets.WidgetID;
 
 import net.runelite.client.RuneLite;
 import net.runelite.client.callback.ClientThread;
@@ -67,6 +74,28 @@ public class TradeWindsPlugin extends Plugin {
     private TradeWindsStatusOverlay statusOverlay;
     @Inject
     private TradeWindsRestrictionService restrictionService;
+    @Inject
+    private MenuClickDispatcher menuClickDispatcher;
+    @Inject
+    private ItemMetadataCache itemMetadataCache;
+    @Inject
+    private BankQuantityHider bankQuantityHider;
+    @Inject
+    private ScheduledExecutorService executor;
+    @Inject
+    private TradeWindsMetrics metrics;
+    @Inject
+    private TradeWindsEventRecorder eventRecorder;
+
+    // About a minute between metrics summaries in the debug log
+    private static final int SUMMARY_INTERVAL_TICKS = 100;
+
+    private LatencyHistogram gameTickTimings;
+    private LatencyHistogram authPollTimings;
+    private LatencyHistogram containerChangedTimings;
+    private LatencyHistogram menuEntryAddedTimings;
+    private int loggedState = -1;
+    private int ticksSinceSummary;
 
     private TradeWindsStorage storage;
     private TradeWindsPanel panel;
@@ -79,9 +108,22 @@ public class TradeWindsPlugin extends Plugin {
         log.info("TradeWinds plugin started.");
 
         // --- STORAGE INIT (OLD WORKING SYSTEM) ---
-        storage = new TradeWindsStorage(RuneLite.RUNELITE_DIR, client);
-        bankLedgerService.setStorage(storage);
+        storage = new TradeWindsStorage(RuneLite.RUNELITE_DIR, client, config);
+        bankLedgerService.setStorage(storage, executor);
+        // Shards load on the executor; catch the open bank up once its shard is in,
+        // and finish showing an item whose banks were still being read
+        bankLedgerService.setOnShardLoaded(() -> clientThread.invokeLater(() ->
+        {
+            bankTracker.reconcileCurrentBank();
+            menuService.handleShardLoaded();
+        }));
+        eventRecorder.setDirectory(storage.getDirectory());
 
+        // --- METRICS ---
+        gameTickTimings = metrics.histogram("events.gameTick");
+        authPollTimings = metrics.histogram("auth.poll");
+        containerChangedTimings = metrics.histogram("events.itemContainerChanged");
+        menuEntryAddedTimings = metrics.histogram("menu.entryAdded");
 
         // --- ADD OVERLAYS ---
         overlayManager.add(bankOverlay);
@@ -89,12 +131,14 @@ public class TradeWindsPlugin extends Plugin {
         overlayManager.add(statusOverlay);
 
         // --- REGISTER EVENT-BASED SERVICES ---
+        eventBus.register(bankOverlay);
         eventBus.register(itemInfoOverlay);
         eventBus.register(menuService);
         eventBus.register(bankTracker);
+        eventBus.register(bankQuantityHider);
 
         // --- PANEL + SIDEBAR NAV ---
-        panel = new TradeWindsPanel(this, config, authService);
+        panel = new TradeWindsPanel(this, config, authService, metrics);
 //
         BufferedImage icon = ImageUtil.loadImageResource(getClass(), "tradewinds.png");
         navButton = NavigationButton.builder()
@@ -119,13 +163,22 @@ public class TradeWindsPlugin extends Plugin {
         overlayManager.remove(statusOverlay);
 
 
+        eventBus.unregister(bankOverlay);
         eventBus.unregister(itemInfoOverlay);
         eventBus.unregister(menuService);
         eventBus.unregister(bankTracker);
+        eventBus.unregister(bankQuantityHider);
+        clientThread.invoke(bankQuantityHider::restore);
+        // Stopping flushes the encoder, which the client thread may be writing to
+        clientThread.invoke(() -> eventRecorder.setDirectory(null));
 
         bankLedgerService.saveBalances();
         bankLedgerService.clear();
+        bankLedgerService.setStorage(null, null);
+        bankLedgerService.setOnShardLoaded(null);
         bankTracker.reset();
+        restrictionService.reset();
+        itemMetadataCache.clear();
 
         balancesLoaded = false;
 
@@ -137,8 +190,40 @@ public class TradeWindsPlugin extends Plugin {
         panel = null;
     }
 
+    @Subscribe
+    public void onGameStateChanged(GameStateChanged event)
+    {
+        if (event.getGameState() == GameState.LOGIN_SCREEN)
+        {
+            restrictionService.reset();
+        }
+        itemMetadataCache.handleGameStateChanged(event.getGameState());
+
+        // Flush pending ledger writes before the account can change underneath us
+        if (event.getGameState() == GameState.LOGIN_SCREEN && balancesLoaded)
+        {
+            bankLedgerService.saveBalances();
+            bankLedgerService.clear();
+            bankTracker.reset();
+            balancesLoaded = false;
+        }
+    }
+
     @Subscribe
     public void onGameTick(GameTick tick)
+    {
+        long start = System.nanoTime();
+        try
+        {
+            handleGameTick();
+        }
+        finally
+        {
+            gameTickTimings.recordSince(start);
+        }
+    }
+
+    private void handleGameTick()
     {
         // --- REALTIME PRESENCE BROADCAST ---
         if (client.getLocalPlayer() != null && authService.isAuthenticated())
@@ -149,35 +234,40 @@ public class TradeWindsPlugin extends Plugin {
 
         }
 
-        // --- TEMP DEBUG ---
-        log.info("TW onGameTick: balancesLoaded={} isAuthenticated={}",
-                balancesLoaded, authService.isAuthenticated());
+        // --- STATE + METRICS SUMMARY (RATE LIMITED) ---
+        logStateIfDue();
+
+        // --- EVENT RECORDING (DEVELOPER OPTION) ---
+        eventRecorder.update();
 
-        // --- LOAD BANK BALANCES ON FIRST TICK LOGGED IN ---
+        // --- LOAD BANK BALANCES IN THE BACKGROUND ONCE THE NAME IS KNOWN ---
         if (!balancesLoaded
                 && client.getGameState() == GameState.LOGGED_IN
-                && client.getLocalPlayer() != null)
+                && client.getLocalPlayer() != null
+                && client.getLocalPlayer().getName() != null)
         {
             balancesLoaded = true;
 
             log.info("Player detected: loading TradeWinds balances...");
 
-            clientThread.invokeLater(() ->
+            bankLedgerService.loadBalancesAsync(() -> clientThread.invokeLater(() ->
             {
-                try {
-                    bankLedgerService.loadBalances();
-                    authService.debugPrintAuthState();
-                }
-                catch (Exception e) {
-                    log.warn("TradeWinds: loadBalances() failed", e);
-                }
-            });
+                eventRecorder.recordLedgerLoaded();
+                // Catch up on any bank change deferred while the ledger was loading
+                bankTracker.reconcileCurrentBank();
+                authService.debugPrintAuthState();
+            }));
         }
 
 
 
         // --- AUTH STATUS POLLING (LOW FREQUENCY) ---
+        TradeWindsEvents.NetworkCall pollEvent = new TradeWindsEvents.NetworkCall();
+        pollEvent.begin();
+        long pollStart = System.nanoTime();
         authService.pollStatusIfDue();
+        authPollTimings.recordSince(pollStart);
+        commitNetworkCall(pollEvent, "auth status poll");
 
         // --- PANEL REFRESH ---
         if (panel != null)
@@ -185,8 +275,41 @@ public class TradeWindsPlugin extends Plugin {
             panel.refreshState();
         }
 
+        TradeWindsEvents.NetworkCall lookupEvent = new TradeWindsEvents.NetworkCall();
+        lookupEvent.begin();
         statusLookupService.pumpQueueIfDue();
+        commitNetworkCall(lookupEvent, "status lookup queue");
+
+    }
+
+    private static void commitNetworkCall(TradeWindsEvents.NetworkCall event, String operation)
+    {
+        if (event.shouldCommit())
+        {
+            event.operation = operation;
+            event.commit();
+        }
+    }
+
+    private void logStateIfDue()
+    {
+        // State is logged when it changes, metrics once every interval
+        boolean authenticated = authService.isAuthenticated();
+        int state = (balancesLoaded ? 1 : 0) | (authenticated ? 2 : 0);
+        if (state != loggedState)
+        {
+            loggedState = state;
+            log.info("TW state: balancesLoaded={} isAuthenticated={}", balancesLoaded, authenticated);
+        }
 
+        if (++ticksSinceSummary >= SUMMARY_INTERVAL_TICKS)
+        {
+            ticksSinceSummary = 0;
+            if (log.isDebugEnabled())
+            {
+                log.debug("TW metrics: {}", metrics.summary(5));
+            }
+        }
     }
 
 
@@ -197,21 +320,35 @@ public class TradeWindsPlugin extends Plugin {
     @Subscribe
     public void onWidgetLoaded(WidgetLoaded event) {
         bankTracker.handleWidgetLoaded(event);
+        if (event.getGroupId() == WidgetID.BANK_GROUP_ID) {
+            itemMetadataCache.prefetch(client.getItemContainer(InventoryID.BANK));
+        }
     }
 
     @Subscribe
     public void onItemContainerChanged(ItemContainerChanged event) {
+        long start = System.nanoTime();
         bankTracker.handleItemContainerChanged(event);
+        // After the tracker, so the withdraw table sees the reconciled ledger
+        menuService.handleItemContainerChanged(event);
+        restrictionService.handleItemContainerChanged(event);
+        if (event.getContainerId() == InventoryID.BANK.getId()) {
+            itemMetadataCache.prefetch(event.getItemContainer());
+        }
+        containerChangedTimings.recordSince(start);
     }
 
     @Subscribe
     public void onMenuEntryAdded(MenuEntryAdded event) {
+        long start = System.nanoTime();
         menuService.handleMenuEntryAdded(event);
+        restrictionService.handleMenuEntryAdded(event);
+        menuEntryAddedTimings.recordSince(start);
     }
 
     @Subscribe
     public void onMenuOptionClicked(MenuOptionClicked event) {
-        restrictionService.handleMenuOptionClicked(event);
+        menuClickDispatcher.dispatch(event);
     }
 
     // -----------------------
@@ -222,8 +359,33 @@ public class TradeWindsPlugin extends Plugin {
         return configManager.getConfig(TradeWindsConfig.class);
     }
 
+    public void dumpMetrics() {
+        TradeWindsStorage storage = this.storage;
+        if (storage == null) {
+            return;
+        }
+
+        // File IO stays off both the client and the Swing thread
+        executor.execute(() ->
+        {
+            try {
+                File file = metrics.dump(storage.getDirectory());
+                clientThread.invoke(() -> client.addChatMessage(ChatMessageType.GAMEMESSAGE, "",
+                        "TradeWinds: Saved metrics to " + file.getName(), null));
+            } catch (IOException e) {
+                log.warn("Failed to write TradeWinds metrics", e);
+            }
+        });
+    }
+
     public void triggerRegistration() {
         // Ensure registration (and its chat messages) run on the client thread
-        clientThread.invoke(() -> authService.startFirstTimeRegistration());
+        clientThread.invoke(() ->
+        {
+            TradeWindsEvents.NetworkCall event = new TradeWindsEvents.NetworkCall();
+            event.begin();
+            authService.startFirstTimeRegistration();
+            commitNetworkCall(event, "registration");
+        });
     }
 }
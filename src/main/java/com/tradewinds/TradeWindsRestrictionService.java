@@ -2,18 +2,15 @@ package com.tradewinds;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
 
 import net.runelite.api.ChatMessageType;
 import net.runelite.api.Client;
 import net.runelite.api.InventoryID;
 import net.runelite.api.Item;
 import net.runelite.api.ItemContainer;
-import net.runelite.api.MenuAction;
-import net.runelite.api.events.MenuOptionClicked;
-import net.runelite.api.widgets.WidgetID;
+import net.runelite.api.MenuEntry;
+import net.runelite.api.events.ItemContainerChanged;
+import net.runelite.api.events.MenuEntryAdded;
 
 
 @Singleton
@@ -21,158 +18,150 @@ public class TradeWindsRestrictionService
 {
     private final Client client;
     private final TradeWindsConfig config;
-    private final BankTracker bankTracker;
-    private final TradeWindsMenuService menuService;
-
-    // ---------------------------------------------
-    // TELEPORT WHITELISTS (MUST BE AT CLASS LEVEL)
-    // ---------------------------------------------
-    /** Items allowed to *trigger* a teleport (rings, tabs, etc.) */
-    private final Set<Integer> TELEPORT_ITEM_WHITELIST = new HashSet<>(Arrays.asList(
-            // fill with item IDs
-    ));
-
-    /** Items allowed to be carried during teleport */
-    private final Set<Integer> TELEPORT_INVENTORY_WHITELIST = new HashSet<>(Arrays.asList(
-            // fill with item IDs
-    ));
+    private final ItemMetadataCache itemMetadataCache;
+
+    // Teleport items and allowed cargo come from restriction-rules.txt
+    private final RestrictionRules rules;
+
+    // Items carried that may not be teleported with, kept current from container events
+    private int inventoryCargo;
+    private int equipmentCargo;
+    private boolean cargoKnown;
 
     @Inject
-    public TradeWindsRestrictionService(Client client, TradeWindsConfig config, BankTracker bankTracker,
-                                        TradeWindsMenuService menuService)
+    public TradeWindsRestrictionService(Client client, TradeWindsConfig config, ItemMetadataCache itemMetadataCache)
     {
         this.client = client;
         this.config = config;
-        this.bankTracker = bankTracker;
-        this.menuService = menuService;
+        this.itemMetadataCache = itemMetadataCache;
+        this.rules = RestrictionRules.getDefault();
     }
 
-    public void handleMenuOptionClicked(MenuOptionClicked event)
+    /**
+     * Keeps the cargo counts current, so a teleport check never walks a container.
+     */
+    public void handleItemContainerChanged(ItemContainerChanged event)
     {
-        if (config.debugMode())
+        int containerId = event.getContainerId();
+        if (containerId == InventoryID.INVENTORY.getId())
         {
-            return;
+            inventoryCargo = countIllegalCargo(event.getItemContainer(), false);
         }
-
-        if (config.enableLocalBanks()
-                && bankTracker.hasKnownBankLocation()
-                && isBankWithdraw(event))
+        else if (containerId == InventoryID.EQUIPMENT.getId())
         {
-            int itemId = event.getItemId();
-            int local = bankTracker.getLocalQuantity(itemId);
-
-            if (local <= 0)
-            {
-                event.consume();
-                client.addChatMessage(ChatMessageType.GAMEMESSAGE, "",
-                        "TradeWinds: No local stock of that item at this bank.", null);
-                return;
-            }
+            equipmentCargo = countIllegalCargo(event.getItemContainer(), true);
         }
+    }
 
-        if (menuService.handleMenuOption(event))
+    /**
+     * Deprioritises teleport entries while carrying cargo, so the player sees the
+     * teleport is blocked before clicking it and a left click cannot trigger it.
+     */
+    public void handleMenuEntryAdded(MenuEntryAdded event)
+    {
+        if (config.debugMode() || !config.restrictTeleports() || !hasIllegalTeleportCargo())
         {
             return;
         }
 
-        if (config.debugMode())
+        MenuEntry entry = event.getMenuEntry();
+        if (rules.isTeleport(entry))
         {
-            return;
+            entry.setDeprioritized(true);
         }
+    }
 
-        // --- TELEPORT LOGIC (NO WHITELIST DECLARATIONS HERE) -----
+    /**
+     * Forgets the cargo counts, e.g. on logout; they are recounted from the client
+     * the next time they are needed.
+     */
+    public void reset()
+    {
+        inventoryCargo = 0;
+        equipmentCargo = 0;
+        cargoKnown = false;
+    }
 
-        if (config.restrictTeleports())
+    /**
+     * Menu click rule: refuses teleports while carrying anything not whitelisted.
+     */
+    public boolean checkTeleportCargo(MenuClick click)
+    {
+        if (config.debugMode() || !config.restrictTeleports())
         {
-            String option = event.getMenuOption().toLowerCase();
-            String target = event.getMenuTarget().toLowerCase();
-
-            boolean isTeleport =
-                    option.contains("teleport") ||
-                            target.contains("teleport") ||
-                            (option.contains("cast") && target.contains("tele")) ||
-                            (option.contains("use") && target.contains("tele")) ||
-                            option.contains("rub") ||
-                            option.contains("invoke");
-
-            if (isTeleport && inventoryHasIllegalTeleportCargo())
-            {
-                event.consume();
-                client.addChatMessage(ChatMessageType.GAMEMESSAGE, "",
-                        "TradeWinds: Teleport blocked (carrying cargo).", null);
-                return;
-            }
+            return false;
         }
 
+        if (hasIllegalTeleportCargo() && rules.isTeleport(click.getEvent().getMenuEntry()))
+        {
+            click.getEvent().consume();
+            client.addChatMessage(ChatMessageType.GAMEMESSAGE, "",
+                    "TradeWinds: Teleport blocked (carrying cargo).", null);
+            return true;
+        }
 
+        return false;
+    }
 
-        if (config.disableGE())
+    /**
+     * Menu click rule: refuses Grand Exchange interactions when the GE is disabled.
+     */
+    public boolean checkGrandExchange(MenuClick click)
+    {
+        if (config.debugMode() || !config.disableGE())
         {
-            String option = event.getMenuOption().toLowerCase();
-            String target = event.getMenuTarget().toLowerCase();
+            return false;
+        }
 
-            if (target.contains("grand exchange") && option.contains("exchange"))
-            {
-                event.consume();
-                client.addChatMessage(ChatMessageType.GAMEMESSAGE, "",
-                        "TradeWinds: Grand Exchange is disabled.", null);
-            }
+        if (rules.isGrandExchange(click.getEvent().getMenuEntry()))
+        {
+            click.getEvent().consume();
+            client.addChatMessage(ChatMessageType.GAMEMESSAGE, "",
+                    "TradeWinds: Grand Exchange is disabled.", null);
+            return true;
         }
+
+        return false;
     }
 
     // ------------------------------------------------------
     // Whitelist helper methods (these stay at class level)
     // ------------------------------------------------------
 
-    private boolean isTeleportItemAllowed(MenuOptionClicked event)
+    private boolean hasIllegalTeleportCargo()
     {
-        int itemId = event.getItemId();
-        if (itemId <= 0)
+        if (!cargoKnown)
         {
-            return false; // spellbook teleports not allowed
+            // Containers loaded before we were listening, e.g. the plugin started mid-session
+            inventoryCargo = countIllegalCargo(client.getItemContainer(InventoryID.INVENTORY), false);
+            equipmentCargo = countIllegalCargo(client.getItemContainer(InventoryID.EQUIPMENT), true);
+            cargoKnown = true;
         }
 
-        return TELEPORT_ITEM_WHITELIST.contains(itemId);
+        return inventoryCargo + equipmentCargo > 0;
     }
 
-    private boolean inventoryHasIllegalTeleportCargo()
+    /**
+     * @param worn whether the container is worn equipment, where only tradeable items
+     *             count; gear that cannot be traded is not goods being carried
+     */
+    private int countIllegalCargo(ItemContainer container, boolean worn)
     {
-        ItemContainer inv = client.getItemContainer(InventoryID.INVENTORY);
-        if (inv == null)
+        if (container == null)
         {
-            return false;
+            return 0;
         }
 
-        for (Item item : inv.getItems())
+        int count = 0;
+        for (Item item : container.getItems())
         {
             int id = item.getId();
-            if (id <= 0)
-            {
-                continue;
-            }
-
-            if (!TELEPORT_INVENTORY_WHITELIST.contains(id)
-                    && !TELEPORT_ITEM_WHITELIST.contains(id))
+            if (id > 0 && !rules.isAllowedCargo(id) && !(worn && itemMetadataCache.isUntradeable(id)))
             {
-                return true;
+                count++;
             }
         }
 
-        return false;
-    }
-
-    private boolean isBankWithdraw(MenuOptionClicked event)
-    {
-        String option = event.getMenuOption().toLowerCase();
-
-        if (!(option.startsWith("withdraw") || option.equals("release")))
-        {
-            return false;
-        }
-
-        int widgetId = event.getWidgetId();
-        int groupId = widgetId >> 16;
-
-        return groupId == WidgetID.BANK_GROUP_ID && event.getMenuAction() == MenuAction.CC_OP;
+        return count;
     }
 }
@@ -6,9 +6,18 @@ import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.Client;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 
 @Slf4j
@@ -22,13 +31,15 @@ public class TradeWindsStorage
 
     private final File baseDir;
     private final Client client;
+    private final TradeWindsConfig config;
     private final Gson gson = new GsonBuilder()
             .disableHtmlEscaping()
             .create();
 
-    public TradeWindsStorage(File runeLiteDir, Client client)
+    public TradeWindsStorage(File runeLiteDir, Client client, TradeWindsConfig config)
     {
         this.client = client;
+        this.config = config;
         this.baseDir = new File(runeLiteDir, DIR_NAME);
         if (!baseDir.exists() && !baseDir.mkdirs())
         {
@@ -40,7 +51,19 @@ public class TradeWindsStorage
         }
     }
 
-    private File getBankFile()
+    /**
+     * The TradeWinds folder inside the RuneLite directory.
+     */
+    public File getDirectory()
+    {
+        return baseDir;
+    }
+
+    /**
+     * Resolves the data file for the logged-in character. Reads client state, so it
+     * must be called on the client thread.
+     */
+    public File resolveBankFile()
     {
         String name = "unknown";
 
@@ -55,6 +78,172 @@ public class TradeWindsStorage
         return file;
     }
 
+    public LedgerStorageMode getStorageMode()
+    {
+        LedgerStorageMode mode = config.storageMode();
+        return mode != null ? mode : LedgerStorageMode.JOURNAL;
+    }
+
+    public boolean isMappedMode()
+    {
+        return getStorageMode() == LedgerStorageMode.MAPPED;
+    }
+
+    /**
+     * Reads the shard index beside the data file into an empty store.
+     *
+     * @return the shard generation per location, or empty if there is no index
+     * @throws IOException if there is an index but it could not be read
+     */
+    public Optional<long[]> loadShardIndex(File file, BankLedgerStore store) throws IOException
+    {
+        File directory = LedgerShards.directoryFor(file);
+        if (!LedgerShards.exists(directory))
+        {
+            return Optional.empty();
+        }
+
+        try
+        {
+            return Optional.of(LedgerShards.readIndex(directory, store));
+        }
+        catch (IOException | RuntimeException e)
+        {
+            log.warn("Failed to read ledger index in {}", directory.getName(), e);
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+    }
+
+    /**
+     * Reads one location's shard without loading it anywhere, so the caller can
+     * read off the client thread and publish under its own lock.
+     *
+     * @return the shard, or empty if it could not be read
+     */
+    public Optional<LedgerShards.Shard> loadShard(File file, BankLocation location, long generation)
+    {
+        TradeWindsEvents.StorageLoad event = new TradeWindsEvents.StorageLoad();
+        event.begin();
+        try
+        {
+            LedgerShards.Shard shard = LedgerShards.readShard(LedgerShards.directoryFor(file), location, generation);
+            commitLoad(event, "shard", location, shard.count, shard.bytes, true);
+            return Optional.of(shard);
+        }
+        catch (Exception e)
+        {
+            log.warn("Failed to read ledger shard for {}", location, e);
+            commitLoad(event, "shard", location, 0, 0, false);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Commits changed shards and the index. After a full commit the other formats
+     * are removed, as the shards now hold the whole ledger.
+     */
+    public boolean commitShards(File file, byte[][] shards, long[] generations, byte[] index, boolean full)
+    {
+        TradeWindsEvents.StorageSave event = new TradeWindsEvents.StorageSave();
+        event.begin();
+        File directory = LedgerShards.directoryFor(file);
+        try
+        {
+            LedgerShards.commit(directory, shards, generations, index);
+            if (full)
+            {
+                LedgerJournal.delete(LedgerJournal.journalFileFor(file));
+                Files.deleteIfExists(file.toPath());
+                retireMappedLedger(file);
+            }
+
+            log.debug("Committed ledger shards to {} ({} byte index)", directory.getName(), index.length);
+            if (event.shouldCommit())
+            {
+                int written = 0;
+                long bytes = index.length;
+                for (byte[] shard : shards)
+                {
+                    if (shard != null)
+                    {
+                        written++;
+                        bytes += shard.length;
+                    }
+                }
+                commitSave(event, "shards", null, written, bytes, true);
+            }
+            return true;
+        }
+        catch (Exception e)
+        {
+            log.warn("Failed to save ledger shards", e);
+            commitSave(event, "shards", null, 0, 0, false);
+            return false;
+        }
+    }
+
+    /**
+     * Opens the shared mapped ledger beside the data file, if one exists.
+     *
+     * @throws IOException if there is a mapped ledger but it could not be opened
+     */
+    public Optional<MappedLedgerFile> openMappedLedger(File file) throws IOException
+    {
+        File mapFile = MappedLedgerFile.find(file);
+        if (mapFile == null)
+        {
+            return Optional.empty();
+        }
+
+        TradeWindsEvents.StorageLoad event = new TradeWindsEvents.StorageLoad();
+        event.begin();
+        try
+        {
+            MappedLedgerFile mapped = MappedLedgerFile.open(mapFile);
+            // Cells are read on demand; the open itself maps the file
+            commitLoad(event, "mapped", null, 0, event.shouldCommit() ? mapFile.length() : 0, true);
+            return Optional.of(mapped);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            log.warn("Failed to open mapped ledger {}", mapFile.getName(), e);
+            commitLoad(event, "mapped", null, 0, 0, false);
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+    }
+
+    /**
+     * Moves the balances into a new mapped ledger. The snapshot and journal are
+     * removed only once the mapped file is fully written, so exactly one format
+     * holds the ledger at any time.
+     */
+    public Optional<MappedLedgerFile> createMappedLedger(File file, Map<Integer, Map<BankLocation, Integer>> balances)
+    {
+        TradeWindsEvents.StorageSave event = new TradeWindsEvents.StorageSave();
+        event.begin();
+        File mapFile = MappedLedgerFile.fileFor(file);
+        try
+        {
+            // Joins a ledger another client created; otherwise avoids retired leftovers
+            File live = MappedLedgerFile.find(file);
+            mapFile = live != null ? live : MappedLedgerFile.vacantFileFor(file);
+            MappedLedgerFile mapped = MappedLedgerFile.create(mapFile, balances);
+            LedgerJournal.delete(LedgerJournal.journalFileFor(file));
+            Files.deleteIfExists(file.toPath());
+            LedgerShards.delete(LedgerShards.directoryFor(file));
+
+            log.info("Created mapped ledger {} with {} items", mapFile.getAbsolutePath(), balances.size());
+            commitSave(event, "mapped", null, balances.size(), event.shouldCommit() ? mapFile.length() : 0, true);
+            return Optional.of(mapped);
+        }
+        catch (Exception e)
+        {
+            log.warn("Failed to create mapped ledger {}", mapFile.getName(), e);
+            commitSave(event, "mapped", null, 0, 0, false);
+            return Optional.empty();
+        }
+    }
+
     private byte[] xorBytes(byte[] input)
     {
         byte[] out = new byte[input.length];
@@ -65,66 +254,225 @@ public class TradeWindsStorage
         return out;
     }
 
-    public Optional<BankData> loadBankData()
+    /**
+     * Loads the snapshot and replays any journal written since it on top.
+     *
+     * @return the ledger, or empty if the account has none yet
+     * @throws IOException if there is a ledger but it could not be read; the
+     * caller must not save over it
+     */
+    public Optional<BankData> loadBankData(File file) throws IOException
     {
-        File file = getBankFile();
-
-        if (!file.exists())
+        File journal = LedgerJournal.journalFileFor(file);
+        if (!file.exists() && !journal.exists())
         {
             log.info("No existing bank data file at {}", file.getAbsolutePath());
             return Optional.empty();
         }
 
+        TradeWindsEvents.StorageLoad event = new TradeWindsEvents.StorageLoad();
+        event.begin();
         try
         {
-            byte[] raw = Files.readAllBytes(file.toPath());
-            log.info("Read {} bytes from {}", raw.length, file.getName());
-
-            byte[] decoded = Base64.getDecoder().decode(raw);
-            byte[] jsonBytes = xorBytes(decoded);
-
-            String json = new String(jsonBytes, StandardCharsets.UTF_8);
-            log.debug("Decoded bank data JSON: {}", json);
-
-            BankData data = gson.fromJson(json, BankData.class);
+            BankData data = file.exists() ? loadSnapshot(file) : new BankData();
             if (data == null)
             {
-                log.warn("BankData was null after JSON parse");
-                return Optional.empty();
+                throw new IOException("Nothing decoded from " + file.getName());
+            }
+
+            if (journal.exists())
+            {
+                if (data.getBalances() == null)
+                {
+                    data.setBalances(new HashMap<>());
+                }
+
+                int replayed = LedgerJournal.replay(journal, data.getGeneration(), data.getBalances());
+                log.info("Replayed {} journal records from {}", replayed, journal.getName());
             }
 
-            log.info("Loaded BankData with {} items",
-                    data.getBalances() != null ? data.getBalances().size() : 0);
+            int items = data.getBalances() != null ? data.getBalances().size() : 0;
+            log.info("Loaded BankData with {} items", items);
+            commitLoad(event, "snapshot", null, items,
+                    event.shouldCommit() ? file.length() + journal.length() : 0, true);
 
             return Optional.of(data);
         }
-        catch (Exception e)
+        catch (IOException | RuntimeException e)
         {
             log.warn("Failed to load bank data", e);
-            return Optional.empty();
+            commitLoad(event, "snapshot", null, 0, 0, false);
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+    }
+
+    private BankData loadSnapshot(File file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            log.info("Read {} bytes from {}", size, file.getName());
+
+            if (isBinaryLedger(channel))
+            {
+                return BankDataCodec.decode(channel, size);
+            }
+            return loadLegacyBankData(file);
+        }
+    }
+
+    /**
+     * Appends one batch of deltas to the journal beside the snapshot file.
+     *
+     * @param generation the generation of the snapshot the deltas apply to
+     * @return the journal size after the append, or -1 if the append failed
+     */
+    public long appendJournal(File file, long generation, LedgerDeltaBuffer deltas)
+    {
+        TradeWindsEvents.StorageSave event = new TradeWindsEvents.StorageSave();
+        event.begin();
+        File journal = LedgerJournal.journalFileFor(file);
+        long before = event.isEnabled() ? journal.length() : 0;
+        try
+        {
+            long size = LedgerJournal.append(journal, generation, deltas);
+            log.debug("Appended {} ledger deltas to {} ({} bytes)", deltas.size(), journal.getName(), size);
+            commitSave(event, "journal", null, deltas.size(), size - before, true);
+            return size;
+        }
+        catch (Exception e)
+        {
+            log.warn("Failed to append ledger journal", e);
+            commitSave(event, "journal", null, 0, 0, false);
+            return -1;
+        }
+    }
+
+    private static boolean isBinaryLedger(FileChannel channel) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(4);
+        while (header.hasRemaining() && channel.read(header) >= 0)
+        {
+            // keep reading until the magic is in or the file ends
         }
+        channel.position(0);
+        return BankDataCodec.hasMagic(header.array());
     }
 
-    public void saveBankData(BankData data)
+    /**
+     * Reads the original Base64 + XOR + JSON format. Files in this format are
+     * rewritten as binary on their first save.
+     */
+    private BankData loadLegacyBankData(File file) throws IOException
     {
-        File file = getBankFile();
+        byte[] raw = Files.readAllBytes(file.toPath());
+        byte[] decoded = Base64.getDecoder().decode(raw);
+        byte[] jsonBytes = xorBytes(decoded);
 
+        log.info("Migrating legacy JSON bank data from {}", file.getName());
+        return gson.fromJson(new String(jsonBytes, StandardCharsets.UTF_8), BankData.class);
+    }
+
+    /**
+     * Saves atomically: the data is written to a sibling temp file which then
+     * replaces the real file, so a crash mid-write never leaves a torn ledger.
+     *
+     * @return true if the data reached disk
+     */
+    public boolean saveBankData(File file, BankData data)
+    {
+        TradeWindsEvents.StorageSave event = new TradeWindsEvents.StorageSave();
+        event.begin();
         try
         {
-            String json = gson.toJson(data);
-            byte[] jsonBytes = json.getBytes(StandardCharsets.UTF_8);
-            byte[] obfuscated = xorBytes(jsonBytes);
-            byte[] encoded = Base64.getEncoder().encode(obfuscated);
+            Path target = file.toPath();
+            Path temp = target.resolveSibling(file.getName() + ".tmp");
 
-            Files.write(file.toPath(), encoded);
+            long size;
+            try (FileChannel channel = FileChannel.open(temp,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+            {
+                BankDataCodec.encode(data, channel);
+                size = channel.size();
+            }
+            replace(temp, target);
 
-            log.info("Saved bank data ({} bytes) to {}", encoded.length, file.getAbsolutePath());
+            // The snapshot now covers everything the journal, shards or a mapped ledger held
+            LedgerJournal.delete(LedgerJournal.journalFileFor(file));
+            LedgerShards.delete(LedgerShards.directoryFor(file));
+            retireMappedLedger(file);
+
+            log.info("Saved bank data ({} bytes) to {}", size, file.getAbsolutePath());
+            commitSave(event, "snapshot", null,
+                    data.getBalances() != null ? data.getBalances().size() : 0, size, true);
+            return true;
         }
         catch (Exception e)
         {
             log.warn("Failed to save bank data", e);
+            commitSave(event, "snapshot", null, 0, 0, false);
+            return false;
         }
     }
 
+    private static void commitSave(TradeWindsEvents.StorageSave event, String format, BankLocation location,
+                                   int items, long bytes, boolean success)
+    {
+        if (event.shouldCommit())
+        {
+            event.format = format;
+            event.location = TradeWindsEvents.nameOf(location);
+            event.items = items;
+            event.bytes = bytes;
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    private static void commitLoad(TradeWindsEvents.StorageLoad event, String format, BankLocation location,
+                                   int items, long bytes, boolean success)
+    {
+        if (event.shouldCommit())
+        {
+            event.format = format;
+            event.location = TradeWindsEvents.nameOf(location);
+            event.items = items;
+            event.bytes = bytes;
+            event.success = success;
+            event.commit();
+        }
+    }
+
+    /**
+     * Retires rather than just deletes the mapped ledger, as other clients may
+     * still have it mapped and must learn to load the ledger again.
+     */
+    private static void retireMappedLedger(File file)
+    {
+        try
+        {
+            File mapFile;
+            while ((mapFile = MappedLedgerFile.find(file)) != null && MappedLedgerFile.retire(mapFile))
+            {
+                log.info("Retired mapped ledger {}", mapFile.getName());
+            }
+        }
+        catch (IOException e)
+        {
+            log.warn("Could not retire mapped ledger beside {}", file.getName(), e);
+        }
+    }
+
+    private static void replace(Path source, Path target) throws IOException
+    {
+        try
+        {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
 
 }
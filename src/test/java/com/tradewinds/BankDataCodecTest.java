@@ -0,0 +1,103 @@
+package com.tradewinds;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class BankDataCodecTest
+{
+    @Test
+    public void roundTripKeepsBalancesAndGeneration() throws Exception
+    {
+        Map<Integer, Map<BankLocation, Integer>> balances = new HashMap<>();
+        balances.put(995, perBank(BankLocation.LUMBRIDGE, 1_000_000, BankLocation.GRAND_EXCHANGE, Integer.MAX_VALUE));
+        balances.put(379, perBank(BankLocation.VARROCK_WEST, 28, BankLocation.AL_KHARID, 1));
+
+        BankData data = new BankData();
+        data.setBalances(balances);
+        data.setGeneration(1_700_000_000_123L);
+
+        BankData decoded = decode(encode(data));
+
+        assertEquals(balances, decoded.getBalances());
+        assertEquals(1_700_000_000_123L, decoded.getGeneration());
+    }
+
+    @Test
+    public void emptyAndNonPositiveEntriesAreNotWritten() throws Exception
+    {
+        Map<Integer, Map<BankLocation, Integer>> balances = new HashMap<>();
+        balances.put(995, perBank(BankLocation.LUMBRIDGE, 0, BankLocation.FALADOR_EAST, 5));
+        balances.put(379, new EnumMap<>(BankLocation.class));
+
+        BankData data = new BankData();
+        data.setBalances(balances);
+
+        Map<Integer, Map<BankLocation, Integer>> expected = new HashMap<>();
+        Map<BankLocation, Integer> coins = new EnumMap<>(BankLocation.class);
+        coins.put(BankLocation.FALADOR_EAST, 5);
+        expected.put(995, coins);
+
+        assertEquals(expected, decode(encode(data)).getBalances());
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptedFileIsRejected() throws Exception
+    {
+        BankData data = new BankData();
+        data.setBalances(new HashMap<>());
+        data.getBalances().put(995, perBank(BankLocation.LUMBRIDGE, 100, BankLocation.VARROCK_EAST, 200));
+
+        byte[] bytes = encode(data);
+        bytes[bytes.length - 6] ^= 0x01;
+        decode(bytes);
+    }
+
+    @Test(expected = IOException.class)
+    public void implausibleCountIsRejectedBeforeAllocating() throws Exception
+    {
+        BankData data = new BankData();
+        data.setBalances(new HashMap<>());
+
+        // Header, then a location count of Integer.MAX_VALUE in place of the real one
+        byte[] bytes = encode(data);
+        int counts = 4 + 1 + 8;
+        byte[] corrupt = new byte[bytes.length + 4];
+        System.arraycopy(bytes, 0, corrupt, 0, counts);
+        corrupt[counts] = (byte) 0xFF;
+        corrupt[counts + 1] = (byte) 0xFF;
+        corrupt[counts + 2] = (byte) 0xFF;
+        corrupt[counts + 3] = (byte) 0xFF;
+        corrupt[counts + 4] = 0x07;
+        System.arraycopy(bytes, counts + 1, corrupt, counts + 5, bytes.length - counts - 1);
+        decode(corrupt);
+    }
+
+    static byte[] encode(BankData data) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BankDataCodec.encode(data, Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    private static BankData decode(byte[] bytes) throws IOException
+    {
+        return BankDataCodec.decode(Channels.newChannel(new ByteArrayInputStream(bytes)), bytes.length);
+    }
+
+    static Map<BankLocation, Integer> perBank(BankLocation first, int firstQuantity, BankLocation second, int secondQuantity)
+    {
+        Map<BankLocation, Integer> perBank = new EnumMap<>(BankLocation.class);
+        perBank.put(first, firstQuantity);
+        perBank.put(second, secondQuantity);
+        return perBank;
+    }
+}
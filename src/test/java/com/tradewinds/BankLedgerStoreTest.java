@@ -0,0 +1,185 @@
+package com.tradewinds;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BankLedgerStoreTest
+{
+    private static final int COINS = 995;
+    private static final int LOBSTER = 379;
+    private static final int SHARK = 385;
+
+    // Ordinals past 63 live in the high mask word
+    private static final BankLocation LAST = BankLedgerStore.LOCATIONS[BankLedgerStore.LOCATION_COUNT - 1];
+
+    @Test
+    public void totalsAndItemCountsFollowEveryWrite()
+    {
+        BankLedgerStore store = new BankLedgerStore();
+        store.setQuantity(COINS, BankLocation.LUMBRIDGE, 100);
+        store.setQuantity(COINS, BankLocation.VARROCK_WEST, 50);
+        store.setQuantity(COINS, LAST, 7);
+        store.setQuantity(LOBSTER, BankLocation.LUMBRIDGE, 20);
+        store.verifyInvariants();
+
+        assertEquals(157, store.getTotal(COINS));
+        assertEquals(2, store.getItemCount(BankLocation.LUMBRIDGE));
+        assertEquals(1, store.getItemCount(LAST));
+        assertTrue(store.isHeldAt(COINS, LAST));
+
+        store.setQuantity(COINS, BankLocation.LUMBRIDGE, 40);
+        store.setQuantity(COINS, LAST, 0);
+        store.verifyInvariants();
+
+        assertEquals(90, store.getTotal(COINS));
+        assertEquals(0, store.getItemCount(LAST));
+        assertFalse(store.isHeldAt(COINS, LAST));
+
+        store.setQuantity(LOBSTER, BankLocation.LUMBRIDGE, 0);
+        store.verifyInvariants();
+
+        assertFalse(store.contains(LOBSTER));
+        assertEquals(1, store.getItemCount(BankLocation.LUMBRIDGE));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    public void removeClearsEveryLocation()
+    {
+        BankLedgerStore store = new BankLedgerStore();
+        store.setQuantity(COINS, BankLocation.LUMBRIDGE, 100);
+        store.setQuantity(COINS, LAST, 5);
+        store.setQuantity(SHARK, LAST, 3);
+
+        store.remove(COINS);
+        store.verifyInvariants();
+
+        assertFalse(store.contains(COINS));
+        assertEquals(0, store.getTotal(COINS));
+        assertEquals(0, store.getItemCount(BankLocation.LUMBRIDGE));
+        assertEquals(1, store.getItemCount(LAST));
+        assertNull(store.toLocationMap(COINS));
+    }
+
+    @Test
+    public void randomWritesSurviveResizesAndRemovals()
+    {
+        // Starts small so the table rehashes several times, and removals leave
+        // probe chains that later lookups must still walk
+        BankLedgerStore store = new BankLedgerStore(4);
+        long[][] expected = new long[4000][BankLedgerStore.LOCATION_COUNT];
+        Random random = new Random(1234);
+
+        for (int step = 0; step < 50_000; step++)
+        {
+            int itemId = 1 + random.nextInt(expected.length - 1);
+            int column = random.nextInt(BankLedgerStore.LOCATION_COUNT);
+            if (random.nextInt(20) == 0)
+            {
+                store.remove(itemId);
+                expected[itemId] = new long[BankLedgerStore.LOCATION_COUNT];
+            }
+            else
+            {
+                int quantity = random.nextInt(3) == 0 ? 0 : random.nextInt(1000);
+                store.setQuantity(itemId, BankLedgerStore.LOCATIONS[column], quantity);
+                expected[itemId][column] = quantity;
+            }
+
+            if (step % 5000 == 0)
+            {
+                store.verifyInvariants();
+            }
+        }
+        store.verifyInvariants();
+
+        int held = 0;
+        for (int itemId = 1; itemId < expected.length; itemId++)
+        {
+            long total = 0;
+            for (int column = 0; column < BankLedgerStore.LOCATION_COUNT; column++)
+            {
+                assertEquals(expected[itemId][column], store.getQuantity(itemId, BankLedgerStore.LOCATIONS[column]));
+                total += expected[itemId][column];
+            }
+            assertEquals(total, store.getTotal(itemId));
+            assertEquals(total > 0, store.contains(itemId));
+            held += total > 0 ? 1 : 0;
+        }
+        assertEquals(held, store.size());
+    }
+
+    @Test
+    public void partialStoreFillsInLocationsAsTheyLoad()
+    {
+        BankLedgerStore store = new BankLedgerStore();
+        store.beginPartial();
+        store.putIndexEntry(COINS, 157, new int[]{BankLocation.LUMBRIDGE.ordinal(), LAST.ordinal()}, 2);
+        store.putIndexEntry(LOBSTER, 20, new int[]{BankLocation.LUMBRIDGE.ordinal()}, 1);
+        store.verifyInvariants();
+
+        assertFalse(store.isFullyLoaded());
+        assertEquals(157, store.getTotal(COINS));
+        assertEquals(2, store.getItemCount(BankLocation.LUMBRIDGE));
+        assertTrue(store.isHeldAt(COINS, LAST));
+        assertEquals(0, store.getQuantity(COINS, LAST));
+
+        // SHARK is not in the index for this location, so its entry is stale
+        store.loadLocation(BankLocation.LUMBRIDGE, new int[]{COINS, LOBSTER, SHARK}, new int[]{150, 20, 9}, 3);
+        store.verifyInvariants();
+
+        assertTrue(store.isLoaded(BankLocation.LUMBRIDGE));
+        assertFalse(store.isLoaded(LAST));
+        assertEquals(150, store.getQuantity(COINS, BankLocation.LUMBRIDGE));
+        assertFalse(store.contains(SHARK));
+
+        store.loadLocation(LAST, new int[]{COINS}, new int[]{7}, 1);
+        store.verifyInvariants();
+
+        assertEquals(7, store.getQuantity(COINS, LAST));
+        assertEquals(157, store.getTotal(COINS));
+
+        // Loading a location twice must not overwrite what has changed since
+        store.setQuantity(COINS, LAST, 10);
+        store.loadLocation(LAST, new int[]{COINS}, new int[]{7}, 1);
+        assertEquals(10, store.getQuantity(COINS, LAST));
+        assertEquals(160, store.getTotal(COINS));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void writesToUnloadedLocationsAreRefused()
+    {
+        BankLedgerStore store = new BankLedgerStore();
+        store.beginPartial();
+        store.setQuantity(COINS, BankLocation.LUMBRIDGE, 1);
+    }
+
+    @Test
+    public void copyIsIndependent()
+    {
+        BankLedgerStore store = new BankLedgerStore();
+        store.beginPartial();
+        store.putIndexEntry(COINS, 100, new int[]{BankLocation.LUMBRIDGE.ordinal()}, 1);
+
+        BankLedgerStore copy = store.copy();
+        copy.loadLocation(BankLocation.LUMBRIDGE, new int[]{COINS}, new int[]{100}, 1);
+        copy.setQuantity(COINS, BankLocation.LUMBRIDGE, 40);
+        copy.verifyInvariants();
+
+        assertFalse(store.isLoaded(BankLocation.LUMBRIDGE));
+        assertEquals(100, store.getTotal(COINS));
+        assertEquals(40, copy.getTotal(COINS));
+        store.verifyInvariants();
+
+        Map<BankLocation, Integer> perBank = copy.toLocationMap(COINS);
+        assertEquals(1, perBank.size());
+        assertEquals(Integer.valueOf(40), perBank.get(BankLocation.LUMBRIDGE));
+    }
+}
@@ -0,0 +1,195 @@
+package com.tradewinds;
+
+import net.runelite.api.coords.WorldPoint;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class BankLocationResolverTest
+{
+    // The region switch BankLocation.fromWorldPoint used before the resolver
+    private static final Object[][] BASELINE = {
+            {12850, BankLocation.LUMBRIDGE},
+            {12597, BankLocation.VARROCK_WEST},
+            {12853, BankLocation.VARROCK_EAST},
+            {11828, BankLocation.FALADOR_EAST},
+            {12084, BankLocation.FALADOR_WEST},
+            {12598, BankLocation.GRAND_EXCHANGE},
+            {13105, BankLocation.AL_KHARID},
+            {13363, BankLocation.EMIRS_ARENA},
+            {13613, BankLocation.NARDAH},
+            {12588, BankLocation.RUINS_OF_UNKAH},
+            {13104, BankLocation.SHANTAY_PASS},
+            {12336, BankLocation.TUTORIAL_ISLAND},
+            {12335, BankLocation.THE_NODE},
+            {12338, BankLocation.DRAYNOR_VILLAGE},
+            {12342, BankLocation.EDGEVILLE},
+            {13878, BankLocation.CANIFIS},
+            {14646, BankLocation.PORT_PHASMATYS},
+            {14388, BankLocation.DARKMEYER},
+            {14386, BankLocation.VER_SINHAZA},
+            {13874, BankLocation.BURG_DE_ROTT},
+            {14638, BankLocation.MOS_LE_HARMLESS},
+            {15151, BankLocation.TROUBLE_BREWING},
+            {14907, BankLocation.FOSSIL_ISLAND_MUSEUM_CAMP},
+            {15163, BankLocation.VOLCANIC_MINE},
+            {14908, BankLocation.FOSSIL_ISLAND_SMALL_ISLAND},
+            {12078, BankLocation.THE_PANDEMONIUM},
+            {12581, BankLocation.THE_GREAT_CONCH},
+            {11051, BankLocation.APE_ATOLL},
+            {11310, BankLocation.SHILO_VILLAGE},
+            {11571, BankLocation.CRAFTING_GUILD},
+            {10545, BankLocation.PORT_KHAZARD},
+            {10547, BankLocation.ARDOUGNE_SOUTH},
+            {10292, BankLocation.ARDOUGNE_NORTH},
+            {10293, BankLocation.FISHING_GUILD},
+            {11061, BankLocation.CATHERBY},
+            {11575, BankLocation.ROUGES_DEN},
+            {10806, BankLocation.SEERS_VILLAGE},
+            {10300, BankLocation.ETCETERIA},
+            {9531, BankLocation.JATIZSO},
+            {9275, BankLocation.NEITIZNOT},
+            {8253, BankLocation.LUNAR_ISLE},
+            {9273, BankLocation.PISCATORIS_FISHING_COLONY},
+            {9781, BankLocation.TREE_GNOME_STRONGHOLD},
+            {9782, BankLocation.GRAND_TREE},
+            {10039, BankLocation.BARBARIAN_OUTPOST},
+            {9776, BankLocation.CASTLE_WARS},
+            {10288, BankLocation.YANILLE},
+            {10284, BankLocation.CORSAIR_COVE},
+            {9772, BankLocation.MYTHS_GUILD},
+            {10537, BankLocation.VOID_KNIGHTS_OUTPOST},
+            {8748, BankLocation.SOUL_WARS_LOBBY},
+            {9265, BankLocation.LLETYA},
+            {9011, BankLocation.PRIFDDINAS_SOUTH_EAST},
+            {12895, BankLocation.PRIFDDINAS_NORTH_WEST},
+            {9541, BankLocation.ZANARIS},
+            {10057, BankLocation.MAGE_ARENA_BANK},
+            {11866, BankLocation.CAMDOZAAL},
+            {9808, BankLocation.FIGHT_CAVES},
+            {10064, BankLocation.MOR_UL_REK},
+            {7227, BankLocation.PORT_PISCARILIUS},
+            {6458, BankLocation.ARCEUUS},
+            {6457, BankLocation.KOUREND_CASTLE},
+            {6968, BankLocation.HOSIDIUS},
+            {7223, BankLocation.HOSIDIUS_VINERY},
+            {6712, BankLocation.HOSIDIUS_KITCHEN},
+            {6198, BankLocation.WOODCUTTING_GUILD},
+            {5944, BankLocation.SHAYZIEN},
+            {5941, BankLocation.LANDS_END},
+            {5946, BankLocation.LOVAKENGJ},
+            {5691, BankLocation.LOVAKENGJ_MINE},
+            {5948, BankLocation.BLAST_MINE},
+            {6461, BankLocation.WINTERTODT},
+            {5179, BankLocation.MOUNT_KARUULM},
+            {4922, BankLocation.FARMING_GUILD},
+            {4919, BankLocation.MOUNT_QUIIDAMORTEM},
+            {5428, BankLocation.AUBURNVALE},
+            {4912, BankLocation.TAL_TEKLAN},
+            {5421, BankLocation.ALDARIN},
+            {5420, BankLocation.MISTROCK},
+            {6191, BankLocation.HUNTER_GUILD},
+            {6448, BankLocation.CIVITAS_ILLA_FORTIS_WEST},
+            {6960, BankLocation.CIVITAS_ILLA_FORTIS_EAST},
+            {5938, BankLocation.QUETZACALLI_GORGE},
+            {5939, BankLocation.THE_DARKFROST},
+            {5427, BankLocation.NEMUS_RETREAT},
+            {12344, BankLocation.FEROX_ENCLAVE},
+            {14936, BankLocation.MOTHERLODE_MINE}
+    };
+
+    private static final int[] UNMAPPED_REGIONS = {0, 6456, 11827, 12851, 12852, 13362, 65535};
+
+    @Test
+    public void everyBaselineRegionResolvesAsBefore()
+    {
+        BankLocationResolver resolver = BankLocationResolver.getDefault();
+        for (Object[] row : BASELINE)
+        {
+            int region = (Integer) row[0];
+            BankLocation expected = (BankLocation) row[1];
+            for (WorldPoint wp : samples(region))
+            {
+                assertEquals("region " + region + " at " + wp.getX() + "," + wp.getY() + "," + wp.getPlane(),
+                        expected, resolver.resolve(wp));
+            }
+        }
+    }
+
+    @Test
+    public void unmappedRegionsResolveToUnknown()
+    {
+        BankLocationResolver resolver = BankLocationResolver.getDefault();
+        for (int region : UNMAPPED_REGIONS)
+        {
+            for (WorldPoint wp : samples(region))
+            {
+                assertEquals("region " + region, BankLocation.UNKNOWN, resolver.resolve(wp));
+            }
+        }
+        assertEquals(BankLocation.UNKNOWN, resolver.resolve(null));
+    }
+
+    @Test
+    public void everyListedRegionIsInTheBaseline() throws Exception
+    {
+        Map<Integer, BankLocation> baseline = new HashMap<>();
+        for (Object[] row : BASELINE)
+        {
+            baseline.put((Integer) row[0], (BankLocation) row[1]);
+        }
+
+        InputStream in = BankLocationResolver.class.getResourceAsStream(BankLocationResolver.RESOURCE);
+        assertNotNull(in);
+        int listed = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)))
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                String[] words = line.trim().split("\\s+");
+                if (words.length != 3 || !words[1].equals("region"))
+                {
+                    // comments, blanks, instances and refined regions
+                    continue;
+                }
+
+                int region = Integer.parseInt(words[2]);
+                assertTrue("region " + region + " is not in the baseline", baseline.containsKey(region));
+                assertEquals("region " + region, baseline.get(region), BankLocation.valueOf(words[0]));
+                listed++;
+            }
+        }
+        assertEquals(BASELINE.length, listed);
+    }
+
+    /**
+     * @return the corners and centre of a region on every plane
+     */
+    private static WorldPoint[] samples(int region)
+    {
+        int baseX = (region >> 8) << 6;
+        int baseY = (region & 0xFF) << 6;
+        int[][] offsets = {{0, 0}, {63, 0}, {0, 63}, {63, 63}, {32, 32}};
+
+        WorldPoint[] samples = new WorldPoint[offsets.length * 4];
+        int n = 0;
+        for (int plane = 0; plane < 4; plane++)
+        {
+            for (int[] offset : offsets)
+            {
+                samples[n++] = new WorldPoint(baseX + offset[0], baseY + offset[1], plane);
+            }
+        }
+        return samples;
+    }
+}
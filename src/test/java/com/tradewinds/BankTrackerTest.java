@@ -0,0 +1,85 @@
+package com.tradewinds;
+
+import net.runelite.api.Item;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class BankTrackerTest
+{
+    private static final int LOBSTER = 379;
+    private static final int SHARK = 385;
+    private static final int COINS = 995;
+
+    private BankTracker tracker;
+    private BankSnapshot before;
+    private BankSnapshot after;
+
+    @Before
+    public void setUp()
+    {
+        tracker = new BankTracker(null, null, null);
+        before = new BankSnapshot();
+        after = new BankSnapshot();
+    }
+
+    @Test
+    public void unchangedBankHasNoChanges()
+    {
+        before.capture(new Item[]{new Item(COINS, 100), new Item(LOBSTER, 5)});
+        after.capture(new Item[]{new Item(LOBSTER, 5), new Item(COINS, 100)});
+
+        assertEquals(0, tracker.diffSnapshots(before, after));
+    }
+
+    @Test
+    public void addedItemsAreReportedWithTheirTotal()
+    {
+        before.capture(new Item[]{new Item(LOBSTER, 5)});
+        after.capture(new Item[]{new Item(SHARK, 3), new Item(LOBSTER, 5), new Item(COINS, 100)});
+
+        assertEquals(2, tracker.diffSnapshots(before, after));
+        assertChange(0, SHARK, 3);
+        assertChange(1, COINS, 100);
+    }
+
+    @Test
+    public void removedItemsAreReportedAsZero()
+    {
+        before.capture(new Item[]{new Item(LOBSTER, 5), new Item(SHARK, 3), new Item(COINS, 100)});
+        after.capture(new Item[]{new Item(SHARK, 3)});
+
+        assertEquals(2, tracker.diffSnapshots(before, after));
+        assertChange(0, LOBSTER, 0);
+        assertChange(1, COINS, 0);
+    }
+
+    @Test
+    public void changedItemsAreReportedWithTheirNewTotal()
+    {
+        // Placeholder slots and split stacks are folded into one total per item
+        before.capture(new Item[]{new Item(COINS, 100), new Item(-1, 0), new Item(LOBSTER, 5)});
+        after.capture(new Item[]{new Item(COINS, 60), new Item(LOBSTER, 2), new Item(LOBSTER, 3), new Item(SHARK, 0)});
+
+        assertEquals(1, tracker.diffSnapshots(before, after));
+        assertChange(0, COINS, 60);
+    }
+
+    @Test
+    public void emptyingTheBankRemovesEverything()
+    {
+        before.capture(new Item[]{new Item(COINS, 100), new Item(LOBSTER, 5)});
+        after.capture(new Item[0]);
+
+        assertEquals(2, tracker.diffSnapshots(before, after));
+        assertChange(0, LOBSTER, 0);
+        assertChange(1, COINS, 0);
+    }
+
+    private void assertChange(int index, int itemId, long total)
+    {
+        assertEquals(itemId, tracker.changedIds[index]);
+        assertEquals(total, tracker.changedTotals[index]);
+    }
+}
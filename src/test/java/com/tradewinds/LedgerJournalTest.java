@@ -0,0 +1,101 @@
+package com.tradewinds;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class LedgerJournalTest
+{
+    private static final int COINS = 995;
+    private static final int LOBSTER = 379;
+    private static final long GENERATION = 42;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replayAppliesBatchesInOrder() throws Exception
+    {
+        File journal = new File(folder.getRoot(), "ledger.journal");
+        LedgerJournal.append(journal, GENERATION, deltas(
+                COINS, BankLocation.LUMBRIDGE, 0, 100,
+                LOBSTER, BankLocation.VARROCK_WEST, 0, 20));
+        LedgerJournal.append(journal, GENERATION, deltas(
+                COINS, BankLocation.LUMBRIDGE, 100, 60,
+                LOBSTER, BankLocation.VARROCK_WEST, 20, 0));
+
+        Map<Integer, Map<BankLocation, Integer>> balances = new HashMap<>();
+        assertEquals(4, LedgerJournal.replay(journal, GENERATION, balances));
+
+        assertEquals(Integer.valueOf(60), balances.get(COINS).get(BankLocation.LUMBRIDGE));
+        assertFalse(balances.containsKey(LOBSTER));
+    }
+
+    @Test
+    public void tornTailIsTruncated() throws Exception
+    {
+        File journal = new File(folder.getRoot(), "ledger.journal");
+        long intact = LedgerJournal.append(journal, GENERATION, deltas(COINS, BankLocation.LUMBRIDGE, 0, 100));
+        long torn = LedgerJournal.append(journal, GENERATION, deltas(COINS, BankLocation.LUMBRIDGE, 100, 5));
+
+        // A crash mid-append leaves part of the last batch behind
+        try (RandomAccessFile raf = new RandomAccessFile(journal, "rw"))
+        {
+            raf.setLength(torn - 3);
+        }
+
+        Map<Integer, Map<BankLocation, Integer>> balances = new HashMap<>();
+        assertEquals(1, LedgerJournal.replay(journal, GENERATION, balances));
+        assertEquals(Integer.valueOf(100), balances.get(COINS).get(BankLocation.LUMBRIDGE));
+        assertEquals(intact, journal.length());
+
+        // Appends after the truncation are readable again
+        LedgerJournal.append(journal, GENERATION, deltas(COINS, BankLocation.LUMBRIDGE, 100, 7));
+        balances.clear();
+        assertEquals(2, LedgerJournal.replay(journal, GENERATION, balances));
+        assertEquals(Integer.valueOf(7), balances.get(COINS).get(BankLocation.LUMBRIDGE));
+    }
+
+    @Test
+    public void journalOfAnotherSnapshotIsSkipped() throws Exception
+    {
+        File journal = new File(folder.getRoot(), "ledger.journal");
+        LedgerJournal.append(journal, GENERATION, deltas(COINS, BankLocation.LUMBRIDGE, 0, 100));
+
+        Map<Integer, Map<BankLocation, Integer>> balances = new HashMap<>();
+        assertEquals(0, LedgerJournal.replay(journal, GENERATION + 1, balances));
+        assertEquals(0, balances.size());
+    }
+
+    @Test
+    public void appendStartsAfreshOverAnOlderSnapshotsJournal() throws Exception
+    {
+        File journal = new File(folder.getRoot(), "ledger.journal");
+        LedgerJournal.append(journal, GENERATION, deltas(COINS, BankLocation.LUMBRIDGE, 0, 100));
+        LedgerJournal.append(journal, GENERATION + 1, deltas(LOBSTER, BankLocation.AL_KHARID, 0, 3));
+
+        Map<Integer, Map<BankLocation, Integer>> balances = new HashMap<>();
+        assertEquals(1, LedgerJournal.replay(journal, GENERATION + 1, balances));
+        assertFalse(balances.containsKey(COINS));
+        assertEquals(Integer.valueOf(3), balances.get(LOBSTER).get(BankLocation.AL_KHARID));
+    }
+
+    static LedgerDeltaBuffer deltas(Object... records)
+    {
+        LedgerDeltaBuffer deltas = new LedgerDeltaBuffer();
+        for (int i = 0; i < records.length; i += 4)
+        {
+            deltas.add((Integer) records[i], ((BankLocation) records[i + 1]).ordinal(),
+                    (Integer) records[i + 2], (Integer) records[i + 3]);
+        }
+        return deltas;
+    }
+}
@@ -0,0 +1,170 @@
+package com.tradewinds;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MappedLedgerFileTest
+{
+    private static final int COINS = 995;
+    private static final int LOBSTER = 379;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void interleavedClientsKeepEachOthersChanges() throws Exception
+    {
+        File file = new File(folder.getRoot(), "ledger.map");
+        Map<Integer, Map<BankLocation, Integer>> balances = new HashMap<>();
+        balances.put(COINS, locations(BankLocation.values()[0], 1000));
+
+        try (MappedLedgerFile first = MappedLedgerFile.create(file, balances);
+             MappedLedgerFile second = MappedLedgerFile.open(file))
+        {
+            BankLocation bank = BankLocation.values()[0];
+            BankLocation other = BankLocation.values()[1];
+            read(first);
+            read(second);
+
+            // Both saw 1000 coins; each takes some out without seeing the other
+            first.apply(delta(COINS, bank, 1000, 900));
+            second.apply(delta(COINS, bank, 1000, 750));
+            second.apply(delta(LOBSTER, other, 0, 20));
+
+            assertTrue(first.hasForeignWrites());
+            BankLedgerStore firstView = read(first);
+            assertEquals(650, firstView.getQuantity(COINS, bank));
+            assertEquals(20, firstView.getQuantity(LOBSTER, other));
+
+            first.apply(delta(LOBSTER, other, 20, 5));
+            assertTrue(second.hasForeignWrites());
+            BankLedgerStore secondView = read(second);
+            assertEquals(650, secondView.getQuantity(COINS, bank));
+            assertEquals(5, secondView.getQuantity(LOBSTER, other));
+            assertFalse(second.hasForeignWrites());
+        }
+    }
+
+    @Test
+    public void applyNeverDropsBelowZero() throws Exception
+    {
+        File file = new File(folder.getRoot(), "ledger.map");
+        BankLocation bank = BankLocation.values()[0];
+
+        try (MappedLedgerFile first = MappedLedgerFile.create(file, Collections.singletonMap(COINS, locations(bank, 10)));
+             MappedLedgerFile second = MappedLedgerFile.open(file))
+        {
+            first.apply(delta(COINS, bank, 10, 0));
+            second.apply(delta(COINS, bank, 10, 0));
+
+            assertEquals(0, read(first).getQuantity(COINS, bank));
+        }
+    }
+
+    @Test
+    public void createOpensAFileAnotherClientCreatedFirst() throws Exception
+    {
+        File file = new File(folder.getRoot(), "ledger.map");
+        BankLocation bank = BankLocation.values()[0];
+
+        try (MappedLedgerFile first = MappedLedgerFile.create(file, Collections.singletonMap(COINS, locations(bank, 10)));
+             MappedLedgerFile second = MappedLedgerFile.create(file, Collections.singletonMap(COINS, locations(bank, 99))))
+        {
+            assertEquals(10, read(second).getQuantity(COINS, bank));
+
+            second.apply(delta(COINS, bank, 10, 15));
+            assertEquals(15, read(first).getQuantity(COINS, bank));
+        }
+    }
+
+    @Test
+    public void retiredFileIsSeenByPeers() throws Exception
+    {
+        File file = new File(folder.getRoot(), "ledger.map");
+        BankLocation bank = BankLocation.values()[0];
+
+        try (MappedLedgerFile peer = MappedLedgerFile.create(file, Collections.singletonMap(COINS, locations(bank, 10))))
+        {
+            assertFalse(peer.isRetired());
+            assertTrue(MappedLedgerFile.retire(file));
+
+            assertTrue(peer.isRetired());
+        }
+    }
+
+    @Test
+    public void retiredFileLeftBehindIsReplaced() throws Exception
+    {
+        File dataFile = new File(folder.getRoot(), "bankdata-test.dat");
+        File file = MappedLedgerFile.fileFor(dataFile);
+        BankLocation bank = BankLocation.values()[0];
+        File leftover = new File(folder.getRoot(), "leftover.map");
+
+        try (MappedLedgerFile peer = MappedLedgerFile.create(file, Collections.singletonMap(COINS, locations(bank, 10))))
+        {
+            // Keep the retired file around, as a delete refused on Windows would
+            Files.createLink(leftover.toPath(), file.toPath());
+            MappedLedgerFile.retire(file);
+            Files.move(leftover.toPath(), file.toPath());
+            assertTrue(peer.isRetired());
+        }
+
+        assertNull(MappedLedgerFile.find(dataFile));
+
+        File target = MappedLedgerFile.vacantFileFor(dataFile);
+        try (MappedLedgerFile created = MappedLedgerFile.create(target, Collections.singletonMap(COINS, locations(bank, 99))))
+        {
+            assertFalse(created.isRetired());
+            assertEquals(target, MappedLedgerFile.find(dataFile));
+            assertEquals(99, read(created).getQuantity(COINS, bank));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void retiredFileRefusesWrites() throws Exception
+    {
+        File file = new File(folder.getRoot(), "ledger.map");
+        BankLocation bank = BankLocation.values()[0];
+
+        try (MappedLedgerFile peer = MappedLedgerFile.create(file, Collections.singletonMap(COINS, locations(bank, 10))))
+        {
+            MappedLedgerFile.retire(file);
+            peer.apply(delta(COINS, bank, 10, 5));
+        }
+    }
+
+    private static BankLedgerStore read(MappedLedgerFile mapped) throws Exception
+    {
+        BankLedgerStore store = new BankLedgerStore();
+        mapped.readInto(store);
+        return store;
+    }
+
+    private static LedgerDeltaBuffer delta(int itemId, BankLocation location, int previous, int quantity)
+    {
+        LedgerDeltaBuffer deltas = new LedgerDeltaBuffer();
+        deltas.add(itemId, location.ordinal(), previous, quantity);
+        return deltas;
+    }
+
+    private static Map<BankLocation, Integer> locations(BankLocation location, int quantity)
+    {
+        Map<BankLocation, Integer> perBank = new EnumMap<>(BankLocation.class);
+        perBank.put(location, quantity);
+        return perBank;
+    }
+}
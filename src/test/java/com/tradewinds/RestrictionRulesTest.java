@@ -0,0 +1,106 @@
+package com.tradewinds;
+
+import net.runelite.api.MenuAction;
+import net.runelite.api.MenuEntry;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RestrictionRulesTest
+{
+    private static final int VARROCK_TELEPORT = 8007;
+    private static final int AMULET_OF_GLORY = 1712;
+    private static final int ECTOPHIAL = 4251;
+    private static final int XERICS_TALISMAN = 13393;
+    private static final int LAMP = 2528;
+    private static final int BUCKET = 1925;
+
+    @Test
+    public void bundledRulesCompile() throws Exception
+    {
+        InputStream in = RestrictionRules.class.getResourceAsStream(RestrictionRules.RESOURCE);
+        assertNotNull(in);
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8))
+        {
+            assertNotNull(new RestrictionRules(reader));
+        }
+    }
+
+    @Test
+    public void teleportOptionsAreCaughtOnAnyItem()
+    {
+        RestrictionRules rules = RestrictionRules.getDefault();
+
+        assertTrue(rules.isTeleport(item("Break", VARROCK_TELEPORT)));
+        assertTrue(rules.isTeleport(item("Rub", AMULET_OF_GLORY)));
+        // Not listed as a teleport item, but its option still teleports
+        assertTrue(rules.isTeleport(item("Rub", XERICS_TALISMAN)));
+    }
+
+    @Test
+    public void itemOptionsOnlyTeleportOnTeleportItems()
+    {
+        RestrictionRules rules = RestrictionRules.getDefault();
+
+        assertTrue(rules.isTeleport(item("Empty", ECTOPHIAL)));
+        assertFalse(rules.isTeleport(item("Empty", BUCKET)));
+        assertTrue(rules.isTeleport(item("Edgeville", AMULET_OF_GLORY)));
+    }
+
+    @Test
+    public void otherOptionsAndExcludedItemsAreLeftAlone()
+    {
+        RestrictionRules rules = RestrictionRules.getDefault();
+
+        assertFalse(rules.isTeleport(item("Deposit-1", VARROCK_TELEPORT)));
+        assertFalse(rules.isTeleport(item("Withdraw-All", AMULET_OF_GLORY)));
+        assertFalse(rules.isTeleport(item("Wear", AMULET_OF_GLORY)));
+        assertFalse(rules.isTeleport(item("Rub", LAMP)));
+    }
+
+    @Test
+    public void malformedRuleNamesItsLine() throws Exception
+    {
+        try
+        {
+            new RestrictionRules(new StringReader("# comment\ncarry 554\nteleport-itme 8007\n"));
+            fail("expected the misspelt rule to be refused");
+        }
+        catch (IllegalArgumentException e)
+        {
+            assertEquals(RestrictionRules.RESOURCE + ":3: unknown rule teleport-itme", e.getMessage());
+        }
+    }
+
+    private static MenuEntry item(String option, int itemId)
+    {
+        return (MenuEntry) Proxy.newProxyInstance(MenuEntry.class.getClassLoader(), new Class<?>[]{MenuEntry.class},
+                (proxy, method, args) ->
+                {
+                    switch (method.getName())
+                    {
+                        case "getType":
+                            return MenuAction.CC_OP;
+                        case "getOption":
+                            return option;
+                        case "getItemId":
+                            return itemId;
+                        case "getParam1":
+                            return -1;
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
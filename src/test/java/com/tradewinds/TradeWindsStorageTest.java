@@ -0,0 +1,157 @@
+package com.tradewinds;
+
+import net.runelite.api.Client;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The snapshot save writes a temp file, renames it over the snapshot and then
+ * deletes the journal; these tests stop it between each step.
+ */
+public class TradeWindsStorageTest
+{
+    private static final int COINS = 995;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TradeWindsStorage storage;
+    private File file;
+    private File journal;
+
+    @Before
+    public void setUp()
+    {
+        storage = new TradeWindsStorage(folder.getRoot(), null, null);
+        file = new File(storage.getDirectory(), "bankdata-test.dat");
+        journal = LedgerJournal.journalFileFor(file);
+    }
+
+    @Test
+    public void journalOnTopOfItsSnapshotIsReplayed() throws Exception
+    {
+        assertTrue(storage.saveBankData(file, snapshot(1, 100)));
+        storage.appendJournal(file, 1, LedgerJournalTest.deltas(COINS, BankLocation.LUMBRIDGE, 100, 50));
+
+        assertEquals(Integer.valueOf(50), coinsAfterLoad());
+    }
+
+    @Test
+    public void crashBeforeRenameKeepsOldSnapshotAndJournal() throws Exception
+    {
+        assertTrue(storage.saveBankData(file, snapshot(1, 100)));
+        storage.appendJournal(file, 1, LedgerJournalTest.deltas(COINS, BankLocation.LUMBRIDGE, 100, 50));
+
+        // The newer snapshot only reached its temp file
+        Files.write(new File(file.getParentFile(), file.getName() + ".tmp").toPath(),
+                BankDataCodecTest.encode(snapshot(2, 50)));
+
+        assertEquals(Integer.valueOf(50), coinsAfterLoad());
+    }
+
+    @Test
+    public void crashBetweenRenameAndDeleteSkipsStaleJournal() throws Exception
+    {
+        assertTrue(storage.saveBankData(file, snapshot(1, 100)));
+        storage.appendJournal(file, 1, LedgerJournalTest.deltas(COINS, BankLocation.LUMBRIDGE, 100, 50));
+        storage.appendJournal(file, 1, LedgerJournalTest.deltas(COINS, BankLocation.LUMBRIDGE, 50, 10));
+
+        // The newer snapshot (folding in only the first batch, then a deposit) was
+        // renamed into place, but the journal was never deleted
+        Files.write(file.toPath(), BankDataCodecTest.encode(snapshot(2, 80)));
+        assertTrue(journal.exists());
+
+        assertEquals(Integer.valueOf(80), coinsAfterLoad());
+    }
+
+    @Test
+    public void snapshotSaveRemovesJournal() throws Exception
+    {
+        assertTrue(storage.saveBankData(file, snapshot(1, 100)));
+        storage.appendJournal(file, 1, LedgerJournalTest.deltas(COINS, BankLocation.LUMBRIDGE, 100, 50));
+
+        assertTrue(storage.saveBankData(file, snapshot(2, 50)));
+
+        assertFalse(journal.exists());
+        assertEquals(Integer.valueOf(50), coinsAfterLoad());
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptSnapshotIsReportedNotEmpty() throws Exception
+    {
+        assertTrue(storage.saveBankData(file, snapshot(1, 100)));
+        corrupt(file);
+
+        storage.loadBankData(file);
+    }
+
+    @Test
+    public void corruptSnapshotSurvivesALoad() throws Exception
+    {
+        // No player name, so the account file is the "unknown" one; default storage mode
+        TradeWindsStorage account = new TradeWindsStorage(folder.getRoot(), stub(Client.class), stub(TradeWindsConfig.class));
+        File accountFile = account.resolveBankFile();
+        assertTrue(account.saveBankData(accountFile, snapshot(1, 100)));
+        corrupt(accountFile);
+        byte[] before = Files.readAllBytes(accountFile.toPath());
+
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try
+        {
+            BankLedgerService ledger = new BankLedgerService();
+            ledger.setStorage(account, executor);
+            ledger.loadBalances();
+            assertFalse(ledger.isReady());
+
+            ledger.requestSave();
+            ledger.saveBalances();
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        assertArrayEquals(before, Files.readAllBytes(accountFile.toPath()));
+    }
+
+    private static void corrupt(File file) throws IOException
+    {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        bytes[bytes.length - 6] ^= 0x01;
+        Files.write(file.toPath(), bytes);
+    }
+
+    private static <T> T stub(Class<T> type)
+    {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> null));
+    }
+
+    private Integer coinsAfterLoad() throws IOException
+    {
+        return storage.loadBankData(file).get().getBalances().get(COINS).get(BankLocation.LUMBRIDGE);
+    }
+
+    private static BankData snapshot(long generation, int coins)
+    {
+        BankData data = new BankData();
+        data.setBalances(new HashMap<>());
+        data.getBalances().put(COINS, BankDataCodecTest.perBank(BankLocation.LUMBRIDGE, coins, BankLocation.VARROCK_WEST, 1));
+        data.setGeneration(generation);
+        return data;
+    }
+}